@@ -4,17 +4,21 @@ import org.apache.commons.cli.*;
 import org.eclipse.rdf4j.query.resultio.text.tsv.SPARQLResultsTSVWriterFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.wikidata.history.preprocessor.FileHistoryOutput;
-import org.wikidata.history.preprocessor.RevisionFileConverter;
+import org.wikidata.history.preprocessor.PreprocessedSegments;
+import org.wikidata.history.preprocessor.WikidataPropertyInformation;
+import org.wikidata.history.preprocessor.WikidataSites;
 import org.wikidata.history.sparql.HistoryRepository;
 import org.wikidata.history.sparql.RocksRevisionLoader;
+import org.wikidata.history.sparql.RocksStore;
 import org.wikidata.history.sparql.RocksTripleLoader;
+import org.wikidata.wdtk.datamodel.interfaces.Sites;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -36,6 +40,10 @@ public class Main {
     options.addOption("id", "index-dir", true, "Directory where index data are.");
     options.addOption("t", "triples-only", false, "Load only triples");
     options.addOption("wdt", "wdt-only", false, "Load only wdt: and owl:sameAs relations");
+    options.addOption("b", "binary", false, "Write the preprocessed triples in a binary format faster to load");
+    options.addOption("i", "incremental", false, "Only preprocess the changes after the last revision loaded in the index");
+    options.addOption("sf", "sites-file", true, "Dump of the sites table like wikidatawiki-20200101-sites.sql.gz. If not set it is downloaded from dumps.wikimedia.org");
+    options.addOption("pf", "properties-file", true, "File caching the property datatypes. If it does not exist it is built from the dumps instead of querying query.wikidata.org: all the dumps are then decompressed and parsed once more, which takes about as long as their conversion");
 
     CommandLineParser parser = new DefaultParser();
     CommandLine line = parser.parse(options, args);
@@ -50,22 +58,49 @@ public class Main {
       if (!Files.isDirectory(preprocessedDir)) {
         Files.createDirectories(preprocessedDir);
       }
+      // Fails before any conversion if the sites table is not available
+      Sites sites = line.hasOption("sites-file")
+              ? WikidataSites.load(Paths.get(line.getOptionValue("sites-file")))
+              : WikidataSites.download();
 
       ExecutorService executorService = Executors.newFixedThreadPool(
               Runtime.getRuntime().availableProcessors()
       );
-      try (
-              FileHistoryOutput historyOutput = new FileHistoryOutput(preprocessedDir);
-              BufferedWriter log = Files.newBufferedWriter(preprocessedDir.resolve("logs.txt"))
-      ) {
-        RevisionFileConverter revisionFileConverter = new RevisionFileConverter(historyOutput);
-        List<Path> files = Files.walk(dumpsDir)
-                .filter(file -> file.toString().endsWith(".bz2"))
-                .collect(Collectors.toList());
+      List<Path> files = Files.walk(dumpsDir)
+              .filter(file -> file.toString().endsWith(".bz2"))
+              .collect(Collectors.toList());
+      WikidataPropertyInformation propertyInformation;
+      if (line.hasOption("properties-file")) {
+        Path propertiesFile = Paths.get(line.getOptionValue("properties-file"));
+        if (Files.exists(propertiesFile)) {
+          propertyInformation = WikidataPropertyInformation.load(propertiesFile);
+        } else {
+          propertyInformation = WikidataPropertyInformation.fromDumps(files, executorService);
+          propertyInformation.save(propertiesFile);
+        }
+      } else {
+        propertyInformation = WikidataPropertyInformation.fromWdqs();
+      }
+      long afterRevisionId = -1;
+      if (line.hasOption("incremental")) {
+        try (RocksStore store = new RocksStore(indexDir, true)) {
+          afterRevisionId = store.getHighWaterRevisionId();
+        }
+        LOGGER.info("Only preprocessing the changes after revision " + afterRevisionId);
+      }
+      // The files already converted by a previous run are skipped
+      // With few dump files, each of them is split into several shards so that their compression still uses all the processors
+      int shardCount = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, files.size()));
+      PreprocessedSegments segments = new PreprocessedSegments(preprocessedDir, shardCount, line.hasOption("binary"), sites, propertyInformation, afterRevisionId);
+      try (BufferedWriter log = Files.newBufferedWriter(preprocessedDir.resolve("logs.txt"), StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
         System.out.println("Loading " + files.size() + " files.");
         List<Future<?>> futures = files.stream().map(file -> executorService.submit(() -> {
+          if (segments.isComplete(file)) {
+            LOGGER.info("Skipping " + file + ": already preprocessed");
+            return;
+          }
           try {
-            revisionFileConverter.process(file);
+            segments.process(file);
             log.write(file + "\tok\n");
           } catch (Exception e) {
             LOGGER.error(e.getMessage(), e);
@@ -94,23 +129,23 @@ public class Main {
       }
 
       if (!line.hasOption("triples-only")) {
-        Path revisionsFile = preprocessedDir.resolve("revisions.tsv.gz");
-        if (Files.exists(revisionsFile)) {
+        List<Path> revisionsFiles = PreprocessedSegments.listFiles(preprocessedDir, "revisions");
+        if (!revisionsFiles.isEmpty()) {
           try (RocksRevisionLoader loader = new RocksRevisionLoader(indexDir)) {
-            loader.load(revisionsFile);
+            loader.load(revisionsFiles);
           }
         } else {
-          LOGGER.warn("Skipping revisions loading " + revisionsFile + " does not exists");
+          LOGGER.warn("Skipping revisions loading: no revisions file in " + preprocessedDir);
         }
       }
 
-      Path triplesFile = preprocessedDir.resolve("triples.tsv.gz");
-      if (Files.exists(triplesFile)) {
+      List<Path> triplesFiles = PreprocessedSegments.listFiles(preprocessedDir, "triples");
+      if (!triplesFiles.isEmpty()) {
         try (RocksTripleLoader loader = new RocksTripleLoader(indexDir, options.hasOption("wdt-only"))) {
-          loader.load(triplesFile);
+          loader.load(triplesFiles);
         }
       } else {
-        LOGGER.warn("Skipping revisions loading " + triplesFile + " does not exists");
+        LOGGER.warn("Skipping triples loading: no triples file in " + preprocessedDir);
       }
     }
 
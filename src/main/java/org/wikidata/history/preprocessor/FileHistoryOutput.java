@@ -4,7 +4,9 @@ import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.rio.helpers.NTriplesUtil;
+import org.wikidata.history.sparql.BinaryTripleFormat;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
@@ -20,11 +22,25 @@ public class FileHistoryOutput implements HistoryOutput {
 
   private final Writer revisionsWriter;
   private final Writer triplesWriter;
+  private final BinaryTripleFormat.Writer binaryTriplesWriter;
 
 
   public FileHistoryOutput(Path directory) throws IOException {
-    revisionsWriter = gzipWriter(directory.resolve("revisions.tsv.gz"));
-    triplesWriter = gzipWriter(directory.resolve("triples.tsv.gz"));
+    this(directory.resolve("revisions.tsv.gz"), directory.resolve("triples.tsv.gz"));
+  }
+
+  /**
+   * @param triplesFile if its name ends with {@link BinaryTripleFormat#FILE_EXTENSION} the triples are written in the binary format
+   */
+  FileHistoryOutput(Path revisionsFile, Path triplesFile) throws IOException {
+    revisionsWriter = gzipWriter(revisionsFile);
+    if (triplesFile.getFileName().toString().endsWith(BinaryTripleFormat.FILE_EXTENSION)) {
+      triplesWriter = null;
+      binaryTriplesWriter = new BinaryTripleFormat.Writer(new BufferedOutputStream(Files.newOutputStream(triplesFile)));
+    } else {
+      triplesWriter = gzipWriter(triplesFile);
+      binaryTriplesWriter = null;
+    }
   }
 
   private Writer gzipWriter(Path path) throws IOException {
@@ -44,6 +60,10 @@ public class FileHistoryOutput implements HistoryOutput {
   }
 
   public synchronized void addTriple(Resource subject, IRI predicate, Value object, long... revisionIds) throws IOException {
+    if (binaryTriplesWriter != null) {
+      binaryTriplesWriter.writeTriple(subject, predicate, object, revisionIds);
+      return;
+    }
     triplesWriter.append(NTriplesUtil.toNTriplesString(subject)).append('\t')
             .append(NTriplesUtil.toNTriplesString(predicate)).append('\t')
             .append(NTriplesUtil.toNTriplesString(object)).append('\t')
@@ -53,6 +73,10 @@ public class FileHistoryOutput implements HistoryOutput {
   @Override
   public void close() throws IOException {
     revisionsWriter.close();
-    triplesWriter.close();
+    if (binaryTriplesWriter != null) {
+      binaryTriplesWriter.close();
+    } else {
+      triplesWriter.close();
+    }
   }
 }
@@ -13,4 +13,11 @@ interface HistoryOutput extends AutoCloseable {
   ) throws IOException;
 
   void addTriple(Resource subject, IRI predicate, Value object, long... revisionIds) throws IOException;
+
+  /**
+   * @return the output to write the revisions and triples of the page of the entity to
+   */
+  default HistoryOutput forPage(String entityId) {
+    return this;
+  }
 }
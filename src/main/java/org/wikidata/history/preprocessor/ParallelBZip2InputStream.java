@@ -0,0 +1,298 @@
+package org.wikidata.history.preprocessor;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses a bzip2 stream (or a concatenation of bzip2 streams) using an executor.
+ * <p>
+ * The compressed blocks are found by looking for the magic numbers that start them.
+ * Blocks are not byte aligned so each one is shifted into a standalone single block bzip2 stream before being decompressed on the executor.
+ * The decompressed blocks are returned in order.
+ * A magic number might also appear by chance inside the compressed data: if a block fails to decompress it is merged with the following one.
+ */
+final class ParallelBZip2InputStream extends InputStream {
+  private static final long BLOCK_MAGIC = 0x314159265359L;
+  private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+  private static final long MAGIC_MASK = 0xFFFFFFFFFFFFL;
+  private static final int MAGIC_BITS = 48;
+  private static final int CRC_BITS = 32;
+  // The maximal block size allows to decompress blocks of any stream
+  private static final byte[] STREAM_HEADER = new byte[]{'B', 'Z', 'h', '9'};
+  private static final int MAX_MERGED_SEGMENTS = 4;
+  private static final byte[] EMPTY_ARRAY = new byte[]{};
+
+  private final InputStream input;
+  private final ExecutorService executor;
+  private final int lookAhead;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+
+  // Compressed input scanning state
+  private final byte[] chunk = new byte[1 << 16];
+  private int chunkLength = 0;
+  private int chunkPosition = 0;
+  private boolean inputFinished = false;
+  private long window = 0;
+  private long bitsRead = 0;
+  // Bytes from the one containing the start of the current segment
+  private byte[] buffer = new byte[1 << 20];
+  private int bufferLength = 0;
+  private long bufferStartBit = 0;
+  private long segmentStartBit = -1;
+  private boolean segmentIsBlock;
+
+  private byte[] current = EMPTY_ARRAY;
+  private int currentPosition = 0;
+
+  /**
+   * @param lookAhead number of segments to decompress in advance
+   */
+  ParallelBZip2InputStream(InputStream input, ExecutorService executor, int lookAhead) throws IOException {
+    this.input = input;
+    this.executor = executor;
+    this.lookAhead = lookAhead;
+
+    byte[] header = input.readNBytes(3);
+    if (header.length > 0 && !Arrays.equals(header, Arrays.copyOf(STREAM_HEADER, 3))) {
+      throw new IOException("The stream is not a bzip2 stream");
+    }
+    bitsRead = 8L * header.length;
+    bufferStartBit = bitsRead;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return current[currentPosition++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    int count = Math.min(len, current.length - currentPosition);
+    System.arraycopy(current, currentPosition, b, off, count);
+    currentPosition += count;
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Segment segment : segments) {
+      if (segment.decompression != null) {
+        segment.decompression.cancel(false);
+      }
+    }
+    segments.clear();
+    input.close();
+  }
+
+  private boolean fill() throws IOException {
+    while (currentPosition >= current.length) {
+      while (segments.size() < lookAhead && scanNextSegment()) {
+        // We schedule the decompression of the next segments
+      }
+      Segment segment = segments.poll();
+      if (segment == null) {
+        return false;
+      }
+      current = getDecompressed(segment);
+      currentPosition = 0;
+    }
+    return true;
+  }
+
+  private byte[] getDecompressed(Segment segment) throws IOException {
+    if (segment.decompression == null) {
+      return EMPTY_ARRAY; // End of stream trailer
+    }
+    try {
+      return segment.decompression.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      // A magic number might have appeared inside the block data, splitting it
+      Segment merged = segment;
+      for (int i = 0; i < MAX_MERGED_SEGMENTS && (!segments.isEmpty() || scanNextSegment()); i++) {
+        merged = merged.merge(segments.poll());
+        try {
+          return decompress(merged);
+        } catch (IOException e2) {
+          // We try with one more segment
+        }
+      }
+      throw new IOException("Invalid bzip2 block", e.getCause());
+    }
+  }
+
+  /**
+   * Reads the input until the end of the current segment
+   *
+   * @return false if there are no more segments
+   */
+  private boolean scanNextSegment() throws IOException {
+    while (true) {
+      if (chunkPosition == chunkLength) {
+        chunkLength = inputFinished ? -1 : input.read(chunk);
+        chunkPosition = 0;
+        if (chunkLength == -1) {
+          inputFinished = true;
+          chunkLength = 0;
+          if (segmentStartBit >= 0) {
+            // The last segment is usually the end of stream trailer, or else a truncated block
+            addSegment(bitsRead);
+            segmentStartBit = -1;
+            return true;
+          }
+          return false;
+        }
+      }
+
+      int b = chunk[chunkPosition++] & 0xFF;
+      appendToBuffer((byte) b);
+      window = (window << 8) | b;
+      bitsRead += 8;
+      for (int shift = 7; shift >= 0; shift--) {
+        long magicStart = bitsRead - shift - MAGIC_BITS;
+        if (magicStart < 0) {
+          continue;
+        }
+        long candidate = (window >>> shift) & MAGIC_MASK;
+        if (candidate == BLOCK_MAGIC || candidate == END_OF_STREAM_MAGIC) {
+          boolean segmentEnded = segmentStartBit >= 0;
+          if (segmentEnded) {
+            addSegment(magicStart);
+          }
+          startSegment(magicStart, candidate == BLOCK_MAGIC);
+          if (segmentEnded) {
+            return true;
+          }
+        }
+      }
+    }
+  }
+
+  private void appendToBuffer(byte b) {
+    if (segmentStartBit < 0 && bufferLength >= 8) {
+      // No segment yet: we only keep the bytes that might contain the beginning of a magic number
+      System.arraycopy(buffer, bufferLength - 7, buffer, 0, 7);
+      bufferStartBit += 8L * (bufferLength - 7);
+      bufferLength = 7;
+    }
+    if (bufferLength == buffer.length) {
+      buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+    }
+    buffer[bufferLength++] = b;
+  }
+
+  private void startSegment(long startBit, boolean isBlock) {
+    int startByte = (int) ((startBit - bufferStartBit) / 8);
+    System.arraycopy(buffer, startByte, buffer, 0, bufferLength - startByte);
+    bufferLength -= startByte;
+    bufferStartBit += 8L * startByte;
+    segmentStartBit = startBit;
+    segmentIsBlock = isBlock;
+  }
+
+  private void addSegment(long endBit) {
+    int endByte = (int) ((endBit - bufferStartBit + 7) / 8);
+    Segment segment = new Segment(Arrays.copyOf(buffer, endByte), (int) (segmentStartBit - bufferStartBit), endBit - segmentStartBit);
+    if (segmentIsBlock) {
+      segment.decompression = executor.submit(() -> decompress(segment));
+    }
+    segments.add(segment);
+  }
+
+  private static byte[] decompress(Segment segment) throws IOException {
+    long totalBits = 8L * STREAM_HEADER.length + segment.bitLength + MAGIC_BITS + CRC_BITS;
+    byte[] stream = new byte[(int) ((totalBits + 7) / 8)];
+    System.arraycopy(STREAM_HEADER, 0, stream, 0, STREAM_HEADER.length);
+
+    // We shift the block to make it byte aligned
+    byte[] source = segment.bytes;
+    int shift = segment.startOffset;
+    int blockBytes = (int) ((segment.bitLength + 7) / 8);
+    for (int i = 0; i < blockBytes; i++) {
+      int value = (source[i] & 0xFF) << shift;
+      if (shift > 0 && i + 1 < source.length) {
+        value |= (source[i + 1] & 0xFF) >>> (8 - shift);
+      }
+      stream[STREAM_HEADER.length + i] = (byte) value;
+    }
+    int lastBits = (int) (segment.bitLength % 8);
+    if (lastBits != 0) {
+      stream[STREAM_HEADER.length + blockBytes - 1] &= (byte) (0xFF << (8 - lastBits));
+    }
+
+    // The stream CRC of a single block stream is the block CRC that follows the block magic number
+    long endPosition = 8L * STREAM_HEADER.length + segment.bitLength;
+    writeBits(stream, endPosition, END_OF_STREAM_MAGIC, MAGIC_BITS);
+    writeBits(stream, endPosition + MAGIC_BITS, readBits(source, shift + MAGIC_BITS, CRC_BITS), CRC_BITS);
+
+    try (InputStream decompressed = new BZip2CompressorInputStream(new ByteArrayInputStream(stream))) {
+      return decompressed.readAllBytes();
+    }
+  }
+
+  private static long readBits(byte[] array, long position, int count) {
+    long value = 0;
+    for (int i = 0; i < count; i++) {
+      long bit = position + i;
+      value = (value << 1) | ((array[(int) (bit / 8)] >>> (7 - bit % 8)) & 1);
+    }
+    return value;
+  }
+
+  private static void writeBits(byte[] array, long position, long value, int count) {
+    for (int i = 0; i < count; i++) {
+      if (((value >>> (count - 1 - i)) & 1) != 0) {
+        long bit = position + i;
+        array[(int) (bit / 8)] |= (byte) (1 << (7 - bit % 8));
+      }
+    }
+  }
+
+  /**
+   * Compressed bits between two magic numbers
+   */
+  private static final class Segment {
+    private final byte[] bytes;
+    private final int startOffset;
+    private final long bitLength;
+    private Future<byte[]> decompression;
+
+    private Segment(byte[] bytes, int startOffset, long bitLength) {
+      this.bytes = bytes;
+      this.startOffset = startOffset;
+      this.bitLength = bitLength;
+    }
+
+    /**
+     * @param next the segment starting where this one ends
+     */
+    Segment merge(Segment next) {
+      // The byte where this segment ends is the first byte of the next one
+      int ownBytes = (int) ((startOffset + bitLength) / 8);
+      byte[] merged = Arrays.copyOf(bytes, ownBytes + next.bytes.length);
+      System.arraycopy(next.bytes, 0, merged, ownBytes, next.bytes.length);
+      return new Segment(merged, startOffset, bitLength + next.bitLength);
+    }
+  }
+}
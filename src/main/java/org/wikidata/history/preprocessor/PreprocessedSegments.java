@@ -0,0 +1,176 @@
+package org.wikidata.history.preprocessor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.history.sparql.BinaryTripleFormat;
+import org.wikidata.wdtk.datamodel.interfaces.Sites;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes the preprocessed data of each dump file into its own segment.
+ * A segment is made of one or more shards, each one a revisions-NAME-shardK.tsv.gz and triples-NAME-shardK.tsv.gz (or triples-NAME-shardK.bin) file pair
+ * written by a {@link ShardedHistoryOutput}.
+ * <p>
+ * The segment files are written under a temporary name and atomically renamed when the dump file has been fully converted, the revisions file of the shard 0 last.
+ * A segment is so complete if this file exists and the dump files with a complete segment do not need to be converted again.
+ */
+public final class PreprocessedSegments {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PreprocessedSegments.class);
+  private static final String PARTIAL_PREFIX = "partial-";
+  private static final String REVISIONS_EXTENSION = ".tsv.gz";
+  private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile(
+          "(?:revisions|triples)-(.+)-shard\\d+(?:\\.tsv\\.gz|" + Pattern.quote(BinaryTripleFormat.FILE_EXTENSION) + ")"
+  );
+
+  private final Path directory;
+  private final int shardCount;
+  private final boolean binaryTriples;
+  private final RevisionFileConverter converter;
+
+  /**
+   * @param shardCount      the number of shards of each segment
+   * @param binaryTriples   if the triples should be written using {@link BinaryTripleFormat}
+   * @param afterRevisionId only the changes after this revision are written, -1 to write the full history
+   */
+  public PreprocessedSegments(Path directory, int shardCount, boolean binaryTriples, Sites sites, WikidataPropertyInformation propertyInformation, long afterRevisionId) throws IOException {
+    if (shardCount < 1) {
+      throw new IllegalArgumentException("A segment should have at least one shard");
+    }
+    this.directory = directory;
+    this.shardCount = shardCount;
+    this.binaryTriples = binaryTriples;
+    removeIncompleteSegments();
+    converter = new RevisionFileConverter(sites, propertyInformation, afterRevisionId);
+  }
+
+  /**
+   * @param name revisions or triples
+   * @return the preprocessed files with this name, from segments or from the unsegmented output of previous versions
+   */
+  public static List<Path> listFiles(Path directory, String name) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return List.of();
+    }
+    Pattern fileName = Pattern.compile(Pattern.quote(name) + "(-.+)?(\\.tsv\\.gz|" + Pattern.quote(BinaryTripleFormat.FILE_EXTENSION) + ")");
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> fileName.matcher(file.getFileName().toString()).matches()).sorted().collect(Collectors.toList());
+    }
+  }
+
+  public boolean isComplete(Path dumpFile) {
+    return Files.exists(revisionsFile(segmentName(dumpFile), 0));
+  }
+
+  /**
+   * Converts the dump file into its segment, replacing the previous one if it exists.
+   * Nothing is left in the directory if the conversion fails.
+   */
+  public void process(Path dumpFile) throws IOException, InterruptedException {
+    String name = segmentName(dumpFile);
+    List<Path> revisionsFiles = new ArrayList<>();
+    List<Path> triplesFiles = new ArrayList<>();
+    List<Path> partialRevisionsFiles = new ArrayList<>();
+    List<Path> partialTriplesFiles = new ArrayList<>();
+    for (int shard = 0; shard < shardCount; shard++) {
+      revisionsFiles.add(revisionsFile(name, shard));
+      triplesFiles.add(directory.resolve("triples-" + name + "-shard" + shard + (binaryTriples ? BinaryTripleFormat.FILE_EXTENSION : ".tsv.gz")));
+      partialRevisionsFiles.add(partialFile(revisionsFiles.get(shard)));
+      partialTriplesFiles.add(partialFile(triplesFiles.get(shard)));
+    }
+
+    boolean converted = false;
+    try {
+      try (ShardedHistoryOutput output = new ShardedHistoryOutput(partialRevisionsFiles, partialTriplesFiles)) {
+        converter.process(dumpFile, output);
+      }
+      // The previous segment might have another shard count or triples format
+      removeSegment(name);
+      for (int shard = 0; shard < shardCount; shard++) {
+        Files.move(partialTriplesFiles.get(shard), triplesFiles.get(shard), StandardCopyOption.ATOMIC_MOVE);
+      }
+      for (int shard = shardCount - 1; shard >= 0; shard--) {
+        Files.move(partialRevisionsFiles.get(shard), revisionsFiles.get(shard), StandardCopyOption.ATOMIC_MOVE);
+      }
+      converted = true;
+    } finally {
+      if (!converted) {
+        for (Path file : partialRevisionsFiles) {
+          Files.deleteIfExists(file);
+        }
+        for (Path file : partialTriplesFiles) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  private Path revisionsFile(String segmentName, int shard) {
+    return directory.resolve("revisions-" + segmentName + "-shard" + shard + REVISIONS_EXTENSION);
+  }
+
+  private Path partialFile(Path file) {
+    return directory.resolve(PARTIAL_PREFIX + file.getFileName());
+  }
+
+  private static String segmentName(Path dumpFile) {
+    return dumpFile.getFileName().toString().replaceFirst("\\.bz2$", "");
+  }
+
+  /**
+   * @return the name of the segment of the file, null if it is not a segment file
+   */
+  private static String getSegmentName(Path file) {
+    Matcher matcher = SEGMENT_FILE_PATTERN.matcher(file.getFileName().toString());
+    return matcher.matches() ? matcher.group(1) : null;
+  }
+
+  /**
+   * Removes the files of the segment, the revisions file of the shard 0 first so that the segment is never seen as complete with missing shards
+   */
+  private void removeSegment(String name) throws IOException {
+    Files.deleteIfExists(revisionsFile(name, 0));
+    for (Path file : listSegmentFiles()) {
+      if (name.equals(getSegmentName(file))) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private List<Path> listSegmentFiles() throws IOException {
+    List<Path> files = new ArrayList<>(listFiles(directory, "revisions"));
+    files.addAll(listFiles(directory, "triples"));
+    return files;
+  }
+
+  /**
+   * Removes the files of the conversions interrupted by a crash
+   */
+  private void removeIncompleteSegments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.collect(Collectors.toList())) {
+        if (file.getFileName().toString().startsWith(PARTIAL_PREFIX)) {
+          LOGGER.info("Removing the incomplete preprocessed file " + file);
+          Files.delete(file);
+        }
+      }
+    }
+    // The process might have crashed during the renames
+    for (Path file : listSegmentFiles()) {
+      String name = getSegmentName(file);
+      if (name != null && !Files.exists(revisionsFile(name, 0))) {
+        LOGGER.info("Removing the incomplete preprocessed file " + file);
+        Files.delete(file);
+      }
+    }
+  }
+}
@@ -1,21 +1,43 @@
 package org.wikidata.history.preprocessor;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.eclipse.rdf4j.model.*;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
+import org.wikidata.wdtk.datamodel.implementation.DatatypeIdImpl;
+import org.wikidata.wdtk.datamodel.implementation.StatementImpl;
 import org.wikidata.wdtk.datamodel.interfaces.Statement;
 import org.wikidata.wdtk.datamodel.interfaces.Value;
 import org.wikidata.wdtk.datamodel.interfaces.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 
 class RdfBuilder {
   private static final ValueFactory VALUE_FACTORY = SimpleValueFactory.getInstance();
   private static final Logger LOGGER = LoggerFactory.getLogger(RdfBuilder.class);
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final ObjectReader STATEMENT_READER = new DatamodelMapper(Datamodel.SITE_WIKIDATA)
+          .enable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT)
+          .readerFor(StatementImpl.PreStatement.class);
 
   private static final String SCHEMA_PREFIX = "http://schema.org/";
   private static final IRI SCHEMA_ABOUT = VALUE_FACTORY.createIRI(SCHEMA_PREFIX, "about");
@@ -85,15 +107,25 @@ class RdfBuilder {
   private static final String WDNO_PREFIX = "http://www.wikidata.org/prop/novalue/";
   private static final IRI ONE_ITEM = VALUE_FACTORY.createIRI("http://www.wikidata.org/entity/Q199");
 
-  private final RdfOutput output;
+  private RdfOutput output;
   private final Sites sites;
   private final WikidataPropertyInformation propertyInformation;
-  private final WikibaseValueHasher valueHasher = new WikibaseValueHasher();
+  private final FragmentCache fragmentCache;
+  // A builder is only used by the thread that created it
+  private final WikibaseValueHasher valueHasher = WikibaseValueHasher.forCurrentThread();
 
   RdfBuilder(RdfOutput output, Sites sites, WikidataPropertyInformation propertyInformation) {
+    this(output, sites, propertyInformation, null);
+  }
+
+  /**
+   * @param fragmentCache cache shared by the builders of the revisions of the same entity, null to disable caching
+   */
+  RdfBuilder(RdfOutput output, Sites sites, WikidataPropertyInformation propertyInformation, FragmentCache fragmentCache) {
     this.output = output;
     this.sites = sites;
     this.propertyInformation = propertyInformation;
+    this.fragmentCache = fragmentCache;
   }
 
   void addEntityDocument(EntityDocument entityDocument) {
@@ -110,28 +142,280 @@ class RdfBuilder {
     addTermedDocument(subject, itemDocument);
     addStatementDocument(subject, itemDocument);
     for (SiteLink siteLink : itemDocument.getSiteLinks().values()) {
-      addSiteLink(subject, siteLink);
+      addFragment(Arrays.asList(subject, siteLink), () -> addSiteLink(subject, siteLink.getSiteKey(), siteLink.getPageTitle(), siteLink.getBadges().stream().map(this::convert).collect(Collectors.toList())));
     }
   }
 
   private void addPropertyDocument(PropertyDocument propertyDocument) {
     IRI subject = convert(propertyDocument.getEntityId());
-    output.outputStatement(subject, RDF.TYPE, WIKIBASE_PROPERTY);
     addStatementDocument(subject, propertyDocument);
     addTermedDocument(subject, propertyDocument);
-    output.outputStatement(subject, WIKIBASE_PROPERTY_TYPE, VALUE_FACTORY.createIRI(propertyDocument.getDatatype().getIri()));
-    IRI wdt = VALUE_FACTORY.createIRI(WDT_PREFIX, propertyDocument.getEntityId().getId());
+    addPropertyDefinition(subject, propertyDocument.getEntityId().getId(), propertyDocument.getDatatype().getIri());
+  }
+
+  /**
+   * Streaming alternative to {@link #addEntityDocument(EntityDocument)} outputting the same triples directly from the entity JSON.
+   * The Wikidata Toolkit model is only built for the statements that are not in the fragment cache.
+   */
+  void addEntityJson(String json) throws IOException {
+    try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+      expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+      String id = null;
+      String type = null;
+      String datatype = null;
+      // The fields found before the entity id and type are converted at the end
+      List<String> deferredFields = new ArrayList<>();
+      List<String> deferredValues = new ArrayList<>();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        switch (field) {
+          case "id":
+            id = parser.getValueAsString();
+            break;
+          case "type":
+            type = parser.getValueAsString();
+            break;
+          case "datatype":
+            datatype = parser.getValueAsString();
+            break;
+          default:
+            if (!token.isStructStart()) {
+              break; // Only maps are converted
+            }
+            if (id != null && type != null) {
+              addJsonField(parser, json, field, id, type);
+            } else {
+              int start = (int) parser.getTokenLocation().getCharOffset();
+              parser.skipChildren();
+              deferredFields.add(field);
+              deferredValues.add(json.substring(start, (int) parser.getTokenLocation().getCharOffset() + 1));
+            }
+        }
+      }
+      expect(parser, parser.getCurrentToken(), JsonToken.END_OBJECT);
+      if (id == null || type == null) {
+        throw new JsonParseException(parser, "The entity id or type is missing");
+      }
+      for (int i = 0; i < deferredFields.size(); i++) {
+        try (JsonParser fieldParser = JSON_FACTORY.createParser(deferredValues.get(i))) {
+          fieldParser.nextToken();
+          addJsonField(fieldParser, deferredValues.get(i), deferredFields.get(i), id, type);
+        }
+      }
+
+      IRI subject = VALUE_FACTORY.createIRI(Datamodel.SITE_WIKIDATA, id);
+      if (EntityIdValue.ET_ITEM.equals(getJsonEntityType(type))) {
+        output.outputStatement(subject, RDF.TYPE, WIKIBASE_ITEM);
+      } else if (EntityIdValue.ET_PROPERTY.equals(getJsonEntityType(type))) {
+        if (datatype == null) {
+          throw new JsonParseException(parser, "The property datatype is missing");
+        }
+        addPropertyDefinition(subject, id, DatatypeIdImpl.getDatatypeIriFromJsonDatatype(datatype));
+      }
+    }
+  }
+
+  /**
+   * @param source the JSON the parser reads
+   */
+  private void addJsonField(JsonParser parser, String source, String field, String id, String type) throws IOException {
+    String entityType = getJsonEntityType(type);
+    if (entityType == null) {
+      // Like for the Wikidata Toolkit model, no triple for the other entity types
+      parser.skipChildren();
+      return;
+    }
+    IRI subject = VALUE_FACTORY.createIRI(Datamodel.SITE_WIKIDATA, id);
+    switch (field) {
+      case "labels":
+        addJsonTerms(parser, subject, RDFS.LABEL, false);
+        break;
+      case "descriptions":
+        addJsonTerms(parser, subject, SCHEMA_DESCRIPTION, false);
+        break;
+      case "aliases":
+        addJsonTerms(parser, subject, SKOS.ALT_LABEL, true);
+        break;
+      case "sitelinks":
+        if (EntityIdValue.ET_ITEM.equals(entityType)) {
+          addJsonSiteLinks(parser, subject);
+        } else {
+          parser.skipChildren();
+        }
+        break;
+      case "claims":
+        EntityIdValue entityId = EntityIdValue.ET_ITEM.equals(entityType)
+                ? Datamodel.makeWikidataItemIdValue(id)
+                : Datamodel.makeWikidataPropertyIdValue(id);
+        addJsonClaims(parser, source, subject, entityId);
+        break;
+      default:
+        parser.skipChildren();
+    }
+  }
+
+  private static String getJsonEntityType(String type) {
+    switch (type) {
+      case "item":
+        return EntityIdValue.ET_ITEM;
+      case "property":
+        return EntityIdValue.ET_PROPERTY;
+      default:
+        return null;
+    }
+  }
+
+  private void addJsonTerms(JsonParser parser, IRI subject, IRI predicate, boolean isList) throws IOException {
+    if (!startJsonMap(parser)) {
+      return;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      if (isList) {
+        expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          addJsonTerm(parser, subject, predicate);
+        }
+        expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+      } else {
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+        addJsonTerm(parser, subject, predicate);
+      }
+    }
+  }
+
+  private void addJsonTerm(JsonParser parser, IRI subject, IRI predicate) throws IOException {
+    String languageCode = null;
+    String text = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if ("language".equals(field)) {
+        languageCode = parser.getValueAsString();
+      } else if ("value".equals(field)) {
+        text = parser.getValueAsString();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (languageCode == null || text == null) {
+      throw new JsonParseException(parser, "Invalid term");
+    }
+    output.outputStatement(subject, predicate, convertMonolingualText(text, languageCode));
+  }
+
+  private void addJsonSiteLinks(JsonParser parser, IRI subject) throws IOException {
+    if (!startJsonMap(parser)) {
+      return;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+      String siteKey = null;
+      String pageTitle = null;
+      List<IRI> badges = new ArrayList<>();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        if ("site".equals(field)) {
+          siteKey = parser.getValueAsString();
+        } else if ("title".equals(field)) {
+          pageTitle = parser.getValueAsString();
+        } else if ("badges".equals(field)) {
+          expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+          while (parser.nextToken() == JsonToken.VALUE_STRING) {
+            badges.add(VALUE_FACTORY.createIRI(Datamodel.SITE_WIKIDATA, parser.getText()));
+          }
+          expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      if (siteKey == null || pageTitle == null) {
+        throw new JsonParseException(parser, "Invalid site link");
+      }
+      addSiteLink(subject, siteKey, pageTitle, badges);
+    }
+  }
+
+  /**
+   * The statements are only read to find their rank: the ones that are not in the fragment cache are then deserialized
+   *
+   * @param source the JSON the parser reads
+   */
+  private void addJsonClaims(JsonParser parser, String source, IRI subject, EntityIdValue entityId) throws IOException {
+    if (!startJsonMap(parser)) {
+      return;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+      List<String> statements = new ArrayList<>();
+      boolean hasPreferred = false;
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        int start = (int) parser.getTokenLocation().getCharOffset();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.getCurrentName();
+          parser.nextToken();
+          if ("rank".equals(field)) {
+            hasPreferred |= "preferred".equals(parser.getValueAsString());
+          } else {
+            parser.skipChildren();
+          }
+        }
+        statements.add(source.substring(start, (int) parser.getTokenLocation().getCharOffset() + 1));
+      }
+      expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+
+      StatementRank bestRank = hasPreferred ? StatementRank.PREFERRED : StatementRank.NORMAL;
+      for (String statement : statements) {
+        addFragment(Arrays.asList(subject, statement, bestRank), () -> addFullStatement(subject, readStatement(statement, entityId), bestRank));
+      }
+    }
+  }
+
+  private static Statement readStatement(String json, EntityIdValue subject) {
+    try {
+      return STATEMENT_READER.<StatementImpl.PreStatement>readValue(json).withSubject(subject);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return false if the map is empty and serialized as an empty array or null
+   */
+  private static boolean startJsonMap(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+      return false;
+    }
+    if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
+      expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+      return false;
+    }
+    expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+    return true;
+  }
+
+  private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+    if (actual != expected) {
+      throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+    }
+  }
+
+  private void addPropertyDefinition(IRI subject, String propertyId, String datatypeIri) {
+    output.outputStatement(subject, RDF.TYPE, WIKIBASE_PROPERTY);
+    output.outputStatement(subject, WIKIBASE_PROPERTY_TYPE, VALUE_FACTORY.createIRI(datatypeIri));
+    IRI wdt = VALUE_FACTORY.createIRI(WDT_PREFIX, propertyId);
     output.outputStatement(subject, WIKIBASE_DIRECT_CLAIM, wdt);
-    IRI p = VALUE_FACTORY.createIRI(P_PREFIX, propertyDocument.getEntityId().getId());
+    IRI p = VALUE_FACTORY.createIRI(P_PREFIX, propertyId);
     output.outputStatement(subject, WIKIBASE_CLAIM, p);
     output.outputStatement(p, RDF.TYPE, OWL.OBJECTPROPERTY);
-    IRI ps = VALUE_FACTORY.createIRI(PS_PREFIX, propertyDocument.getEntityId().getId());
+    IRI ps = VALUE_FACTORY.createIRI(PS_PREFIX, propertyId);
     output.outputStatement(subject, WIKIBASE_STATEMENT_PROPERTY, ps);
-    IRI pq = VALUE_FACTORY.createIRI(PQ_PREFIX, propertyDocument.getEntityId().getId());
+    IRI pq = VALUE_FACTORY.createIRI(PQ_PREFIX, propertyId);
     output.outputStatement(subject, WIKIBASE_QUALIFIER, pq);
-    IRI pr = VALUE_FACTORY.createIRI(PR_PREFIX, propertyDocument.getEntityId().getId());
+    IRI pr = VALUE_FACTORY.createIRI(PR_PREFIX, propertyId);
     output.outputStatement(subject, WIKIBASE_REFERENCE, pr);
-    if (isDatatypePropertyDatatatype(propertyDocument.getDatatype())) {
+    if (isDatatypePropertyDatatatype(datatypeIri)) {
       output.outputStatement(wdt, RDF.TYPE, OWL.DATATYPEPROPERTY);
       output.outputStatement(ps, RDF.TYPE, OWL.DATATYPEPROPERTY);
       output.outputStatement(pq, RDF.TYPE, OWL.DATATYPEPROPERTY);
@@ -143,19 +427,19 @@ class RdfBuilder {
       output.outputStatement(pr, RDF.TYPE, OWL.OBJECTPROPERTY);
     }
 
-    if (isComplexValueDatatatype(propertyDocument.getDatatype())) {
-      IRI psv = VALUE_FACTORY.createIRI(PSV_PREFIX, propertyDocument.getEntityId().getId());
+    if (isComplexValueDatatatype(datatypeIri)) {
+      IRI psv = VALUE_FACTORY.createIRI(PSV_PREFIX, propertyId);
       output.outputStatement(subject, WIKIBASE_STATEMENT_VALUE, psv);
       output.outputStatement(psv, RDF.TYPE, OWL.OBJECTPROPERTY);
-      IRI pqv = VALUE_FACTORY.createIRI(PQV_PREFIX, propertyDocument.getEntityId().getId());
+      IRI pqv = VALUE_FACTORY.createIRI(PQV_PREFIX, propertyId);
       output.outputStatement(subject, WIKIBASE_QUALIFIER_VALUE, pqv);
       output.outputStatement(pqv, RDF.TYPE, OWL.OBJECTPROPERTY);
-      IRI prv = VALUE_FACTORY.createIRI(PRV_PREFIX, propertyDocument.getEntityId().getId());
+      IRI prv = VALUE_FACTORY.createIRI(PRV_PREFIX, propertyId);
       output.outputStatement(subject, WIKIBASE_REFERENCE_VALUE, prv);
       output.outputStatement(prv, RDF.TYPE, OWL.OBJECTPROPERTY);
     }
 
-    IRI novalue = VALUE_FACTORY.createIRI(WDNO_PREFIX, propertyDocument.getEntityId().getId());
+    IRI novalue = VALUE_FACTORY.createIRI(WDNO_PREFIX, propertyId);
     BNode novalueComplement = VALUE_FACTORY.createBNode(novalue.stringValue());
     output.outputStatement(subject, WIKIBASE_NOVALUE, novalue);
     output.outputStatement(novalue, RDF.TYPE, OWL.CLASS);
@@ -165,8 +449,8 @@ class RdfBuilder {
     output.outputStatement(novalueComplement, OWL.SOMEVALUESFROM, OWL.THING);
   }
 
-  private boolean isDatatypePropertyDatatatype(DatatypeIdValue datatypeId) {
-    switch (datatypeId.getIri()) {
+  private boolean isDatatypePropertyDatatatype(String datatypeIri) {
+    switch (datatypeIri) {
       case DatatypeIdValue.DT_STRING:
       case DatatypeIdValue.DT_EXTERNAL_ID:
       case DatatypeIdValue.DT_MATH:
@@ -186,13 +470,13 @@ class RdfBuilder {
       case DatatypeIdValue.DT_TABULAR_DATA:
         return false;
       default:
-        LOGGER.warn("Not expected datatype: " + datatypeId);
+        LOGGER.warn("Not expected datatype: " + datatypeIri);
         return false;
     }
   }
 
-  private boolean isComplexValueDatatatype(DatatypeIdValue datatypeId) {
-    switch (datatypeId.getIri()) {
+  private boolean isComplexValueDatatatype(String datatypeIri) {
+    switch (datatypeIri) {
       case DatatypeIdValue.DT_GLOBE_COORDINATES:
       case DatatypeIdValue.DT_TIME:
       case DatatypeIdValue.DT_QUANTITY:
@@ -225,7 +509,7 @@ class RdfBuilder {
   private void addStatementGroup(IRI subject, StatementGroup statements) {
     StatementRank bestRank = getBestRank(statements);
     for (Statement statement : statements) {
-      addFullStatement(subject, statement, bestRank);
+      addFragment(Arrays.asList(subject, statement, bestRank), () -> addFullStatement(subject, statement, bestRank));
     }
   }
 
@@ -265,6 +549,34 @@ class RdfBuilder {
     }
   }
 
+  /**
+   * Outputs the triples generated by the builder, retrieving them from the cache if the fragment has already been converted
+   *
+   * @param key the converted fragment and everything else its triples depend on
+   */
+  private void addFragment(List<Object> key, Runnable builder) {
+    if (fragmentCache == null) {
+      builder.run();
+      return;
+    }
+    List<org.eclipse.rdf4j.model.Statement> statements = fragmentCache.cache.getIfPresent(key);
+    if (statements == null) {
+      List<org.eclipse.rdf4j.model.Statement> recordedStatements = new ArrayList<>();
+      RdfOutput mainOutput = output;
+      output = recordedStatements::add;
+      try {
+        builder.run();
+      } finally {
+        output = mainOutput;
+      }
+      statements = recordedStatements;
+      fragmentCache.cache.put(key, statements);
+    }
+    for (org.eclipse.rdf4j.model.Statement statement : statements) {
+      output.outputStatement(statement);
+    }
+  }
+
   private void addSnak(IRI subject, Snak snak, String simplePrefix, String complexPrefix, IRI contextIRI) {
     addSimpleValueSnak(subject, snak, simplePrefix, contextIRI);
     addComplexValueSnak(subject, snak, complexPrefix);
@@ -293,27 +605,27 @@ class RdfBuilder {
     }
   }
 
-  private void addSiteLink(IRI subject, SiteLink siteLink) {
-    String url = sites.getSiteLinkUrl(siteLink);
+  private void addSiteLink(IRI subject, String siteKey, String pageTitle, List<IRI> badges) {
+    String url = sites.getPageUrl(siteKey, pageTitle);
     if (url == null) {
-      LOGGER.warn("The site " + siteLink.getSiteKey() + " is unknown");
+      LOGGER.warn("The site " + siteKey + " is unknown");
       return;
     }
     IRI article = convertIRI(url);
     output.outputStatement(article, RDF.TYPE, SCHEMA_ARTICLE);
     output.outputStatement(article, SCHEMA_ABOUT, subject);
-    String languageCode = sites.getLanguageCode(siteLink.getSiteKey());
+    String languageCode = sites.getLanguageCode(siteKey);
     if (languageCode != null) {
       languageCode = convertLanguageCode(languageCode);
       output.outputStatement(article, SCHEMA_IN_LANGUAGE, VALUE_FACTORY.createLiteral(languageCode));
-      output.outputStatement(article, SCHEMA_NAME, VALUE_FACTORY.createLiteral(siteLink.getPageTitle(), convertLanguageCode(languageCode)));
+      output.outputStatement(article, SCHEMA_NAME, VALUE_FACTORY.createLiteral(pageTitle, convertLanguageCode(languageCode)));
     }
     IRI wiki = VALUE_FACTORY.createIRI(article.stringValue().split("wiki/")[0]);
     output.outputStatement(article, SCHEMA_IS_PART_OF, wiki);
-    for (ItemIdValue badge : siteLink.getBadges()) {
-      output.outputStatement(article, WIKIBASE_BADGE, convert(badge));
+    for (IRI badge : badges) {
+      output.outputStatement(article, WIKIBASE_BADGE, badge);
     }
-    output.outputStatement(wiki, WIKIBASE_WIKI_GROUP, VALUE_FACTORY.createLiteral(sites.getGroup(siteLink.getSiteKey())));
+    output.outputStatement(wiki, WIKIBASE_WIKI_GROUP, VALUE_FACTORY.createLiteral(sites.getGroup(siteKey)));
   }
 
   private org.eclipse.rdf4j.model.Value convertSimple(Value value, PropertyIdValue propertyId) {
@@ -352,7 +664,11 @@ class RdfBuilder {
   }
 
   private Literal convert(MonolingualTextValue value) {
-    return VALUE_FACTORY.createLiteral(value.getText(), convertLanguageCode(value.getLanguageCode()));
+    return convertMonolingualText(value.getText(), value.getLanguageCode());
+  }
+
+  private Literal convertMonolingualText(String text, String languageCode) {
+    return VALUE_FACTORY.createLiteral(text, convertLanguageCode(languageCode));
   }
 
   private org.eclipse.rdf4j.model.Value convert(StringValue value, PropertyIdValue propertyId) {
@@ -574,6 +890,19 @@ class RdfBuilder {
     return StatementRank.NORMAL;
   }
 
+  /**
+   * Triples generated for each statement and site link.
+   * Consecutive revisions of an entity usually only differ by a few of them so the other ones do not need to be converted again.
+   * The values are compared structurally so a changed fragment is always converted again.
+   */
+  static final class FragmentCache {
+    private static final int MAX_SIZE = 10_000;
+
+    private final Cache<List<Object>, List<org.eclipse.rdf4j.model.Statement>> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .build();
+  }
+
   public interface RdfOutput {
     default void outputStatement(Resource subject, IRI predicate, org.eclipse.rdf4j.model.Value object) {
       outputStatement(VALUE_FACTORY.createStatement(subject, predicate, object));
@@ -1,211 +1,544 @@
 package org.wikidata.history.preprocessor;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectReader;
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.eclipse.rdf4j.model.Statement;
-import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.collections.api.set.primitive.LongSet;
+import org.eclipse.collections.impl.map.mutable.primitive.LongLongHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.eclipse.rdf4j.model.*;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.OWL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wikidata.history.sparql.Vocabulary;
-import org.wikidata.wdtk.datamodel.helpers.Datamodel;
-import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
-import org.wikidata.wdtk.datamodel.implementation.EntityDocumentImpl;
 import org.wikidata.wdtk.datamodel.interfaces.Sites;
 import org.wikidata.wdtk.dumpfiles.*;
 
 import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Converts a dump file with a pipeline:
+ * the bzip2 blocks are decompressed in parallel, the calling thread parses the XML into chunks of revisions of the same page,
+ * the chunks are converted to RDF and the triple ranges of their page updated incrementally on a work-stealing pool shared by all the files,
+ * the ranges still open at the end of a page are written on this pool too and a writer thread per file sends the revisions to the {@link HistoryOutput} in the dump order.
+ * The ranges closed by a revision are written as soon as the revision is applied: a triple might so be written several times.
+ * <p>
+ * To update an existing index, only the pages changed after a given revision could be converted, starting from their state at this revision.
+ * The written ranges then start at this revision if the triple was already there.
+ */
 public class RevisionFileConverter {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(RevisionFileConverter.class);
   private static final Pattern ENTITY_PAGE_TITLE_PATTERN = Pattern.compile("^(Item:|Property:|)([PQ]\\d+)$");
   private static final Pattern REDIRECTION_PATTERN = Pattern.compile("^\\{\"entity\":\"(.*)\",\"redirect\":\"(.*)\"}$");
   private static final ValueFactory VALUE_FACTORY = SimpleValueFactory.getInstance();
-  private static final long[] EMPTY_LONG_ARRAY = new long[]{};
+  private static final int REVISIONS_PER_CHUNK = 64;
+  /**
+   * Maximal total length of the texts of the revisions read but not yet applied, for all the files converted at the same time
+   */
+  private static final int MAX_PENDING_TEXT_LENGTH = 256 * 1024 * 1024;
+  private static final int MAX_BASE_REVISIONS = 4;
 
-  private final HistoryOutput historyOutput;
   private final Sites sites;
   private final WikidataPropertyInformation propertyInformation;
+  private final long afterRevisionId;
+  private final ForkJoinPool conversionPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  // The revision texts are often several MB: the pending revisions are bounded by their size and not their number
+  private final Semaphore pendingTextLength = new Semaphore(MAX_PENDING_TEXT_LENGTH);
 
 
-  public RevisionFileConverter(HistoryOutput historyOutput) throws IOException {
-    this.historyOutput = historyOutput;
-    sites = (new DumpProcessingController("wikidatawiki")).getSitesInformation();
-    propertyInformation = new WikidataPropertyInformation();
+  public RevisionFileConverter(Sites sites, WikidataPropertyInformation propertyInformation) {
+    this(sites, propertyInformation, -1);
   }
 
-  public void process(Path file) throws IOException, InterruptedException {
-    MwDumpFileProcessor processor = new MwRevisionDumpFileProcessor(new RevisionProcessor(historyOutput, sites, propertyInformation));
+  /**
+   * @param afterRevisionId only the revisions after this one are written, -1 to write them all
+   */
+  public RevisionFileConverter(Sites sites, WikidataPropertyInformation propertyInformation, long afterRevisionId) {
+    // Without the sites table the revisions with sitelinks could not be converted
+    this.sites = Objects.requireNonNull(sites, "The sites table is required");
+    this.propertyInformation = propertyInformation;
+    this.afterRevisionId = afterRevisionId;
+  }
+
+  /**
+   * Converts the file into the output, failing if the output could not be fully written.
+   * The output is not reset on failure: {@link PreprocessedSegments} discards the output of the failed files.
+   */
+  void process(Path file, HistoryOutput output) throws IOException, InterruptedException {
     MwLocalDumpFile dumpFile = new MwLocalDumpFile(file.toString(), DumpContentType.FULL, null, null);
-    for (int i = 0; i < 10; i++) {
+    try (
+            PagePipeline pipeline = new PagePipeline(output);
+            DumpInputStream input = new DumpInputStream(new ParallelBZip2InputStream(new BufferedInputStream(Files.newInputStream(file)), conversionPool, 2 * conversionPool.getParallelism()))
+    ) {
+      MwDumpFileProcessor processor = new MwRevisionDumpFileProcessor(new RevisionProcessor(pipeline, afterRevisionId));
+      processor.processDumpFileContents(input, dumpFile);
+      // The processor only logs the read and parsing errors and ends the last page as if the file was complete
+      input.checkFullyRead(file);
+    }
+  }
+
+  private List<ConvertedRevision> convertChunk(List<MwRevision> chunk, RdfBuilder.FragmentCache fragmentCache) {
+    // The revisions are converted in parallel using the pool of the current task
+    return chunk.parallelStream()
+            .map(mwRevision -> new ConvertedRevision(new RevisionHeader(mwRevision), convertRevision(mwRevision, fragmentCache)))
+            .collect(Collectors.toList());
+  }
+
+  /**
+   * @return null if the revision is not valid
+   */
+  private SetRdfOutput convertRevision(MwRevision mwRevision, RdfBuilder.FragmentCache fragmentCache) {
+    try {
+      String text = mwRevision.getText();
+      SetRdfOutput output = new SetRdfOutput();
+
+      //Redirection
+      Matcher redirectionMatcher = REDIRECTION_PATTERN.matcher(text);
+      if (redirectionMatcher.matches()) {
+        output.outputStatement(
+                VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, redirectionMatcher.group(1)),
+                OWL.SAMEAS,
+                VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, redirectionMatcher.group(2))
+        );
+      } else {
+        RdfBuilder converter = new RdfBuilder(output, sites, propertyInformation, fragmentCache);
+        converter.addEntityJson(text);
+      }
+      return output;
+    } catch (Exception e) {
+      LOGGER.warn("Error while parsing revision " + mwRevision.toString() + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  private static void writeRevisions(PageHistory page, HistoryOutput output) throws IOException {
+    for (RevisionHeader revision : page.revisions) {
+      Instant timestamp;
       try {
-        processor.processDumpFileContents(new BZip2CompressorInputStream(new BufferedInputStream(Files.newInputStream(file))), dumpFile);
-        return;
-      } catch (IOException e) {
+        timestamp = Instant.parse(revision.timestamp);
+      } catch (DateTimeParseException e) {
         LOGGER.error(e.getMessage(), e);
-        Thread.sleep(30000);
-        if (i == 9) {
-          throw e;
-        }
+        continue;
       }
+      output.forPage(revision.entityId).addRevision(revision.revisionId, revision.parentRevisionId, revision.entityId, timestamp, revision.contributor, revision.comment);
     }
   }
 
-  private static final class RevisionProcessor implements MwRevisionProcessor {
+  private static String getEntityIdFromPageTitle(String title) {
+    Matcher matcher = ENTITY_PAGE_TITLE_PATTERN.matcher(title);
+    return matcher.matches() ? matcher.group(2) : null;
+  }
 
-    private final HistoryOutput historyOutput;
-    private final Sites sites;
-    private final WikidataPropertyInformation propertyInformation;
-    private int currentPageId = -1;
-    private final Map<Long, Set<Statement>> revisions = new TreeMap<>();
-    private final Map<Statement, long[]> triplesHistory = new HashMap<>();
-    private final ObjectReader entityReader = new DatamodelMapper(Datamodel.SITE_WIKIDATA)
-            .enable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT)
-            .readerFor(EntityDocumentImpl.class);
+  /**
+   * Converts the revision chunks of a file concurrently and writes the pages in order.
+   * The chunks of a page are applied to its history in order, different pages being processed concurrently.
+   * The length of the texts of the revisions read but not yet applied is bounded with the other files to limit the memory usage.
+   * The first write or page conversion failure is thrown when the pipeline is closed.
+   */
+  private final class PagePipeline implements AutoCloseable {
+    private final HistoryOutput output;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private CompletableFuture<PageHistory> currentPage;
+    // The statements and site links are shared between the revisions of the same page
+    private RdfBuilder.FragmentCache currentFragmentCache = new RdfBuilder.FragmentCache();
+    private volatile IOException writeFailure;
 
-    RevisionProcessor(HistoryOutput historyOutput, Sites sites, WikidataPropertyInformation propertyInformation) {
-      this.historyOutput = historyOutput;
-      this.sites = sites;
-      this.propertyInformation = propertyInformation;
+    PagePipeline(HistoryOutput output) {
+      this.output = output;
+      currentPage = CompletableFuture.completedFuture(new PageHistory(output));
     }
 
-    @Override
-    public void startRevisionProcessing(String siteName, String baseUrl, Map<Integer, String> namespaces) {
+    void submitChunk(List<MwRevision> chunk) throws InterruptedException {
+      long textLength = 0;
+      for (MwRevision revision : chunk) {
+        String text = revision.getText();
+        if (text != null) {
+          textLength += text.length();
+        }
+      }
+      // A chunk larger than the bound waits for all the other chunks to be applied
+      int permits = (int) Math.min(Math.max(textLength, 1), MAX_PENDING_TEXT_LENGTH);
+      pendingTextLength.acquire(permits);
+      RdfBuilder.FragmentCache fragmentCache = currentFragmentCache;
+      CompletableFuture<List<ConvertedRevision>> conversion = CompletableFuture.supplyAsync(() -> convertChunk(chunk, fragmentCache), conversionPool);
+      currentPage = currentPage.thenCombineAsync(conversion, (page, revisions) -> {
+        try {
+          for (ConvertedRevision revision : revisions) {
+            if (revision.header.revisionId <= afterRevisionId) {
+              // The page state at afterRevisionId, continued by the next revisions
+              page.addBaseRevision(afterRevisionId, revision.statements);
+            } else {
+              page.add(revision.header, revision.statements);
+            }
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        return page;
+      }, conversionPool).whenComplete((page, e) -> pendingTextLength.release(permits));
     }
 
-    @Override
-    public void processRevision(MwRevision mwRevision) {
-      try {
-        int pageId = mwRevision.getPageId();
-        long revisionId = mwRevision.getRevisionId();
-        String text = mwRevision.getText();
-        String entityId = getEntityIdFromPageTitle(mwRevision.getPrefixedTitle());
-
-        if (entityId == null) {
-          return; //Not a Wikibase entity
+    void endPage() {
+      CompletableFuture<PageHistory> page = currentPage.thenApplyAsync(history -> {
+        try {
+          history.writeOpenTriples();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
         }
-        if (pageId != currentPageId) {
-          processRevisions();
-          currentPageId = pageId;
+        return history;
+      }, conversionPool);
+      currentPage = CompletableFuture.completedFuture(new PageHistory(output));
+      currentFragmentCache = new RdfBuilder.FragmentCache();
+      // The writer is single threaded so the pages are written in dump order
+      writer.execute(() -> {
+        if (writeFailure != null) {
+          return; // The output is already incomplete
         }
-
-        //Adds to revision history
         try {
-          historyOutput.addRevision(revisionId, mwRevision.getParentRevisionId(), entityId, Instant.parse(mwRevision.getTimeStamp()), mwRevision.getContributor(), mwRevision.getComment());
-        } catch (Exception e) {
-          LOGGER.error(e.getMessage(), e);
+          writeRevisions(page.get(), output);
+        } catch (IOException e) {
+          writeFailure = e;
+        } catch (ExecutionException e) {
+          // The page is missing from the output
+          writeFailure = (e.getCause() instanceof UncheckedIOException)
+                  ? ((UncheckedIOException) e.getCause()).getCause()
+                  : new IOException("Not able to convert a page", e.getCause());
+        } catch (InterruptedException e) {
+          writeFailure = new InterruptedIOException();
+          Thread.currentThread().interrupt();
         }
+      });
+    }
 
-        //Redirection
-        Matcher redirectionMatcher = REDIRECTION_PATTERN.matcher(text);
-        if (redirectionMatcher.matches()) {
-          revisions.put(revisionId, Collections.singleton(VALUE_FACTORY.createStatement(
-                  VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, redirectionMatcher.group(1)),
-                  OWL.SAMEAS,
-                  VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, redirectionMatcher.group(2))
-          )));
-        } else {
-          SetRdfOutput output = new SetRdfOutput();
-          RdfBuilder converter = new RdfBuilder(output, sites, propertyInformation);
-          converter.addEntityDocument(entityReader.readValue(text));
-          revisions.put(revisionId, output.getStatements());
-        }
-      } catch (Exception e) {
-        LOGGER.warn("Error while parsing revision " + mwRevision.toString() + ": " + e.getMessage());
+    @Override
+    public void close() throws IOException, InterruptedException {
+      writer.shutdown();
+      writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      if (writeFailure != null) {
+        throw writeFailure;
       }
     }
+  }
 
-    private void processRevisions() {
-      long[] revisionIds = toSortedLongArrays(revisions.keySet());
+  /**
+   * The revision metadata, without the revision text
+   */
+  private static final class RevisionHeader {
+    private final long revisionId;
+    private final long parentRevisionId;
+    private final String entityId;
+    private final String timestamp;
+    private final String contributor;
+    private final String comment;
 
-      for (int i = 0; i < revisionIds.length; i++) {
-        long revisionId = revisionIds[i];
-        long nextRevisionId = (i + 1 == revisionIds.length) ? Long.MAX_VALUE : revisionIds[i + 1];
-        if (nextRevisionId < revisionId) {
-          LOGGER.error("The revision ids are not properly sorted.");
-        }
+    private RevisionHeader(MwRevision mwRevision) {
+      revisionId = mwRevision.getRevisionId();
+      parentRevisionId = mwRevision.getParentRevisionId();
+      entityId = getEntityIdFromPageTitle(mwRevision.getPrefixedTitle());
+      timestamp = mwRevision.getTimeStamp();
+      contributor = mwRevision.getContributor();
+      comment = mwRevision.getComment();
+    }
+  }
 
-        for (Statement statement : revisions.get(revisionId)) {
-          long[] statementRevisions = triplesHistory.getOrDefault(statement, EMPTY_LONG_ARRAY);
-          if (statementRevisions.length > 0 && statementRevisions[statementRevisions.length - 1] == revisionId) {
-            statementRevisions[statementRevisions.length - 1] = nextRevisionId;
-          } else {
-            statementRevisions = Arrays.copyOf(statementRevisions, statementRevisions.length + 2);
-            statementRevisions[statementRevisions.length - 2] = revisionId;
-            statementRevisions[statementRevisions.length - 1] = nextRevisionId;
-            triplesHistory.put(statement, statementRevisions);
-          }
-        }
+  private static final class ConvertedRevision {
+    private final RevisionHeader header;
+    private final SetRdfOutput statements;
+
+    private ConvertedRevision(RevisionHeader header, SetRdfOutput statements) {
+      this.header = header;
+      this.statements = statements;
+    }
+  }
+
+  /**
+   * History of the triples of a page, built by diffing each revision with the previous one.
+   * Only the triples of the previous revision are kept with the start of their current range:
+   * the ranges are written to the output as soon as they are closed and the open ones when the page ends.
+   * The triples are encoded with a dictionary of the page terms.
+   */
+  static final class PageHistory {
+    private final HistoryOutput output;
+    // The output of the page, known once its first revision is added
+    private HistoryOutput pageOutput;
+    private final List<RevisionHeader> revisions = new ArrayList<>();
+    private final TripleDictionary dictionary = new TripleDictionary();
+    // Triples of the previous revision -> start of their open range
+    private LongLongHashMap openTriples = new LongLongHashMap();
+    private long previousRevisionId = -1;
+    // The last valid candidate for the page state at baseRevisionId, not applied yet
+    private boolean hasBaseCandidates = false;
+    private long baseRevisionId = -1;
+    private SetRdfOutput baseStatements;
+
+    PageHistory(HistoryOutput output) {
+      this.output = output;
+    }
+
+    private void add(RevisionHeader revision, SetRdfOutput statements) throws IOException {
+      if (pageOutput == null) {
+        pageOutput = output.forPage(revision.entityId);
       }
+      revisions.add(revision);
+      addRevision(revision.revisionId, statements);
+    }
 
-      for (Map.Entry<Statement, long[]> entry : triplesHistory.entrySet()) {
-        try {
-          if (!isSorted(entry.getValue())) {
-            LOGGER.error("the revision ranges are not sorted: " + Arrays.toString(revisionIds));
+    /**
+     * Adds a candidate for the page state at baseRevisionId, the candidates being added from the oldest to the newest revision.
+     * The newest valid one is applied before the next revision.
+     *
+     * @param statements null if the revision is not valid
+     */
+    void addBaseRevision(long baseRevisionId, SetRdfOutput statements) {
+      hasBaseCandidates = true;
+      this.baseRevisionId = baseRevisionId;
+      if (statements != null) {
+        baseStatements = statements;
+      }
+    }
+
+    /**
+     * @param statements null if the revision is not valid, the page state is then the one of the previous revision
+     */
+    void addRevision(long revisionId, SetRdfOutput statements) throws IOException {
+      if (hasBaseCandidates) {
+        applyBaseRevision();
+      }
+      if (statements == null) {
+        return;
+      }
+      if (revisionId <= previousRevisionId) {
+        LOGGER.error("Revision " + revisionId + " is after revision " + previousRevisionId + " in the dump, ignoring it");
+        return;
+      }
+
+      LongSet triples = dictionary.importTriples(statements.dictionary, statements.triples);
+      LongLongHashMap newOpenTriples = new LongLongHashMap(triples.size());
+      triples.forEach(triple -> newOpenTriples.put(triple, openTriples.getIfAbsent(triple, revisionId)));
+      try {
+        openTriples.forEachKeyValue((triple, start) -> {
+          if (!triples.contains(triple)) {
+            writeTriple(triple, start, revisionId);
           }
-          historyOutput.addTriple(entry.getKey().getSubject(), entry.getKey().getPredicate(), entry.getKey().getObject(), entry.getValue());
-        } catch (IOException e) {
-          LOGGER.error(e.getMessage(), e);
-        }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      openTriples = newOpenTriples;
+      previousRevisionId = revisionId;
+    }
+
+    private void applyBaseRevision() throws IOException {
+      hasBaseCandidates = false;
+      if (baseStatements == null) {
+        // Without the page state the ranges still open in the index at baseRevisionId could not be closed
+        String entityId = revisions.isEmpty() ? "the page" : revisions.get(revisions.size() - 1).entityId;
+        throw new IllegalStateException("None of the last revisions of " + entityId + " before " + baseRevisionId + " could be converted");
       }
+      SetRdfOutput statements = baseStatements;
+      baseStatements = null;
+      addRevision(baseRevisionId, statements);
+    }
+
+    /**
+     * @return the start of the range of the triple if it is in the last revision, -1 if not
+     */
+    long getOpenRangeStart(Resource subject, IRI predicate, Value object) {
+      return openTriples.getIfAbsent(dictionary.encode(subject, predicate, object), -1);
+    }
 
-      triplesHistory.clear();
-      revisions.clear();
+    private void writeOpenTriples() throws IOException {
+      try {
+        openTriples.forEachKeyValue((triple, start) -> writeTriple(triple, start, Long.MAX_VALUE));
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
     }
 
-    private long[] toSortedLongArrays(Set<Long> s) {
-      long[] values = new long[s.size()];
-      int i = 0;
-      for (long v : s) {
-        values[i] = v;
-        i++;
+    private void writeTriple(long triple, long start, long end) {
+      // The rdf4j terms are only retrieved from the dictionary when written
+      try {
+        HistoryOutput target = (pageOutput == null) ? output : pageOutput;
+        target.addTriple(dictionary.getSubject(triple), dictionary.getPredicate(triple), dictionary.getObject(triple), start, end);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
-      Arrays.sort(values);
-      return values;
     }
+  }
+
+  /**
+   * Splits the revisions read from the dump into chunks of the same page
+   */
+  private static final class RevisionProcessor implements MwRevisionProcessor {
+
+    private final PagePipeline pipeline;
+    private final long afterRevisionId;
+    private int currentPageId = -1;
+    private List<MwRevision> currentChunk = new ArrayList<>();
+    // The last revisions of the current page before afterRevisionId, only converted if the page has been changed after it
+    // The older ones are fallbacks if the last one is not valid
+    private final Deque<MwRevision> baseRevisions = new ArrayDeque<>();
 
-    private String getEntityIdFromPageTitle(String title) {
-      Matcher matcher = ENTITY_PAGE_TITLE_PATTERN.matcher(title);
-      return matcher.matches() ? matcher.group(2) : null;
+    RevisionProcessor(PagePipeline pipeline, long afterRevisionId) {
+      this.pipeline = pipeline;
+      this.afterRevisionId = afterRevisionId;
+    }
+
+    @Override
+    public void startRevisionProcessing(String siteName, String baseUrl, Map<Integer, String> namespaces) {
+    }
+
+    @Override
+    public void processRevision(MwRevision mwRevision) {
+      if (getEntityIdFromPageTitle(mwRevision.getPrefixedTitle()) == null) {
+        return; //Not a Wikibase entity
+      }
+      if (mwRevision.getPageId() != currentPageId) {
+        endCurrentPage();
+        currentPageId = mwRevision.getPageId();
+      }
+      // The dump parser reuses the revision object
+      if (mwRevision.getRevisionId() <= afterRevisionId) {
+        if (baseRevisions.size() == MAX_BASE_REVISIONS) {
+          baseRevisions.removeFirst();
+        }
+        baseRevisions.addLast(new MwRevisionImpl(mwRevision));
+        return;
+      }
+      // The chunk is sorted by revision id so the base revisions are applied first
+      currentChunk.addAll(baseRevisions);
+      baseRevisions.clear();
+      currentChunk.add(new MwRevisionImpl(mwRevision));
+      if (currentChunk.size() >= REVISIONS_PER_CHUNK) {
+        submitCurrentChunk();
+      }
     }
 
     @Override
     public void finishRevisionProcessing() {
-      if (!revisions.isEmpty()) {
-        processRevisions();
+      endCurrentPage();
+    }
+
+    private void endCurrentPage() {
+      if (currentPageId == -1) {
+        return;
+      }
+      submitCurrentChunk();
+      pipeline.endPage();
+      currentPageId = -1;
+      baseRevisions.clear();
+    }
+
+    private void submitCurrentChunk() {
+      if (currentChunk.isEmpty()) {
+        return;
+      }
+      currentChunk.sort(Comparator.comparingLong(MwRevision::getRevisionId));
+      try {
+        pipeline.submitChunk(currentChunk);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
       }
+      currentChunk = new ArrayList<>();
+    }
+  }
+
+  /**
+   * Records the read failures and the end of the read content to check that the dump has been fully parsed
+   */
+  private static final class DumpInputStream extends FilterInputStream {
+    private static final byte[] DUMP_END = "</mediawiki>".getBytes(StandardCharsets.US_ASCII);
+
+    private IOException failure;
+    // The last non-whitespace bytes read
+    private final byte[] tail = new byte[DUMP_END.length];
+    private int tailLength = 0;
+
+    private DumpInputStream(InputStream input) {
+      super(input);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      return (read(buffer, 0, 1) == -1) ? -1 : (buffer[0] & 0xff);
     }
 
-    private static boolean isSorted(long[] array) {
-      for (int i = 1; i < array.length; i++) {
-        if (array[i] <= array[i - 1]) {
-          return false;
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int read;
+      try {
+        read = super.read(buffer, offset, length);
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+        throw e;
+      }
+      for (int i = offset; i < offset + read; i++) {
+        if (!Character.isWhitespace(buffer[i])) {
+          System.arraycopy(tail, 1, tail, 0, tail.length - 1);
+          tail[tail.length - 1] = buffer[i];
+          tailLength = Math.min(tailLength + 1, tail.length);
         }
       }
-      return true;
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      return Math.max(read(new byte[(int) Math.min(n, 8192)]), 0);
+    }
+
+    /**
+     * @throws IOException if a read failed or the content does not end with the end of the dump
+     */
+    void checkFullyRead(Path file) throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      // The parser stops at the end of the root element: only whitespace should remain
+      byte[] buffer = new byte[8192];
+      int read;
+      do {
+        read = read(buffer);
+      } while (read != -1);
+      if (tailLength != tail.length || !Arrays.equals(tail, DUMP_END)) {
+        throw new IOException("The dump file " + file + " has not been fully parsed, it might be truncated or damaged");
+      }
     }
   }
 
-  private static class SetRdfOutput implements RdfBuilder.RdfOutput {
-    private final Set<Statement> statements = new HashSet<>();
+  /**
+   * Set of the triples of a revision, encoded with a dictionary of the revision terms
+   */
+  static final class SetRdfOutput implements RdfBuilder.RdfOutput {
+    private final TripleDictionary dictionary = new TripleDictionary();
+    private final LongHashSet triples = new LongHashSet();
 
     @Override
-    public void outputStatement(Statement statement) {
-      statements.add(statement);
+    public void outputStatement(Resource subject, IRI predicate, Value object) {
+      triples.add(dictionary.encode(subject, predicate, object));
     }
 
-    Set<Statement> getStatements() {
-      return statements;
+    @Override
+    public void outputStatement(Statement statement) {
+      outputStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
     }
   }
 }
@@ -0,0 +1,84 @@
+package org.wikidata.history.preprocessor;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Writes the preprocessed data into several revisions and triples file pairs.
+ * <p>
+ * The shard of a page is selected by the hash of its entity id so the pages written concurrently seldom contend on the same writer and the compression runs in parallel.
+ */
+final class ShardedHistoryOutput implements HistoryOutput {
+
+  private final FileHistoryOutput[] shards;
+
+  /**
+   * @param revisionsFiles the revisions file of each shard
+   * @param triplesFiles   the triples file of each shard, see {@link FileHistoryOutput} for the format
+   */
+  ShardedHistoryOutput(List<Path> revisionsFiles, List<Path> triplesFiles) throws IOException {
+    if (revisionsFiles.isEmpty() || revisionsFiles.size() != triplesFiles.size()) {
+      throw new IllegalArgumentException("Each shard should have a revisions and a triples file");
+    }
+    shards = new FileHistoryOutput[revisionsFiles.size()];
+    try {
+      for (int i = 0; i < shards.length; i++) {
+        shards[i] = new FileHistoryOutput(revisionsFiles.get(i), triplesFiles.get(i));
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private FileHistoryOutput shard(Object key) {
+    return shards[(key == null) ? 0 : Math.floorMod(key.hashCode(), shards.length)];
+  }
+
+  @Override
+  public HistoryOutput forPage(String entityId) {
+    return shard(entityId);
+  }
+
+  @Override
+  public void addRevision(long revisionId, long parentRevisionId, String entityId, Instant timestamp, String contributorName, String comment) throws IOException {
+    shard(entityId).addRevision(revisionId, parentRevisionId, entityId, timestamp, contributorName, comment);
+  }
+
+  /**
+   * The triples written without their page are sharded by subject
+   */
+  @Override
+  public void addTriple(Resource subject, IRI predicate, Value object, long... revisionIds) throws IOException {
+    shard(subject).addTriple(subject, predicate, object, revisionIds);
+  }
+
+  /**
+   * Closes all the shards, throwing the first failure
+   */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (FileHistoryOutput shard : shards) {
+      if (shard == null) {
+        continue;
+      }
+      try {
+        shard.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package org.wikidata.history.preprocessor;
+
+import org.eclipse.collections.api.set.primitive.LongSet;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes triples as longs by interning their terms and their (subject, predicate) pairs:
+ * the pair id is stored in the 32 high bits and the object id in the 32 low bits.
+ * <p>
+ * The ids are only meaningful for a given dictionary. Not thread-safe.
+ */
+final class TripleDictionary {
+  private static final int NO_ID = -1;
+
+  private final ObjectIntHashMap<Value> termIds = new ObjectIntHashMap<>();
+  private final List<Value> terms = new ArrayList<>();
+  private final LongIntHashMap pairIds = new LongIntHashMap();
+  private final LongArrayList pairs = new LongArrayList();
+
+  long encode(Resource subject, IRI predicate, Value object) {
+    return encode(getTermId(subject), getTermId(predicate), getTermId(object));
+  }
+
+  Resource getSubject(long triple) {
+    return (Resource) terms.get((int) (getPair(triple) >>> 32));
+  }
+
+  IRI getPredicate(long triple) {
+    return (IRI) terms.get((int) getPair(triple));
+  }
+
+  Value getObject(long triple) {
+    return terms.get((int) triple);
+  }
+
+  /**
+   * @param triples triples encoded with the other dictionary
+   * @return the same triples encoded with this dictionary
+   */
+  LongHashSet importTriples(TripleDictionary other, LongSet triples) {
+    // Each term of the other dictionary is only looked up once
+    int[] termMapping = new int[other.terms.size()];
+    for (int i = 0; i < termMapping.length; i++) {
+      termMapping[i] = getTermId(other.terms.get(i));
+    }
+    LongHashSet result = new LongHashSet(triples.size());
+    triples.forEach(triple -> {
+      long pair = other.getPair(triple);
+      result.add(encode(termMapping[(int) (pair >>> 32)], termMapping[(int) pair], termMapping[(int) triple]));
+    });
+    return result;
+  }
+
+  private int getTermId(Value term) {
+    int id = termIds.getIfAbsent(term, NO_ID);
+    if (id == NO_ID) {
+      id = terms.size();
+      terms.add(term);
+      termIds.put(term, id);
+    }
+    return id;
+  }
+
+  private long encode(int subjectId, int predicateId, int objectId) {
+    long pair = ((long) subjectId << 32) | predicateId;
+    int pairId = pairIds.getIfAbsent(pair, NO_ID);
+    if (pairId == NO_ID) {
+      pairId = pairs.size();
+      pairs.add(pair);
+      pairIds.put(pair, pairId);
+    }
+    return ((long) pairId << 32) | objectId;
+  }
+
+  private long getPair(long triple) {
+    return pairs.get((int) (triple >>> 32));
+  }
+}
@@ -5,42 +5,101 @@ import org.wikidata.wdtk.datamodel.interfaces.*;
 
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-class WikibaseValueHasher {
+import java.util.Map;
+
+/**
+ * Computes the hashes of the value, reference and some value nodes.
+ * <p>
+ * The same values and references are repeated in a lot of revisions: the hashes are kept in a bounded LRU cache keyed by the hashed objects.
+ * Not thread-safe, {@link #forCurrentThread()} returns a hasher per thread so that the cache is shared by the revisions converted by the thread.
+ */
+final class WikibaseValueHasher {
   private static final char[] HEX_ARRAY = "0123456789abcdef".toCharArray();
+  private static final int DEFAULT_CACHE_SIZE = 100_000;
+  private static final ThreadLocal<WikibaseValueHasher> THREAD_HASHERS = ThreadLocal.withInitial(WikibaseValueHasher::new);
 
   private final MessageDigest digest;
+  private final int cacheSize;
+  private final Map<Object, String> cache;
+  private final byte[] digestBuffer;
+  private final char[] hexBuffer;
 
   WikibaseValueHasher() {
+    this(DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @param cacheSize the maximal number of cached hashes, 0 to disable caching
+   */
+  WikibaseValueHasher(int cacheSize) {
     try {
       digest = MessageDigest.getInstance("SHA-1");
     } catch (NoSuchAlgorithmException e) {
       throw new RuntimeException(e);
     }
+    this.cacheSize = cacheSize;
+    cache = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, String> eldest) {
+        return size() > cacheSize;
+      }
+    };
+    digestBuffer = new byte[digest.getDigestLength()];
+    hexBuffer = new char[2 * digestBuffer.length];
+  }
+
+  static WikibaseValueHasher forCurrentThread() {
+    return THREAD_HASHERS.get();
   }
 
   String hash(Reference reference) {
-    add(reference);
-    return digestAndReset();
+    String hash = cache.get(reference);
+    if (hash == null) {
+      add(reference);
+      hash = digestAndReset();
+      addToCache(reference, hash);
+    }
+    return hash;
   }
 
   String hash(IRI subjectIRI, PropertyIdValue property) {
-    add(subjectIRI.stringValue());
-    add(property);
-    return digestAndReset();
+    List<Object> key = List.of(subjectIRI, property);
+    String hash = cache.get(key);
+    if (hash == null) {
+      add(subjectIRI.stringValue());
+      add(property);
+      hash = digestAndReset();
+      addToCache(key, hash);
+    }
+    return hash;
   }
 
   String hash(Value value) {
-    add(value);
-    return digestAndReset();
+    String hash = cache.get(value);
+    if (hash == null) {
+      add(value);
+      hash = digestAndReset();
+      addToCache(value, hash);
+    }
+    return hash;
+  }
+
+  private void addToCache(Object key, String hash) {
+    if (cacheSize > 0) {
+      cache.put(key, hash);
+    }
   }
 
   private void add(Reference reference) {
-    List<SnakGroup> groups = reference.getSnakGroups();
+    // We do not sort the reference own list: it would change its hash code while it is a cache key
+    List<SnakGroup> groups = new ArrayList<>(reference.getSnakGroups());
     groups.sort(Comparator.comparing(a -> a.getProperty().getId()));
     for (SnakGroup group : groups) {
       //TODO: sort snaks
@@ -171,19 +230,20 @@ class WikibaseValueHasher {
     }
   }
 
+  /**
+   * The digest and its hexadecimal encoding are written into reused buffers: only the returned string is allocated
+   */
   private String digestAndReset() {
-    String value = bytesToHex(digest.digest());
-    digest.reset();
-    return value;
-  }
-
-  private static String bytesToHex(byte[] bytes) {
-    char[] hexChars = new char[bytes.length * 2];
-    for (int j = 0; j < bytes.length; j++) {
-      int v = bytes[j] & 0xFF;
-      hexChars[j * 2] = HEX_ARRAY[v >>> 4];
-      hexChars[j * 2 + 1] = HEX_ARRAY[v & 0x0F];
+    try {
+      digest.digest(digestBuffer, 0, digestBuffer.length);
+    } catch (DigestException e) {
+      throw new RuntimeException(e);
+    }
+    for (int j = 0; j < digestBuffer.length; j++) {
+      int v = digestBuffer[j] & 0xFF;
+      hexBuffer[j * 2] = HEX_ARRAY[v >>> 4];
+      hexBuffer[j * 2 + 1] = HEX_ARRAY[v & 0x0F];
     }
-    return new String(hexChars);
+    return new String(hexBuffer);
   }
 }
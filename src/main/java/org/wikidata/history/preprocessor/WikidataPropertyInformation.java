@@ -1,29 +1,57 @@
 package org.wikidata.history.preprocessor;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.query.AbstractTupleQueryResultHandler;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.TupleQueryResultHandlerException;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.sparql.SPARQLRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.implementation.DatatypeIdImpl;
 import org.wikidata.wdtk.datamodel.interfaces.DatatypeIdValue;
 import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.dumpfiles.*;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
-class WikidataPropertyInformation {
+/**
+ * The datatypes and the URI patterns (P1921) of the Wikidata properties.
+ * <p>
+ * They are retrieved from the Wikidata Query Service or, without network access, from the property pages of the history dumps.
+ * They could be saved into a small file to be reused by the next runs.
+ */
+public final class WikidataPropertyInformation {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(WikidataPropertyInformation.class);
   private static final String WDQS_ENDPOINT = "https://query.wikidata.org/sparql";
   private static final String USER_AGENT = "WikidataHistoryLoader/0.1";
   private static final String QUERY = "SELECT ?property ?datatype ?uriPattern WHERE { ?property wikibase:propertyType ?datatype . OPTIONAL { ?property wdt:P1921 ?uriPattern }}";
+  private static final String URI_PATTERN_PROPERTY = "P1921";
+  private static final int PROPERTY_NAMESPACE = 120;
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
   private final Map<PropertyIdValue, DatatypeIdValue> datatypes = new HashMap<>();
   private final Map<PropertyIdValue, String> uriPatterns = new HashMap<>();
 
-  WikidataPropertyInformation() {
+  private WikidataPropertyInformation() {
+  }
+
+  public static WikidataPropertyInformation fromWdqs() {
+    WikidataPropertyInformation information = new WikidataPropertyInformation();
     SPARQLRepository repository = new SPARQLRepository(WDQS_ENDPOINT);
     repository.setAdditionalHttpHeaders(Collections.singletonMap("User-Agent", USER_AGENT));
     repository.init();
@@ -33,14 +61,106 @@ class WikidataPropertyInformation {
         public void handleSolution(BindingSet bindingSet) throws TupleQueryResultHandlerException {
           IRI propertyIRI = (IRI) bindingSet.getValue("property");
           PropertyIdValue property = Datamodel.makePropertyIdValue(propertyIRI.getLocalName(), propertyIRI.getNamespace());
-          datatypes.put(property, Datamodel.makeDatatypeIdValue(bindingSet.getValue("datatype").stringValue()));
+          information.datatypes.put(property, Datamodel.makeDatatypeIdValue(bindingSet.getValue("datatype").stringValue()));
           if (bindingSet.hasBinding("uriPattern")) {
-            uriPatterns.put(property, bindingSet.getValue("uriPattern").stringValue());
+            information.uriPatterns.put(property, bindingSet.getValue("uriPattern").stringValue());
           }
         }
       });
     }
     repository.shutDown();
+    return information;
+  }
+
+  /**
+   * Reads the last revision of each property page of the dumps.
+   * <p>
+   * All the dump files are decompressed and parsed: it costs about as much as their conversion.
+   * The files are read concurrently on the executor.
+   */
+  public static WikidataPropertyInformation fromDumps(List<Path> dumpFiles, ExecutorService executor) throws IOException, InterruptedException {
+    List<Future<Map<PropertyIdValue, PropertyPage>>> futures = new ArrayList<>(dumpFiles.size());
+    for (Path file : dumpFiles) {
+      futures.add(executor.submit(() -> readPropertyPages(file)));
+    }
+
+    // The revisions of a page might be split between several files
+    WikidataPropertyInformation information = new WikidataPropertyInformation();
+    Map<PropertyIdValue, Long> revisionIds = new HashMap<>();
+    for (Future<Map<PropertyIdValue, PropertyPage>> future : futures) {
+      Map<PropertyIdValue, PropertyPage> pages;
+      try {
+        pages = future.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
+      }
+      pages.forEach((propertyId, page) -> {
+        if (page.revisionId > revisionIds.getOrDefault(propertyId, -1L)) {
+          revisionIds.put(propertyId, page.revisionId);
+          information.datatypes.put(propertyId, page.datatype);
+          if (page.uriPattern == null) {
+            information.uriPatterns.remove(propertyId);
+          } else {
+            information.uriPatterns.put(propertyId, page.uriPattern);
+          }
+        }
+      });
+    }
+    LOGGER.info(information.datatypes.size() + " properties found in the dumps");
+    return information;
+  }
+
+  private static Map<PropertyIdValue, PropertyPage> readPropertyPages(Path file) throws IOException {
+    LOGGER.info("Reading the property pages of " + file);
+    PropertyPageProcessor processor = new PropertyPageProcessor();
+    MwLocalDumpFile dumpFile = new MwLocalDumpFile(file.toString(), DumpContentType.FULL, null, null);
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    try (InputStream input = new ParallelBZip2InputStream(new BufferedInputStream(Files.newInputStream(file)), pool, 2 * pool.getParallelism())) {
+      new MwRevisionDumpFileProcessor(processor).processDumpFileContents(input, dumpFile);
+    }
+    return processor.pages;
+  }
+
+  /**
+   * Reads a file written by {@link #save(Path)}
+   */
+  public static WikidataPropertyInformation load(Path file) throws IOException {
+    WikidataPropertyInformation information = new WikidataPropertyInformation();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file))))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split("\t", -1);
+        PropertyIdValue property = Datamodel.makeWikidataPropertyIdValue(parts[0]);
+        information.datatypes.put(property, Datamodel.makeDatatypeIdValue(parts[1]));
+        if (!parts[2].isEmpty()) {
+          information.uriPatterns.put(property, parts[2]);
+        }
+      }
+    }
+    return information;
+  }
+
+  /**
+   * Writes the information as a gzipped TSV file with a property id, its datatype IRI and its URI pattern per line.
+   * The file is written under a temporary name and atomically renamed so that an interrupted run never leaves a truncated file.
+   */
+  public void save(Path file) throws IOException {
+    Path partialFile = file.resolveSibling("partial-" + file.getFileName());
+    try {
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(partialFile))))) {
+        for (Map.Entry<PropertyIdValue, DatatypeIdValue> entry : datatypes.entrySet()) {
+          writer.append(entry.getKey().getId()).append('\t')
+                  .append(entry.getValue().getIri()).append('\t')
+                  .append(uriPatterns.getOrDefault(entry.getKey(), "")).append('\n');
+        }
+      }
+      Files.move(partialFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(partialFile);
+    }
   }
 
   DatatypeIdValue getDatatype(PropertyIdValue propertyId) {
@@ -55,4 +175,88 @@ class WikidataPropertyInformation {
   String getUriPattern(PropertyIdValue propertyId) {
     return uriPatterns.get(propertyId);
   }
+
+  /**
+   * The datatype and the URI pattern read from a revision of a property page
+   */
+  private static final class PropertyPage {
+    private final long revisionId;
+    private final DatatypeIdValue datatype;
+    private final String uriPattern;
+
+    private PropertyPage(long revisionId, DatatypeIdValue datatype, String uriPattern) {
+      this.revisionId = revisionId;
+      this.datatype = datatype;
+      this.uriPattern = uriPattern;
+    }
+  }
+
+  /**
+   * Keeps the text of the last revision of each property page and reads the datatype and the URI pattern from it at the end of the page
+   */
+  private static final class PropertyPageProcessor implements MwRevisionProcessor {
+    private final Map<PropertyIdValue, PropertyPage> pages = new HashMap<>();
+    private int currentPageId = -1;
+    private long lastRevisionId = -1;
+    private String lastText;
+
+    @Override
+    public void startRevisionProcessing(String siteName, String baseUrl, Map<Integer, String> namespaces) {
+    }
+
+    @Override
+    public void processRevision(MwRevision mwRevision) {
+      if (mwRevision.getNamespace() != PROPERTY_NAMESPACE && !MwRevision.MODEL_WIKIBASE_PROPERTY.equals(mwRevision.getModel())) {
+        return;
+      }
+      if (mwRevision.getPageId() != currentPageId) {
+        endPage();
+        currentPageId = mwRevision.getPageId();
+      }
+      if (mwRevision.getRevisionId() > lastRevisionId) {
+        lastRevisionId = mwRevision.getRevisionId();
+        lastText = mwRevision.getText();
+      }
+    }
+
+    @Override
+    public void finishRevisionProcessing() {
+      endPage();
+    }
+
+    private void endPage() {
+      if (lastText != null) {
+        try {
+          addProperty(lastRevisionId, OBJECT_MAPPER.readTree(lastText));
+        } catch (IOException | IllegalArgumentException e) {
+          LOGGER.warn("Error while reading the property page " + currentPageId + ": " + e.getMessage());
+        }
+      }
+      currentPageId = -1;
+      lastRevisionId = -1;
+      lastText = null;
+    }
+
+    private void addProperty(long revisionId, JsonNode property) {
+      if (!property.path("datatype").isTextual()) {
+        return; // Redirection
+      }
+      PropertyIdValue propertyId = Datamodel.makeWikidataPropertyIdValue(property.path("id").asText());
+      DatatypeIdValue datatype = Datamodel.makeDatatypeIdValue(DatatypeIdImpl.getDatatypeIriFromJsonDatatype(property.path("datatype").asText()));
+
+      // Like wdt:, we use the best ranked value
+      String uriPattern = null;
+      String uriPatternRank = null;
+      for (JsonNode statement : property.path("claims").path(URI_PATTERN_PROPERTY)) {
+        String rank = statement.path("rank").asText();
+        JsonNode value = statement.path("mainsnak").path("datavalue").path("value");
+        boolean isBetter = "preferred".equals(rank) ? !rank.equals(uriPatternRank) : ("normal".equals(rank) && uriPatternRank == null);
+        if (value.isTextual() && isBetter) {
+          uriPattern = value.asText();
+          uriPatternRank = rank;
+        }
+      }
+      pages.put(propertyId, new PropertyPage(revisionId, datatype, uriPattern));
+    }
+  }
 }
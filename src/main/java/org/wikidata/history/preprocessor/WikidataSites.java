@@ -0,0 +1,52 @@
+package org.wikidata.history.preprocessor;
+
+import org.wikidata.wdtk.datamodel.interfaces.Sites;
+import org.wikidata.wdtk.dumpfiles.DumpContentType;
+import org.wikidata.wdtk.dumpfiles.DumpProcessingController;
+import org.wikidata.wdtk.dumpfiles.MwLocalDumpFile;
+import org.wikidata.wdtk.dumpfiles.MwSitesDumpFileProcessor;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The Wikimedia sites table used to build the sitelink URLs.
+ * <p>
+ * It is downloaded from dumps.wikimedia.org or, without network access, read from a local dump of the table.
+ */
+public final class WikidataSites {
+
+  private static final String WIKIDATA_SITE_KEY = "wikidatawiki";
+
+  private WikidataSites() {
+  }
+
+  public static Sites download() throws IOException {
+    Sites sites = (new DumpProcessingController(WIKIDATA_SITE_KEY)).getSitesInformation();
+    if (sites == null) {
+      throw new IOException("Not able to download the sites table from dumps.wikimedia.org, a local dump of it could be used instead");
+    }
+    return sites;
+  }
+
+  /**
+   * @param file a dump of the sites table like wikidatawiki-20200101-sites.sql.gz, gzipped or not
+   */
+  public static Sites load(Path file) throws IOException {
+    MwSitesDumpFileProcessor processor = new MwSitesDumpFileProcessor();
+    try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+      InputStream content = file.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(input) : input;
+      processor.processDumpFileContents(content, new MwLocalDumpFile(file.toString(), DumpContentType.SITES, null, null));
+    }
+    Sites sites = processor.getSites();
+    // The processor only logs the read and parsing errors
+    if (sites.getGroup(WIKIDATA_SITE_KEY) == null) {
+      throw new IOException("The sites table dump " + file + " does not contain " + WIKIDATA_SITE_KEY);
+    }
+    return sites;
+  }
+}
@@ -0,0 +1,233 @@
+package org.wikidata.history.sparql;
+
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.rio.helpers.NTriplesUtil;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Binary alternative to the N-Triples TSV files of preprocessed triples.
+ * <p>
+ * A file is a sequence of records, each one prefixed by its length as a varint and starting with its type:
+ * <ul>
+ * <li>{@link #TERM}: the N-Triples serialization of the term given the next id of the dictionary</li>
+ * <li>{@link #TRIPLE}: the subject, predicate and object ids, the number of revision ids and the revision ids delta-encoded,
+ * all as varints. The deltas are incremented by one so that 0 encodes {@link Long#MAX_VALUE}.</li>
+ * <li>{@link #RESET}: the dictionary is emptied, written when it becomes too big to be kept in memory</li>
+ * </ul>
+ * Each term is so only parsed once per dictionary by the readers.
+ */
+public final class BinaryTripleFormat {
+  public static final String FILE_EXTENSION = ".bin";
+  private static final byte TERM = 0;
+  private static final byte TRIPLE = 1;
+  private static final byte RESET = 2;
+  private static final int DEFAULT_MAX_DICTIONARY_SIZE = 1_000_000;
+
+  private BinaryTripleFormat() {
+  }
+
+  /**
+   * Not thread-safe
+   */
+  public static final class Writer implements Closeable {
+    private final OutputStream output;
+    private final int maxDictionarySize;
+    private final ObjectIntHashMap<Value> dictionary = new ObjectIntHashMap<>();
+    private final RecordBuffer record = new RecordBuffer();
+    private final RecordBuffer length = new RecordBuffer();
+
+    public Writer(OutputStream output) {
+      this(output, DEFAULT_MAX_DICTIONARY_SIZE);
+    }
+
+    Writer(OutputStream output, int maxDictionarySize) {
+      this.output = output;
+      this.maxDictionarySize = maxDictionarySize;
+    }
+
+    public void writeTriple(Resource subject, IRI predicate, Value object, long... revisionIds) throws IOException {
+      // The ids of the same triple must be from the same dictionary
+      if (dictionary.size() + 3 > maxDictionarySize) {
+        record.clear();
+        record.write(RESET);
+        flushRecord();
+        dictionary.clear();
+      }
+      int subjectId = getTermId(subject);
+      int predicateId = getTermId(predicate);
+      int objectId = getTermId(object);
+
+      record.clear();
+      record.write(TRIPLE);
+      record.writeVarLong(subjectId);
+      record.writeVarLong(predicateId);
+      record.writeVarLong(objectId);
+      record.writeVarLong(revisionIds.length);
+      long previous = 0;
+      for (long revisionId : revisionIds) {
+        record.writeVarLong(revisionId == Long.MAX_VALUE ? 0 : revisionId - previous + 1);
+        previous = revisionId;
+      }
+      flushRecord();
+    }
+
+    private int getTermId(Value term) throws IOException {
+      int id = dictionary.getIfAbsent(term, -1);
+      if (id == -1) {
+        id = dictionary.size();
+        dictionary.put(term, id);
+        record.clear();
+        record.write(TERM);
+        record.write(NTriplesUtil.toNTriplesString(term).getBytes(StandardCharsets.UTF_8));
+        flushRecord();
+      }
+      return id;
+    }
+
+    private void flushRecord() throws IOException {
+      length.clear();
+      length.writeVarLong(record.size);
+      output.write(length.bytes, 0, length.size);
+      output.write(record.bytes, 0, record.size);
+    }
+
+    @Override
+    public void close() throws IOException {
+      output.close();
+    }
+  }
+
+  /**
+   * Receives the content of a file
+   */
+  public interface Handler {
+    /**
+     * @param term the term with the next dictionary id
+     */
+    void term(Value term);
+
+    void reset();
+
+    void triple(int subject, int predicate, int object, long[] revisionIds);
+  }
+
+  /**
+   * Reads the records of the input until its end
+   *
+   * @param valueFactory the factory used to parse the terms
+   */
+  public static void read(InputStream input, ValueFactory valueFactory, Handler handler) throws IOException {
+    RecordBuffer record = new RecordBuffer();
+    long recordLength;
+    while ((recordLength = readVarLong(input)) != -1) {
+      record.clear();
+      record.ensureCapacity((int) recordLength);
+      if (input.readNBytes(record.bytes, 0, (int) recordLength) != recordLength) {
+        throw new EOFException("Truncated record");
+      }
+      record.size = (int) recordLength;
+      switch (record.bytes[0]) {
+        case TERM:
+          handler.term(NTriplesUtil.parseValue(new String(record.bytes, 1, record.size - 1, StandardCharsets.UTF_8), valueFactory));
+          break;
+        case TRIPLE:
+          record.position = 1;
+          int subject = (int) record.readVarLong();
+          int predicate = (int) record.readVarLong();
+          int object = (int) record.readVarLong();
+          long[] revisionIds = new long[(int) record.readVarLong()];
+          long previous = 0;
+          for (int i = 0; i < revisionIds.length; i++) {
+            long delta = record.readVarLong();
+            revisionIds[i] = (delta == 0) ? Long.MAX_VALUE : previous + delta - 1;
+            previous = revisionIds[i];
+          }
+          handler.triple(subject, predicate, object, revisionIds);
+          break;
+        case RESET:
+          handler.reset();
+          break;
+        default:
+          throw new IOException("Unknown record type: " + record.bytes[0]);
+      }
+    }
+  }
+
+  /**
+   * @return -1 if the end of the input is reached
+   */
+  private static long readVarLong(InputStream input) throws IOException {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = input.read();
+      if (b == -1) {
+        if (shift == 0) {
+          return -1;
+        }
+        throw new EOFException("Truncated varint");
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+  private static final class RecordBuffer {
+    private byte[] bytes = new byte[256];
+    private int size = 0;
+    private int position = 0;
+
+    void clear() {
+      size = 0;
+      position = 0;
+    }
+
+    void ensureCapacity(int capacity) {
+      if (bytes.length < capacity) {
+        bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+      }
+    }
+
+    void write(byte b) {
+      ensureCapacity(size + 1);
+      bytes[size++] = b;
+    }
+
+    void write(byte[] b) {
+      ensureCapacity(size + b.length);
+      System.arraycopy(b, 0, bytes, size, b.length);
+      size += b.length;
+    }
+
+    void writeVarLong(long value) {
+      while ((value & ~0x7FL) != 0) {
+        write((byte) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      write((byte) value);
+    }
+
+    long readVarLong() {
+      long value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = bytes[position++];
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+  }
+}
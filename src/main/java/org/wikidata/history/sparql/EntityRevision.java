@@ -0,0 +1,48 @@
+package org.wikidata.history.sparql;
+
+import java.time.Instant;
+
+/**
+ * A revision of an entity with its metadata and the number of triples it added and removed
+ */
+public final class EntityRevision {
+  private final long revisionId;
+  private final Instant date;
+  private final String contributor;
+  private final long insertionCount;
+  private final long deletionCount;
+
+  EntityRevision(long revisionId, Instant date, String contributor, long insertionCount, long deletionCount) {
+    this.revisionId = revisionId;
+    this.date = date;
+    this.contributor = contributor;
+    this.insertionCount = insertionCount;
+    this.deletionCount = deletionCount;
+  }
+
+  public long getRevisionId() {
+    return revisionId;
+  }
+
+  /**
+   * @return null if unknown
+   */
+  public Instant getDate() {
+    return date;
+  }
+
+  /**
+   * @return null if unknown
+   */
+  public String getContributor() {
+    return contributor;
+  }
+
+  public long getInsertionCount() {
+    return insertionCount;
+  }
+
+  public long getDeletionCount() {
+    return deletionCount;
+  }
+}
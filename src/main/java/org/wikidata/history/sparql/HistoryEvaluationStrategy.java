@@ -0,0 +1,221 @@
+package org.wikidata.history.sparql;
+
+import org.eclipse.collections.api.iterator.LongIterator;
+import org.eclipse.collections.api.set.primitive.LongSet;
+import org.eclipse.collections.impl.factory.primitive.LongSets;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.common.iteration.SingletonIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.ArbitraryLengthPath;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedServiceResolver;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.ExtendedEvaluationStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evaluation strategy with history specific operators:
+ * - p+ and p* property paths inside of a global state graph are evaluated by {@link TransitiveClosureComputer}
+ * - joins of triple patterns all inside of the same additions or deletions graph are evaluated by {@link TripleListJoinIteration}
+ */
+final class HistoryEvaluationStrategy extends ExtendedEvaluationStrategy {
+
+  HistoryEvaluationStrategy(TripleSource tripleSource, Dataset dataset, FederatedServiceResolver serviceResolver, long iterationCacheSyncThreshold, EvaluationStatistics evaluationStatistics) {
+    super(tripleSource, dataset, serviceResolver, iterationCacheSyncThreshold, evaluationStatistics);
+  }
+
+  @Override
+  public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(Join join, BindingSet bindings) throws QueryEvaluationException {
+    CloseableIteration<BindingSet, QueryEvaluationException> result = evaluateOnTripleList(join, bindings);
+    return (result == null) ? super.evaluate(join, bindings) : result;
+  }
+
+  /**
+   * @return null if the join is not only made of triple patterns inside of the same additions or deletions graph
+   */
+  private CloseableIteration<BindingSet, QueryEvaluationException> evaluateOnTripleList(Join join, BindingSet bindings) {
+    if (!(tripleSource instanceof RocksTripleSource.QueryTripleSource)) {
+      return null;
+    }
+    List<StatementPattern> patterns = new ArrayList<>();
+    if (!collectStatementPatterns(join, patterns)) {
+      return null;
+    }
+    Value context = null;
+    for (StatementPattern pattern : patterns) {
+      Value patternContext = (pattern.getContextVar() == null) ? null : getVarValue(pattern.getContextVar(), bindings);
+      if (pattern.getScope() != StatementPattern.Scope.NAMED_CONTEXTS || !(patternContext instanceof IRI) || (context != null && !context.equals(patternContext))) {
+        return null;
+      }
+      context = patternContext;
+    }
+
+    RocksTripleSource.QueryTripleSource historyTripleSource = (RocksTripleSource.QueryTripleSource) tripleSource;
+    NumericValueFactory valueFactory = historyTripleSource.getValueFactory();
+    IRI revisionIri = valueFactory.createIRI((IRI) context);
+    if (!(revisionIri instanceof NumericValueFactory.RevisionIRI)) {
+      return null;
+    }
+    Vocabulary.SnapshotType snapshotType = ((NumericValueFactory.RevisionIRI) revisionIri).getSnapshotType();
+    if (snapshotType != Vocabulary.SnapshotType.ADDITIONS && snapshotType != Vocabulary.SnapshotType.DELETIONS) {
+      return null;
+    }
+    TripleList triples = historyTripleSource.getTripleList(snapshotType, ((NumericValueFactory.RevisionIRI) revisionIri).getRevisionId());
+    return (triples == null)
+            ? new EmptyIteration<>()
+            : new TripleListJoinIteration(triples, patterns, valueFactory, bindings);
+  }
+
+  private static boolean collectStatementPatterns(TupleExpr expr, List<StatementPattern> patterns) {
+    if (expr instanceof Join) {
+      return collectStatementPatterns(((Join) expr).getLeftArg(), patterns) && collectStatementPatterns(((Join) expr).getRightArg(), patterns);
+    } else if (expr instanceof StatementPattern) {
+      patterns.add((StatementPattern) expr);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  @Override
+  public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(ArbitraryLengthPath alp, BindingSet bindings) throws QueryEvaluationException {
+    CloseableIteration<BindingSet, QueryEvaluationException> result = evaluateAsClosure(alp, bindings);
+    return (result == null) ? super.evaluate(alp, bindings) : result;
+  }
+
+  /**
+   * @return null if the path could not be evaluated using the closure computer
+   */
+  private CloseableIteration<BindingSet, QueryEvaluationException> evaluateAsClosure(ArbitraryLengthPath alp, BindingSet bindings) {
+    if (!(tripleSource instanceof RocksTripleSource.QueryTripleSource) || alp.getMinLength() > 1 || !(alp.getPathExpression() instanceof StatementPattern)) {
+      return null;
+    }
+    StatementPattern pattern = (StatementPattern) alp.getPathExpression();
+    Var subjectVar = alp.getSubjectVar();
+    Var objectVar = alp.getObjectVar();
+    if (
+            alp.getContextVar() == null ||
+                    !alp.getContextVar().equals(pattern.getContextVar()) ||
+                    !subjectVar.equals(pattern.getSubjectVar()) ||
+                    !objectVar.equals(pattern.getObjectVar()) ||
+                    subjectVar.getName().equals(objectVar.getName())
+    ) {
+      return null;
+    }
+
+    RocksTripleSource.QueryTripleSource historyTripleSource = (RocksTripleSource.QueryTripleSource) tripleSource;
+    NumericValueFactory valueFactory = historyTripleSource.getValueFactory();
+    Value predicate = getVarValue(pattern.getPredicateVar(), bindings);
+    Value context = getVarValue(alp.getContextVar(), bindings);
+    if (!(predicate instanceof IRI) || !(context instanceof IRI)) {
+      return null;
+    }
+    context = valueFactory.createIRI((IRI) context);
+    if (!(context instanceof NumericValueFactory.RevisionIRI) || ((NumericValueFactory.RevisionIRI) context).getSnapshotType() != Vocabulary.SnapshotType.GLOBAL_STATE) {
+      return null;
+    }
+    long revisionId = ((NumericValueFactory.RevisionIRI) context).getRevisionId();
+
+    Value subject = getVarValue(subjectVar, bindings);
+    Value object = getVarValue(objectVar, bindings);
+    boolean withZeroLength = alp.getMinLength() == 0;
+    if (subject != null) {
+      LongSet reachable = reachableNodes(historyTripleSource, subject, predicate, revisionId, false);
+      if (object == null) {
+        return new ClosureBindingIteration(valueFactory, bindings, objectVar.getName(), withZeroLength ? subject : null, reachable);
+      } else {
+        return (withZeroLength && subject.equals(object)) || contains(valueFactory, reachable, object)
+                ? new SingletonIteration<>(bindings)
+                : new EmptyIteration<>();
+      }
+    } else if (object != null) {
+      LongSet reachable = reachableNodes(historyTripleSource, object, predicate, revisionId, true);
+      return new ClosureBindingIteration(valueFactory, bindings, subjectVar.getName(), withZeroLength ? object : null, reachable);
+    } else {
+      return null;
+    }
+  }
+
+  private static LongSet reachableNodes(RocksTripleSource.QueryTripleSource tripleSource, Value start, Value predicate, long revisionId, boolean inverse) {
+    NumericValueFactory valueFactory = tripleSource.getValueFactory();
+    try {
+      return tripleSource.getReachableNodes(valueFactory.encodeValue(start), valueFactory.encodeValue(predicate), revisionId, inverse);
+    } catch (NotSupportedValueException e) {
+      // The value is not in the store so there is no triple about it
+      return LongSets.immutable.empty();
+    }
+  }
+
+  private static boolean contains(NumericValueFactory valueFactory, LongSet nodes, Value value) {
+    try {
+      return nodes.contains(valueFactory.encodeValue(value));
+    } catch (NotSupportedValueException e) {
+      return false;
+    }
+  }
+
+  private static final class ClosureBindingIteration extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+    private final NumericValueFactory valueFactory;
+    private final BindingSet bindings;
+    private final String bindingName;
+    private Value start;
+    private long encodedStart;
+    private final LongIterator nodes;
+
+    /**
+     * @param start the start node to return first if the path could have a zero length, null if not
+     */
+    ClosureBindingIteration(NumericValueFactory valueFactory, BindingSet bindings, String bindingName, Value start, LongSet nodes) {
+      this.valueFactory = valueFactory;
+      this.bindings = bindings;
+      this.bindingName = bindingName;
+      this.start = start;
+      this.nodes = nodes.longIterator();
+      try {
+        encodedStart = (start == null) ? 0 : valueFactory.encodeValue(start);
+      } catch (NotSupportedValueException e) {
+        encodedStart = 0; // Not in the store so it can't be in the closure. 0 is never a valid encoding.
+      }
+    }
+
+    @Override
+    protected BindingSet getNextElement() throws QueryEvaluationException {
+      if (start != null) {
+        BindingSet result = bind(start);
+        start = null;
+        return result;
+      }
+      while (nodes.hasNext()) {
+        long node = nodes.next();
+        if (encodedStart != 0 && node == encodedStart) {
+          continue; // Already returned as the zero length path
+        }
+        try {
+          return bind(valueFactory.createValue(node));
+        } catch (NotSupportedValueException e) {
+          throw new QueryEvaluationException(e);
+        }
+      }
+      return null;
+    }
+
+    private BindingSet bind(Value value) {
+      QueryBindingSet result = new QueryBindingSet(bindings);
+      result.addBinding(bindingName, value);
+      return result;
+    }
+  }
+}
@@ -7,7 +7,6 @@ import org.eclipse.rdf4j.model.*;
 import org.eclipse.rdf4j.query.*;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryPreparer;
 import org.eclipse.rdf4j.query.parser.*;
-import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
 import org.eclipse.rdf4j.repository.RepositoryResult;
@@ -26,7 +25,7 @@ public class HistoryRepository extends AbstractRepository implements AutoCloseab
 
   private Path indexPath;
   private RocksTripleSource tripleSource;
-  private QueryParser queryParser;
+  private ParsedQueryCache queryParser;
   private QueryPreparer queryPreparer;
 
   public HistoryRepository(Path indexPath) {
@@ -37,7 +36,7 @@ public class HistoryRepository extends AbstractRepository implements AutoCloseab
   @Override
   protected void initializeInternal() throws RepositoryException {
     tripleSource = new RocksTripleSource(indexPath);
-    queryParser = new SPARQLParser();
+    queryParser = new ParsedQueryCache();
     queryPreparer = new SimpleQueryPreparer(tripleSource);
   }
 
@@ -0,0 +1,92 @@
+package org.wikidata.history.sparql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records in a file how many items of a loaded file have been fully committed so that an interrupted load restarts after them.
+ * <p>
+ * The batches of items might be committed out of order: only the longest prefix of committed batches is recorded.
+ */
+final class LoadingCheckpoint {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LoadingCheckpoint.class);
+  private static final long RECORD_INTERVAL = 1_000_000;
+
+  private final Path file;
+  private final Path loadedFile;
+  private final long start;
+  // Batch index -> number of items in the loaded file at the end of the batch
+  private final Map<Long, Long> pendingBatches = new HashMap<>();
+  private long nextBatch = 0;
+  private long committed;
+  private long recorded;
+
+  /**
+   * @param file       the file storing the checkpoint
+   * @param loadedFile the file being loaded
+   */
+  LoadingCheckpoint(Path file, Path loadedFile) {
+    this.file = file;
+    this.loadedFile = loadedFile;
+    long start = 0;
+    if (Files.exists(file)) {
+      try {
+        start = Long.parseLong(new String(Files.readAllBytes(file)).trim());
+      } catch (IOException | NumberFormatException e) {
+        LOGGER.error(e.getMessage(), e);
+      }
+    }
+    this.start = start;
+    committed = start;
+    recorded = start;
+  }
+
+  /**
+   * @return the number of items to skip at the beginning of the loaded file
+   */
+  long getStart() {
+    return start;
+  }
+
+  /**
+   * @param batch the index of the batch, counted from 0 for the batches after {@link #getStart()}
+   * @param end   the number of items in the loaded file at the end of the batch
+   */
+  synchronized void commit(long batch, long end) {
+    pendingBatches.put(batch, end);
+    while (pendingBatches.containsKey(nextBatch)) {
+      committed = pendingBatches.remove(nextBatch);
+      nextBatch++;
+    }
+    if (committed - recorded >= RECORD_INTERVAL) {
+      record();
+      LOGGER.info(committed + " triples imported from " + loadedFile);
+    }
+  }
+
+  synchronized long getCommitted() {
+    return committed;
+  }
+
+  /**
+   * Records the last committed position
+   */
+  synchronized void finish() {
+    record();
+  }
+
+  private void record() {
+    try {
+      Files.write(file, Long.toString(committed).getBytes());
+      recorded = committed;
+    } catch (IOException e) {
+      LOGGER.error(e.getMessage(), e);
+    }
+  }
+}
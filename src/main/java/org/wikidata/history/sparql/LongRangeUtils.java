@@ -31,6 +31,44 @@ final class LongRangeUtils {
     return false;
   }
 
+  /**
+   * Start of the largest interval containing element where isInRange(_, range) keeps the same value
+   */
+  static long stableIntervalStart(long element, long[] range) {
+    long start = Long.MIN_VALUE;
+    for (long bound : range) {
+      if (bound > element) {
+        break;
+      }
+      start = bound;
+    }
+    return start;
+  }
+
+  /**
+   * End (exclusive) of the largest interval containing element where isInRange(_, range) keeps the same value
+   */
+  static long stableIntervalEnd(long element, long[] range) {
+    for (long bound : range) {
+      if (bound > element) {
+        return bound;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * @return the range with its last interval ending at end if this interval is open (ends with {@link Long#MAX_VALUE}) and starts before end
+   */
+  static long[] closeOpenInterval(long[] range, long end) {
+    if (range.length == 0 || range[range.length - 1] != Long.MAX_VALUE || range[range.length - 2] >= end) {
+      return range;
+    }
+    long[] result = range.clone();
+    result[result.length - 1] = end;
+    return result;
+  }
+
   static long[] union(long[] a, long[] b) {
     if (a.length == 0) {
       return b;
@@ -1,5 +1,6 @@
 package org.wikidata.history.sparql;
 
+import com.google.common.hash.Hashing;
 import org.eclipse.rdf4j.model.*;
 import org.eclipse.rdf4j.model.base.AbstractValueFactory;
 import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
@@ -15,6 +16,8 @@ import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -30,6 +33,8 @@ final class NumericValueFactory extends AbstractValueFactory implements AutoClos
   private static final Logger LOGGER = LoggerFactory.getLogger(NumericValueFactory.class);
 
   private static final long TYPE_SHIFT = 12;
+  // Never encoded as 0: the node fingerprints are not 0
+  private static final byte NODE_TYPE = 0;
   private static final byte IRI_TYPE = 1;
   private static final byte BLANK_NODE_TYPE = 2;
   private static final byte LITERAL_TYPE = 3;
@@ -42,9 +47,20 @@ final class NumericValueFactory extends AbstractValueFactory implements AutoClos
   private static final byte SMALL_STRING_TYPE = 10;
   private static final byte REVISION_ID_TYPE = 11;
   private static final long LANGUAGE_TAG_SHIFT = Short.MAX_VALUE + 1;
+  private static final long NAMESPACE_SHIFT = Short.MAX_VALUE + 1;
+  // The IRI is stored as a single string if its namespace has no id
+  private static final short NO_NAMESPACE = 0;
   private static final long DATATYPE_SHIFT = Short.MAX_VALUE + 1;
   private static final long PROPERTY_TYPE_SHIFT = 32;
   private static final long SNAPSHOT_TYPE_SHIFT = 4;
+  private static final long NODE_KIND_SHIFT = 4;
+  private static final long NODE_FINGERPRINT_MASK = (1L << 57) - 1;
+  private static final int NODE_STATEMENT_HASH_BITS = 24;
+  private static final int MAX_NODE_PROBES = 16;
+  private static final byte HEX_LOCAL_NAME = 0;
+  private static final byte TEXT_LOCAL_NAME = 1;
+  private static final char[] HEX_ARRAY = "0123456789abcdef".toCharArray();
+  private static final Pattern STATEMENT_LOCAL_NAME_PATTERN = Pattern.compile("^[A-Za-z](\\d{1,10})-.*");
   private static final long MAX_ENCODED_VALUE = Long.MAX_VALUE / TYPE_SHIFT;
   private static final long MIN_ENCODED_VALUE = Long.MIN_VALUE / TYPE_SHIFT;
 
@@ -136,6 +152,11 @@ final class NumericValueFactory extends AbstractValueFactory implements AutoClos
     byte type = (byte) Math.abs(value % TYPE_SHIFT);
     value /= TYPE_SHIFT;
     switch (type) {
+      case NODE_TYPE:
+        if (value == 0) {
+          throw new NotSupportedValueException("0 is not an encoded value");
+        }
+        return new NodeIRI(value, stringStore);
       case IRI_TYPE:
         return new DictionaryIRI(value, stringStore);
       case BLANK_NODE_TYPE:
@@ -217,13 +238,128 @@ final class NumericValueFactory extends AbstractValueFactory implements AutoClos
     if (Vocabulary.REVISION_DELETIONS_NAMESPACE.equals(namespace)) {
       return new RevisionIRI(Long.parseLong(localName), Vocabulary.SnapshotType.DELETIONS);
     }
+    NodeKind nodeKind = NodeKind.forNamespace(namespace);
+    if (nodeKind != null && !localName.isEmpty()) {
+      NodeIRI node = createNodeIRI(nodeKind, localName);
+      if (node != null) {
+        return node;
+      }
+    }
 
     String iri = namespace + localName;
-    Long encodedIri = stringStore.putString(iri);
-    if (encodedIri != null) {
-      return new DictionaryIRI(encodedIri, iri);
+    // The same IRI must always be split the same way to get the same encoding
+    int localNameIdx = namespace.length();
+    try {
+      localNameIdx = URIUtil.getLocalNameIndex(iri);
+    } catch (IllegalArgumentException e) {
+      // Not a valid IRI, we keep the given split
+    }
+    if (localNameIdx != namespace.length()) {
+      namespace = iri.substring(0, localNameIdx);
+      localName = iri.substring(localNameIdx);
+    }
+    // The other namespaces are not given an id: the ids would depend on the loading order
+    Short namespaceId = PinnedNamespaces.getId(namespace);
+    if (namespaceId != null) {
+      Long localNameId = stringStore.putString(localName);
+      if (localNameId != null) {
+        return new DictionaryIRI(localNameId, namespaceId, namespace, localName);
+      }
+    } else {
+      Long iriId = stringStore.putString(iri);
+      if (iriId != null) {
+        return new DictionaryIRI(iriId, NO_NAMESPACE, namespace, localName);
+      }
+    }
+    return super.createIRI(iri);
+  }
+
+  /**
+   * Stores the local name in the node table under the node fingerprint or, if another node already uses it, under the next free one
+   *
+   * @return null if the node is not in the store and could not be added
+   */
+  private NodeIRI createNodeIRI(NodeKind kind, String localName) {
+    byte[] encodedLocalName = encodeNodeLocalName(localName);
+    long fingerprint = nodeFingerprint(kind, localName);
+    for (int i = 0; i < MAX_NODE_PROBES; i++) {
+      long id = compose(fingerprint, NODE_KIND_SHIFT, kind.ordinal());
+      byte[] storedLocalName = stringStore.putNode(id, encodedLocalName);
+      if (storedLocalName == null) {
+        return null;
+      } else if (Arrays.equals(storedLocalName, encodedLocalName)) {
+        return new NodeIRI(id, kind, localName);
+      }
+      fingerprint = (fingerprint + 1) & NODE_FINGERPRINT_MASK;
+      if (fingerprint == 0) {
+        fingerprint = 1;
+      }
+    }
+    LOGGER.warn("Too many node fingerprint collisions for " + kind.namespace + localName);
+    return null;
+  }
+
+  /**
+   * The value and reference local names are already hashes: their first bits are used.
+   * The statements of the same entity are kept together by using its numeric id as high bits.
+   */
+  private static long nodeFingerprint(NodeKind kind, String localName) {
+    long fingerprint;
+    Matcher statementMatcher;
+    if (kind != NodeKind.STATEMENT && localName.length() >= 15 && isLowerCaseHex(localName)) {
+      fingerprint = Long.parseLong(localName.substring(0, 15), 16) >>> 3;
+    } else if (kind == NodeKind.STATEMENT && (statementMatcher = STATEMENT_LOCAL_NAME_PATTERN.matcher(localName)).matches()) {
+      long entityId = Long.parseLong(statementMatcher.group(1));
+      long hash = Hashing.murmur3_128().hashString(localName, StandardCharsets.UTF_8).asLong();
+      fingerprint = (entityId << NODE_STATEMENT_HASH_BITS) | (hash & ((1L << NODE_STATEMENT_HASH_BITS) - 1));
     } else {
-      return super.createIRI(iri);
+      fingerprint = Hashing.murmur3_128().hashString(localName, StandardCharsets.UTF_8).asLong();
+    }
+    fingerprint &= NODE_FINGERPRINT_MASK;
+    return fingerprint == 0 ? 1 : fingerprint;
+  }
+
+  private static boolean isLowerCaseHex(String str) {
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (!('0' <= c && c <= '9') && !('a' <= c && c <= 'f')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The hexadecimal local names are stored as their bytes
+   */
+  private static byte[] encodeNodeLocalName(String localName) {
+    if (localName.length() % 2 == 0 && isLowerCaseHex(localName)) {
+      byte[] encoded = new byte[1 + localName.length() / 2];
+      encoded[0] = HEX_LOCAL_NAME;
+      for (int i = 1; i < encoded.length; i++) {
+        encoded[i] = (byte) Integer.parseInt(localName, 2 * i - 2, 2 * i, 16);
+      }
+      return encoded;
+    } else {
+      byte[] text = localName.getBytes(StandardCharsets.UTF_8);
+      byte[] encoded = new byte[1 + text.length];
+      encoded[0] = TEXT_LOCAL_NAME;
+      System.arraycopy(text, 0, encoded, 1, text.length);
+      return encoded;
+    }
+  }
+
+  private static String decodeNodeLocalName(byte[] encoded) {
+    if (encoded[0] == HEX_LOCAL_NAME) {
+      char[] hex = new char[2 * (encoded.length - 1)];
+      for (int i = 1; i < encoded.length; i++) {
+        int v = encoded[i] & 0xFF;
+        hex[2 * i - 2] = HEX_ARRAY[v >>> 4];
+        hex[2 * i - 1] = HEX_ARRAY[v & 0x0F];
+      }
+      return new String(hex);
+    } else {
+      return new String(encoded, 1, encoded.length - 1, StandardCharsets.UTF_8);
     }
   }
 
@@ -670,54 +806,172 @@ final class NumericValueFactory extends AbstractValueFactory implements AutoClos
 
   private static final Vocabulary.SnapshotType[] SNAPSHOT_TYPES = Vocabulary.SnapshotType.values();
 
-  private static final class DictionaryIRI implements IRI, NumericValue {
+  enum NodeKind {
+    STATEMENT(Vocabulary.WDS_NAMESPACE),
+    VALUE(Vocabulary.WDV_NAMESPACE),
+    REFERENCE(Vocabulary.WDREF_NAMESPACE);
+
+    private final String namespace;
+
+    NodeKind(String namespace) {
+      this.namespace = namespace;
+    }
+
+    static NodeKind forNamespace(String namespace) {
+      for (NodeKind kind : NODE_KINDS) {
+        if (kind.namespace.equals(namespace)) {
+          return kind;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final NodeKind[] NODE_KINDS = NodeKind.values();
+
+  /**
+   * A statement, value or reference node encoded by its kind and the fingerprint of its local name.
+   * The local name is stored in the node table of the string store.
+   */
+  private static final class NodeIRI implements IRI, NumericValue {
     private final long id;
+    private final NodeKind kind;
     private final StringStore stringStore;
-    private String iri = null;
-    private int localNameIdx = -1;
+    private String localName;
 
-    private DictionaryIRI(long id, StringStore stringStore) {
+    private NodeIRI(long id, StringStore stringStore) {
       this.id = id;
+      this.kind = NODE_KINDS[(int) Math.abs(id % NODE_KIND_SHIFT)];
       this.stringStore = stringStore;
     }
 
-    private DictionaryIRI(long id, String iri) {
+    private NodeIRI(long id, NodeKind kind, String localName) {
       this.id = id;
+      this.kind = kind;
       this.stringStore = null;
-      this.iri = iri;
+      this.localName = localName;
+    }
+
+    @Override
+    public String getNamespace() {
+      return kind.namespace;
+    }
+
+    @Override
+    public String getLocalName() {
+      if (localName == null) {
+        byte[] encoded = stringStore.getNode(id);
+        if (encoded == null) {
+          throw new IllegalStateException("Unknown " + kind.namespace + " node fingerprint: " + id);
+        }
+        localName = decodeNodeLocalName(encoded);
+      }
+      return localName;
     }
 
     @Override
     public String stringValue() {
-      if (iri == null && stringStore != null) {
-        iri = stringStore.getString(id);
+      return getNamespace() + getLocalName();
+    }
+
+    @Override
+    public String toString() {
+      return stringValue();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if (o instanceof NodeIRI) {
+        return ((NodeIRI) o).id == id;
+      } else {
+        return o instanceof IRI && ((IRI) o).stringValue().equals(stringValue());
       }
-      return iri;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(id);
+    }
+
+    @Override
+    public long encode() {
+      return compose(id, TYPE_SHIFT, NODE_TYPE);
+    }
+  }
+
+  /**
+   * An IRI stored as a namespace id and a local name string id, or as a single string id if its namespace has no id
+   */
+  private static final class DictionaryIRI implements IRI, NumericValue {
+    private final long localNameId;
+    private final short namespaceId;
+    private final StringStore stringStore;
+    private String namespace = null;
+    private String localName = null;
+
+    private DictionaryIRI(long localNameId, short namespaceId, StringStore stringStore) {
+      this.localNameId = localNameId;
+      this.namespaceId = namespaceId;
+      this.stringStore = stringStore;
+    }
+
+    private DictionaryIRI(long localNameId, short namespaceId, String namespace, String localName) {
+      this.localNameId = localNameId;
+      this.namespaceId = namespaceId;
+      this.stringStore = null;
+      this.namespace = namespace;
+      this.localName = localName;
+    }
+
+    private DictionaryIRI(long id, StringStore stringStore) {
+      this(id / NAMESPACE_SHIFT, (short) Math.abs(id % NAMESPACE_SHIFT), stringStore);
+    }
+
+    @Override
+    public String stringValue() {
+      return getNamespace() + getLocalName();
     }
 
     @Override
     public String getNamespace() {
-      String iri = stringValue();
-      if (localNameIdx < 0) {
-        localNameIdx = URIUtil.getLocalNameIndex(iri);
+      if (namespace == null && stringStore != null) {
+        if (namespaceId == NO_NAMESPACE) {
+          loadFullIRI();
+        } else {
+          namespace = PinnedNamespaces.getNamespace(namespaceId);
+        }
       }
-      return iri.substring(0, localNameIdx);
+      return namespace;
     }
 
     @Override
     public String getLocalName() {
-      String iri = stringValue();
-      if (localNameIdx < 0) {
-        localNameIdx = URIUtil.getLocalNameIndex(iri);
+      if (localName == null && stringStore != null) {
+        if (namespaceId == NO_NAMESPACE) {
+          loadFullIRI();
+        } else {
+          localName = stringStore.getString(localNameId);
+        }
+      }
+      return localName;
+    }
+
+    private void loadFullIRI() {
+      String iri = stringStore.getString(localNameId);
+      if (iri != null) {
+        int localNameIdx = URIUtil.getLocalNameIndex(iri);
+        namespace = iri.substring(0, localNameIdx);
+        localName = iri.substring(localNameIdx);
       }
-      return iri.substring(localNameIdx);
     }
 
     @Override
     public boolean equals(Object obj) {
       if (obj instanceof DictionaryIRI) {
         DictionaryIRI other = (DictionaryIRI) obj;
-        return id == other.id;
+        return localNameId == other.localNameId && namespaceId == other.namespaceId;
       } else if (obj instanceof IRI) {
         return ((IRI) obj).stringValue().equals(stringValue());
       } else {
@@ -727,7 +981,7 @@ final class NumericValueFactory extends AbstractValueFactory implements AutoClos
 
     @Override
     public int hashCode() {
-      return Long.hashCode(id);
+      return Long.hashCode(localNameId);
     }
 
     @Override
@@ -737,7 +991,7 @@ final class NumericValueFactory extends AbstractValueFactory implements AutoClos
 
     @Override
     public long encode() {
-      return compose(id, TYPE_SHIFT, IRI_TYPE);
+      return compose(compose(localNameId, NAMESPACE_SHIFT, namespaceId), TYPE_SHIFT, IRI_TYPE);
     }
   }
 
@@ -1256,6 +1510,18 @@ final class NumericValueFactory extends AbstractValueFactory implements AutoClos
 
     Short putLanguage(String languageCode);
 
+    /**
+     * @return the encoded local name of the node, null if unknown
+     */
+    byte[] getNode(long id);
+
+    /**
+     * Stores the node encoded local name if the id is not used yet
+     *
+     * @return the encoded local name stored for the id after the call, null if the id is not used and the store is read-only
+     */
+    byte[] putNode(long id, byte[] localName);
+
     @Override
     void close();
   }
@@ -1281,6 +1547,16 @@ final class NumericValueFactory extends AbstractValueFactory implements AutoClos
       return null;
     }
 
+    @Override
+    public byte[] getNode(long id) {
+      return null;
+    }
+
+    @Override
+    public byte[] putNode(long id, byte[] localName) {
+      return null;
+    }
+
     @Override
     public void close() {
     }
@@ -0,0 +1,116 @@
+package org.wikidata.history.sparql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.parser.ParsedQuery;
+import org.eclipse.rdf4j.query.parser.QueryParser;
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser;
+
+/**
+ * Bounded cache of parsed SPARQL queries keyed by their normalized text.
+ * <p>
+ * Returning the same {@link ParsedQuery} for the same query also allows {@link SimpleQueryPreparer} to reuse its optimized plan.
+ */
+public final class ParsedQueryCache {
+  private static final int CACHE_SIZE = 1024;
+
+  private final QueryParser queryParser = new SPARQLParser();
+  private final Cache<String, ParsedQuery> cache = CacheBuilder.newBuilder()
+          .maximumSize(CACHE_SIZE)
+          .recordStats()
+          .build();
+
+  public ParsedQuery parseQuery(String query, String baseURI) throws MalformedQueryException {
+    String key = (baseURI == null ? "" : baseURI) + "\n" + normalizeQuery(query);
+    ParsedQuery parsedQuery = cache.getIfPresent(key);
+    if (parsedQuery == null) {
+      parsedQuery = queryParser.parseQuery(query, baseURI);
+      cache.put(key, parsedQuery);
+    }
+    return parsedQuery;
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  public long getSize() {
+    return cache.size();
+  }
+
+  /**
+   * Collapses whitespace sequences outside of string literals, IRIs and comments and trims the query
+   */
+  public static String normalizeQuery(String query) {
+    StringBuilder builder = new StringBuilder(query.length());
+    boolean pendingSpace = false;
+    int i = 0;
+    while (i < query.length()) {
+      char c = query.charAt(i);
+      if (Character.isWhitespace(c)) {
+        pendingSpace = true;
+        i++;
+        continue;
+      }
+      if (pendingSpace && builder.length() > 0) {
+        builder.append(' ');
+      }
+      pendingSpace = false;
+      int end;
+      if (c == '"' || c == '\'') {
+        end = endOfStringLiteral(query, i);
+      } else if (c == '<') {
+        end = endOfIri(query, i);
+      } else if (c == '#') {
+        // The comment ending new line is kept: replacing it by a space would extend the comment
+        end = query.indexOf('\n', i);
+        end = (end == -1) ? query.length() : end + 1;
+      } else {
+        end = i + 1;
+      }
+      builder.append(query, i, end);
+      i = end;
+    }
+    return builder.toString();
+  }
+
+  private static int endOfStringLiteral(String query, int start) {
+    char quote = query.charAt(start);
+    String longQuote = new String(new char[]{quote, quote, quote});
+    boolean isLong = query.startsWith(longQuote, start);
+    int i = start + (isLong ? 3 : 1);
+    while (i < query.length()) {
+      char c = query.charAt(i);
+      if (c == '\\') {
+        i += 2;
+      } else if (isLong ? query.startsWith(longQuote, i) : c == quote) {
+        // A long literal might end with more than three quotes, the extra ones being part of the content
+        int end = i + (isLong ? 3 : 1);
+        while (isLong && end < query.length() && query.charAt(end) == quote) {
+          end++;
+        }
+        return end;
+      } else {
+        i++;
+      }
+    }
+    return query.length();
+  }
+
+  /**
+   * @return the end of the IRI or start + 1 if the '<' is a comparison operator
+   */
+  private static int endOfIri(String query, int start) {
+    for (int i = start + 1; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (c == '>') {
+        return i + 1;
+      } else if (Character.isWhitespace(c)) {
+        return start + 1;
+      }
+    }
+    return start + 1;
+  }
+}
@@ -0,0 +1,143 @@
+package org.wikidata.history.sparql;
+
+import org.eclipse.rdf4j.model.vocabulary.DCTERMS;
+import org.eclipse.rdf4j.model.vocabulary.GEO;
+import org.eclipse.rdf4j.model.vocabulary.OWL;
+import org.eclipse.rdf4j.model.vocabulary.PROV;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The namespaces stored as an id in the encoding of the dictionary IRIs.
+ * <p>
+ * The id of a namespace is its position in the table plus one, so the table is part of the on-disk encoding:
+ * it is built from fixed lists only and new namespaces must only be appended at the end of it.
+ */
+final class PinnedNamespaces {
+
+  private static final String[] VOCABULARIES = new String[]{
+          Vocabulary.WD_NAMESPACE,
+          Vocabulary.WDS_NAMESPACE,
+          Vocabulary.WDV_NAMESPACE,
+          Vocabulary.WDREF_NAMESPACE,
+          Vocabulary.WDT_NAMESPACE,
+          Vocabulary.P_NAMESPACE,
+          Vocabulary.WDNO_NAMESPACE,
+          Vocabulary.PS_NAMESPACE,
+          Vocabulary.PSV_NAMESPACE,
+          Vocabulary.PQ_NAMESPACE,
+          Vocabulary.PQV_NAMESPACE,
+          Vocabulary.PR_NAMESPACE,
+          Vocabulary.PRV_NAMESPACE,
+          Vocabulary.REVISION_NAMESPACE,
+          Vocabulary.WB_NAMESPACE,
+          Vocabulary.WBHISTORY_NAMESPACE,
+          "http://www.wikidata.org/prop/direct-normalized/",
+          "http://www.wikidata.org/prop/statement/value-normalized/",
+          "http://www.wikidata.org/prop/qualifier/value-normalized/",
+          "http://www.wikidata.org/prop/reference/value-normalized/",
+          "https://www.wikidata.org/wiki/Special:EntityData/",
+          "http://commons.wikimedia.org/wiki/Special:FilePath/",
+          "http://commons.wikimedia.org/data/main/",
+          "http://schema.org/",
+          RDF.NAMESPACE,
+          RDFS.NAMESPACE,
+          OWL.NAMESPACE,
+          XSD.NAMESPACE,
+          SKOS.NAMESPACE,
+          PROV.NAMESPACE,
+          DCTERMS.NAMESPACE,
+          GEO.NAMESPACE,
+          "http://www.w3.org/ns/lemon/ontolex#",
+          "http://creativecommons.org/ns#"
+  };
+
+  // The sitelink article bases of the wikis that are not per language
+  private static final String[] SINGLE_SITES = new String[]{
+          "https://commons.wikimedia.org/wiki/",
+          "http://commons.wikimedia.org/wiki/",
+          "https://species.wikimedia.org/wiki/",
+          "https://meta.wikimedia.org/wiki/",
+          "https://www.mediawiki.org/wiki/",
+          "https://www.wikidata.org/wiki/",
+          "https://incubator.wikimedia.org/wiki/",
+          "https://wikisource.org/wiki/",
+          "https://outreach.wikimedia.org/wiki/",
+          "https://wikimania.wikimedia.org/wiki/",
+          "https://www.wikifunctions.org/wiki/"
+  };
+
+  private static final String[] PROJECTS = new String[]{
+          "wikipedia", "wiktionary", "wikibooks", "wikinews", "wikiquote", "wikisource", "wikiversity", "wikivoyage"
+  };
+
+  // The language subdomains of the Wikimedia projects, the sitelinks of the subdomains that are not listed are stored as full strings
+  private static final String[] LANGUAGES = new String[]{
+          "aa", "ab", "ace", "ady", "af", "ak", "als", "alt", "am", "ami", "an", "ang", "anp", "ar", "arc", "ary", "arz",
+          "as", "ast", "atj", "av", "avk", "awa", "ay", "az", "azb", "ba", "ban", "bar", "bat-smg", "bbc", "bcl", "be",
+          "be-tarask", "bew", "bg", "bh", "bi", "bjn", "blk", "bm", "bn", "bo", "bpy", "br", "bs", "btm", "bug", "bxr",
+          "ca", "cbk-zam", "cdo", "ce", "ceb", "ch", "cho", "chr", "chy", "ckb", "co", "cr", "crh", "cs", "csb", "cu",
+          "cv", "cy", "da", "dag", "de", "dga", "din", "diq", "dsb", "dtp", "dty", "dv", "dz", "ee", "el", "eml", "en",
+          "eo", "es", "et", "eu", "ext", "fa", "fat", "ff", "fi", "fiu-vro", "fj", "fo", "fon", "fr", "frp", "frr",
+          "fur", "fy", "ga", "gag", "gan", "gcr", "gd", "gl", "glk", "gn", "gom", "gor", "got", "gpe", "gu", "guc",
+          "gur", "guw", "gv", "ha", "hak", "haw", "he", "hi", "hif", "ho", "hr", "hsb", "ht", "hu", "hy", "hyw", "hz",
+          "ia", "iba", "id", "ie", "ig", "igl", "ii", "ik", "ilo", "inh", "io", "is", "it", "iu", "ja", "jam", "jbo",
+          "jv", "ka", "kaa", "kab", "kbd", "kbp", "kcg", "kg", "kge", "ki", "kj", "kk", "kl", "km", "kn", "knc", "ko",
+          "koi", "kr", "krc", "ks", "ksh", "ku", "kus", "kv", "kw", "ky", "la", "lad", "lb", "lbe", "lez", "lfn", "lg",
+          "li", "lij", "lld", "lmo", "ln", "lo", "lrc", "lt", "ltg", "lv", "mad", "mai", "map-bms", "mdf", "mg", "mh",
+          "mhr", "mi", "min", "mk", "ml", "mn", "mni", "mnw", "mo", "mos", "mr", "mrj", "ms", "mt", "mus", "mwl", "my",
+          "myv", "mzn", "na", "nah", "nap", "nds", "nds-nl", "ne", "new", "ng", "nia", "nl", "nn", "no", "nov", "nqo",
+          "nr", "nrm", "nso", "nup", "nv", "ny", "oc", "olo", "om", "or", "os", "pa", "pag", "pam", "pap", "pcd", "pcm",
+          "pdc", "pfl", "pi", "pih", "pl", "pms", "pnb", "pnt", "ps", "pt", "pwn", "qu", "rm", "rmy", "rn", "ro",
+          "roa-rup", "roa-tara", "rsk", "ru", "rue", "rw", "sa", "sah", "sat", "sc", "scn", "sco", "sd", "se", "sg",
+          "sh", "shi", "shn", "si", "simple", "sk", "skr", "sl", "sm", "smn", "sn", "so", "sq", "sr", "srn", "ss", "st",
+          "stq", "su", "sv", "sw", "syl", "szl", "szy", "ta", "tay", "tcy", "tdd", "te", "tet", "tg", "th", "ti", "tk",
+          "tl", "tly", "tn", "to", "tpi", "tr", "trv", "ts", "tt", "tum", "tw", "ty", "tyv", "udm", "ug", "uk", "ur",
+          "uz", "ve", "vec", "vep", "vi", "vls", "vo", "wa", "war", "wo", "wuu", "xal", "xh", "xmf", "yi", "yo", "yue",
+          "za", "zea", "zgh", "zh", "zh-classical", "zh-min-nan", "zh-yue", "zu"
+  };
+
+  private static final String[] NAMESPACES = buildNamespaces();
+  private static final Map<String, Short> IDS = new HashMap<>();
+
+  static {
+    if (NAMESPACES.length > Short.MAX_VALUE) {
+      throw new IllegalStateException("Too many pinned namespaces: " + NAMESPACES.length);
+    }
+    for (int i = 0; i < NAMESPACES.length; i++) {
+      IDS.put(NAMESPACES[i], (short) (i + 1));
+    }
+  }
+
+  private static String[] buildNamespaces() {
+    List<String> namespaces = new ArrayList<>(List.of(VOCABULARIES));
+    namespaces.addAll(List.of(SINGLE_SITES));
+    for (String project : PROJECTS) {
+      for (String language : LANGUAGES) {
+        namespaces.add("https://" + language + "." + project + ".org/wiki/");
+      }
+    }
+    return namespaces.toArray(new String[0]);
+  }
+
+  /**
+   * @return the id of the namespace or null if it is not pinned
+   */
+  static Short getId(String namespace) {
+    return IDS.get(namespace);
+  }
+
+  static String getNamespace(short id) {
+    if (id < 1 || id > NAMESPACES.length) {
+      throw new IllegalStateException("Unknown namespace id " + id + ", the index should be rebuilt");
+    }
+    return NAMESPACES[id - 1];
+  }
+}
@@ -0,0 +1,42 @@
+package org.wikidata.history.sparql;
+
+import java.time.Instant;
+
+/**
+ * Number of triples with a given predicate added and removed by a contributor during a month
+ */
+public final class PredicateActivity {
+  private final Instant month;
+  private final String contributor;
+  private final long insertionCount;
+  private final long deletionCount;
+
+  PredicateActivity(Instant month, String contributor, long insertionCount, long deletionCount) {
+    this.month = month;
+    this.contributor = contributor;
+    this.insertionCount = insertionCount;
+    this.deletionCount = deletionCount;
+  }
+
+  /**
+   * @return the start of the month in UTC
+   */
+  public Instant getMonth() {
+    return month;
+  }
+
+  /**
+   * @return null if unknown
+   */
+  public String getContributor() {
+    return contributor;
+  }
+
+  public long getInsertionCount() {
+    return insertionCount;
+  }
+
+  public long getDeletionCount() {
+    return deletionCount;
+  }
+}
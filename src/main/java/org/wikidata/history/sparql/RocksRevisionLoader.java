@@ -1,5 +1,6 @@
 package org.wikidata.history.sparql;
 
+import com.google.common.util.concurrent.Striped;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,10 +8,13 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 import java.util.zip.GZIPInputStream;
 
 public final class RocksRevisionLoader implements AutoCloseable {
@@ -19,6 +23,8 @@ public final class RocksRevisionLoader implements AutoCloseable {
 
   private final NumericValueFactory valueFactory;
   private final RocksStore store;
+  // The lines are loaded concurrently: the read-modify-write updates of the multiple values indexes are locked by key
+  private final Striped<Lock> keyLocks = Striped.lock(1024);
 
   public RocksRevisionLoader(Path path) {
     LOGGER.info("Loading revision data to " + path);
@@ -28,6 +34,13 @@ public final class RocksRevisionLoader implements AutoCloseable {
   }
 
   public void load(Path file) throws IOException {
+    load(List.of(file));
+  }
+
+  /**
+   * Loads the files concurrently
+   */
+  public void load(List<Path> files) throws IOException {
     RocksStore.Index<Long, Long> revisionDateOutput = store.revisionDateIndex();
     RocksStore.Index<Long, long[]> dateRevisionsOutput = store.dateRevisionsIndex();
     RocksStore.Index<Long, Long> parentRevisionOutput = store.parentRevisionIndex();
@@ -37,33 +50,42 @@ public final class RocksRevisionLoader implements AutoCloseable {
     RocksStore.Index<Long, String> revisionContributorOutput = store.revisionContributorIndex();
     RocksStore.Index<Map.Entry<String, Long>, Object> contributorRevisionsIndex = store.contributorRevisionsIndex();
 
-    try (BufferedReader reader = gzipReader(file)) {
-      reader.lines().parallel().forEach(line -> {
-        String[] parts = line.split("\t");
-        long revisionId = Long.parseLong(parts[0]);
-        long parentRevisionId = Long.parseLong(parts[1]);
-        long timestamp = Long.parseLong(parts[3]);
-        String contributor = parts[4];
-
-        if (parentRevisionId >= 0) {
-          parentRevisionOutput.put(revisionId, parentRevisionId);
-          childRevisionOutput.put(parentRevisionId, revisionId);
-        }
-
-        try {
-          long entity = valueFactory.encodeValue(valueFactory.createIRI(Vocabulary.WD_NAMESPACE, parts[2]));
-          revisionTopicOutput.put(revisionId, entity);
-          addToMultipleValuesIndex(topicRevisionsOutput, entity, revisionId);
-        } catch (NotSupportedValueException e) {
-          LOGGER.error(e.getMessage(), e);
+    try {
+      files.parallelStream().forEach(file -> {
+        LOGGER.info("Loading revisions from " + file);
+        try (BufferedReader reader = gzipReader(file)) {
+          reader.lines().parallel().forEach(line -> {
+            String[] parts = line.split("\t");
+            long revisionId = Long.parseLong(parts[0]);
+            long parentRevisionId = Long.parseLong(parts[1]);
+            long timestamp = Long.parseLong(parts[3]);
+            String contributor = parts[4];
+
+            if (parentRevisionId >= 0) {
+              parentRevisionOutput.put(revisionId, parentRevisionId);
+              childRevisionOutput.put(parentRevisionId, revisionId);
+            }
+
+            try {
+              long entity = valueFactory.encodeValue(valueFactory.createIRI(Vocabulary.WD_NAMESPACE, parts[2]));
+              revisionTopicOutput.put(revisionId, entity);
+              addToMultipleValuesIndex(topicRevisionsOutput, entity, revisionId);
+            } catch (NotSupportedValueException e) {
+              LOGGER.error(e.getMessage(), e);
+            }
+
+            revisionDateOutput.put(revisionId, timestamp);
+            addToMultipleValuesIndex(dateRevisionsOutput, timestamp, revisionId);
+
+            revisionContributorOutput.put(revisionId, contributor);
+            contributorRevisionsIndex.put(Pair.of(contributor, revisionId), null);
+          });
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
         }
-
-        revisionDateOutput.put(revisionId, timestamp);
-        addToMultipleValuesIndex(dateRevisionsOutput, timestamp, revisionId);
-
-        revisionContributorOutput.put(revisionId, contributor);
-        contributorRevisionsIndex.put(Pair.of(contributor, revisionId), null);
       });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
     }
 
     LOGGER.info("Compacting store");
@@ -75,10 +97,16 @@ public final class RocksRevisionLoader implements AutoCloseable {
   }
 
   private <K> void addToMultipleValuesIndex(RocksStore.Index<K, long[]> index, K key, long value) {
-    long[] otherValues = index.getOrDefault(key, EMPTY_ARRAY);
-    long[] allValues = Arrays.copyOfRange(otherValues, 0, otherValues.length + 1);
-    allValues[otherValues.length] = value;
-    index.put(key, allValues);
+    Lock lock = keyLocks.get(key);
+    lock.lock();
+    try {
+      long[] otherValues = index.getOrDefault(key, EMPTY_ARRAY);
+      long[] allValues = Arrays.copyOfRange(otherValues, 0, otherValues.length + 1);
+      allValues[otherValues.length] = value;
+      index.put(key, allValues);
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
@@ -2,21 +2,27 @@ package org.wikidata.history.sparql;
 
 import com.google.common.primitives.Longs;
 import com.google.common.primitives.Shorts;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.Striped;
 import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.rocksdb.*;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 public class RocksStore implements AutoCloseable {
   private static final byte[] STRING_COUNTER_NAME = "stringCounter".getBytes();
   private static final byte[] LANGUAGE_COUNTER_NAME = "languageCounter".getBytes();
+  private static final byte[] HIGH_WATER_REVISION_NAME = "highWaterRevision".getBytes();
   private static final byte[] ID_FOR_STR_COLUMN_NAME = "id4str".getBytes();
   private static final byte[] STR_FOR_ID_COLUMN_NAME = "str4id".getBytes();
   private static final byte[] ID_FOR_LANGUAGE_COLUMN_NAME = "id4lang".getBytes();
   private static final byte[] LANGUAGE_FOR_ID_COLUMN_NAME = "lang4id".getBytes();
+  private static final byte[] NODE_FOR_ID_COLUMN_NAME = "node4id".getBytes();
   private static final byte[] REVISION_DATE = "revision_date".getBytes();
   private static final byte[] DATE_REVISIONS = "date_revisions".getBytes();
   private static final byte[] PARENT_REVISION = "parent_revision".getBytes();
@@ -30,12 +36,15 @@ public class RocksStore implements AutoCloseable {
   private static final byte[] STATEMENT_OSP = "statement_osp".getBytes();
   private static final byte[] STATEMENT_INSERTED = "statement_inserted".getBytes();
   private static final byte[] STATEMENT_DELETED = "statement_deleted".getBytes();
+  private static final byte[] ENTITY_TIMELINE = "entity_timeline".getBytes();
+  private static final byte[] PREDICATE_ACTIVITY = "predicate_activity".getBytes();
   private static final byte[][] COLUMN_FAMILIES = new byte[][]{
           RocksDB.DEFAULT_COLUMN_FAMILY,
           ID_FOR_STR_COLUMN_NAME,
           STR_FOR_ID_COLUMN_NAME,
           ID_FOR_LANGUAGE_COLUMN_NAME,
           LANGUAGE_FOR_ID_COLUMN_NAME,
+          NODE_FOR_ID_COLUMN_NAME,
           REVISION_DATE,
           DATE_REVISIONS,
           PARENT_REVISION,
@@ -48,7 +57,9 @@ public class RocksStore implements AutoCloseable {
           STATEMENT_POS,
           STATEMENT_OSP,
           STATEMENT_INSERTED,
-          STATEMENT_DELETED
+          STATEMENT_DELETED,
+          ENTITY_TIMELINE,
+          PREDICATE_ACTIVITY
   };
   private static final byte[] EMPTY_ARRAY = new byte[]{};
 
@@ -59,7 +70,11 @@ public class RocksStore implements AutoCloseable {
   private final DBOptions options;
   private final RocksDB db;
 
+  /**
+   * @throws IllegalStateException if the index has been built by a previous version with other column families and so with another value encoding
+   */
   public RocksStore(Path dbPath, boolean readOnly) {
+    checkColumnFamilies(dbPath);
     columnFamilyOptions = new ColumnFamilyOptions()
             .optimizeUniversalStyleCompaction()
             .setCompressionType(CompressionType.LZ4HC_COMPRESSION)
@@ -92,10 +107,67 @@ public class RocksStore implements AutoCloseable {
 
     rStringStore = new RStringStore(db,
             columnFamilyHandles.get(STR_FOR_ID_COLUMN_NAME), columnFamilyHandles.get(ID_FOR_STR_COLUMN_NAME),
-            columnFamilyHandles.get(LANGUAGE_FOR_ID_COLUMN_NAME), columnFamilyHandles.get(ID_FOR_LANGUAGE_COLUMN_NAME));
+            columnFamilyHandles.get(LANGUAGE_FOR_ID_COLUMN_NAME), columnFamilyHandles.get(ID_FOR_LANGUAGE_COLUMN_NAME),
+            columnFamilyHandles.get(NODE_FOR_ID_COLUMN_NAME));
     rwStringStore = new RWStringStore(db,
             columnFamilyHandles.get(STR_FOR_ID_COLUMN_NAME), columnFamilyHandles.get(ID_FOR_STR_COLUMN_NAME),
-            columnFamilyHandles.get(LANGUAGE_FOR_ID_COLUMN_NAME), columnFamilyHandles.get(ID_FOR_LANGUAGE_COLUMN_NAME));
+            columnFamilyHandles.get(LANGUAGE_FOR_ID_COLUMN_NAME), columnFamilyHandles.get(ID_FOR_LANGUAGE_COLUMN_NAME),
+            columnFamilyHandles.get(NODE_FOR_ID_COLUMN_NAME));
+  }
+
+  private static void checkColumnFamilies(Path dbPath) {
+    if (!Files.exists(dbPath.resolve("CURRENT"))) {
+      return; // New store
+    }
+    List<byte[]> existing;
+    try (Options options = new Options()) {
+      existing = RocksDB.listColumnFamilies(options, dbPath.toString());
+    } catch (RocksDBException e) {
+      throw new RuntimeException(e);
+    }
+    List<String> missing = Arrays.stream(COLUMN_FAMILIES)
+            .filter(name -> existing.stream().noneMatch(existingName -> Arrays.equals(existingName, name)))
+            .map(String::new)
+            .collect(Collectors.toList());
+    if (!missing.isEmpty()) {
+      throw new IllegalStateException("The index " + dbPath + " has been built by a previous version without the column families " + missing + ", it should be rebuilt");
+    }
+    // Like the namespace tables of the indexes whose namespace ids depended on the loading order
+    List<String> unknown = existing.stream()
+            .filter(existingName -> Arrays.stream(COLUMN_FAMILIES).noneMatch(name -> Arrays.equals(existingName, name)))
+            .map(String::new)
+            .collect(Collectors.toList());
+    if (!unknown.isEmpty()) {
+      throw new IllegalStateException("The index " + dbPath + " has been built by a previous version with the column families " + unknown + ", it should be rebuilt");
+    }
+  }
+
+  /**
+   * Sequence number of the last write to the store
+   */
+  long getLatestSequenceNumber() {
+    return db.getLatestSequenceNumber();
+  }
+
+  /**
+   * @return the largest revision id whose triples have been loaded, -1 if nothing has been loaded yet.
+   * The next loads should only change the triple ranges after it.
+   */
+  public long getHighWaterRevisionId() {
+    try {
+      byte[] rawValue = db.get(HIGH_WATER_REVISION_NAME);
+      return rawValue == null ? -1 : Longs.fromByteArray(rawValue);
+    } catch (RocksDBException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  void setHighWaterRevisionId(long revisionId) {
+    try {
+      db.put(HIGH_WATER_REVISION_NAME, Longs.toByteArray(revisionId));
+    } catch (RocksDBException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   NumericValueFactory.StringStore getReadOnlyStringStore() {
@@ -158,6 +230,20 @@ public class RocksStore implements AutoCloseable {
     return newIndex(STATEMENT_DELETED, LONG_SERIALIZER, LONG_ARRAY_SERIALIZER);
   }
 
+  /**
+   * (entity, revision) to (timestamp, contributor string id, number of inserted triples, number of deleted triples)
+   */
+  Index<long[], long[]> entityTimelineIndex() {
+    return newIndex(ENTITY_TIMELINE, LONG_ARRAY_SERIALIZER, LONG_ARRAY_SERIALIZER);
+  }
+
+  /**
+   * (predicate, month start epoch second, contributor string id) to (number of inserted triples, number of deleted triples)
+   */
+  Index<long[], long[]> predicateActivityIndex() {
+    return newIndex(PREDICATE_ACTIVITY, LONG_ARRAY_SERIALIZER, LONG_ARRAY_SERIALIZER);
+  }
+
   private <K, V> Index<K, V> newIndex(byte[] columnName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
     return new Index<>(db, columnFamilyHandles.get(columnName), keySerializer, valueSerializer);
   }
@@ -221,6 +307,33 @@ public class RocksStore implements AutoCloseable {
       }
     }
 
+    /**
+     * @return the largest key of the index, null if it is empty. Only valid for indexes with non-negative long keys
+     */
+    K getLastKey() {
+      try (RocksIterator iterator = db.newIterator(columnFamilyHandle)) {
+        iterator.seekToLast();
+        iterator.status();
+        return iterator.isValid() ? keySerializer.deserialize(iterator.key()) : null;
+      } catch (RocksDBException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Removes all the keys of the index
+     */
+    void clear() {
+      try (RocksIterator iterator = db.newIterator(columnFamilyHandle)) {
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+          db.delete(columnFamilyHandle, iterator.key());
+        }
+        iterator.status();
+      } catch (RocksDBException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
     <E, X extends Exception> CloseableIteration<E, X> longPrefixIteration(long prefix, FailingKVMappingFunction<K, V, E, X> mappingFunction) {
       return prefixIteration(LONG_SERIALIZER.serialize(prefix), mappingFunction);
     }
@@ -234,11 +347,22 @@ public class RocksStore implements AutoCloseable {
     }
 
     <E, X extends Exception> CloseableIteration<E, X> prefixIteration(byte[] prefix, FailingKVMappingFunction<K, V, E, X> mappingFunction) {
+      return iteration(prefix, prefix, null, mappingFunction);
+    }
+
+    /**
+     * Iterates on the keys in [from, to). Only valid for indexes with non-negative long keys
+     */
+    <E, X extends Exception> CloseableIteration<E, X> longRangeIteration(long from, long to, FailingKVMappingFunction<K, V, E, X> mappingFunction) {
+      return iteration(LONG_SERIALIZER.serialize(from), EMPTY_ARRAY, LONG_SERIALIZER.serialize(to), mappingFunction);
+    }
+
+    private <E, X extends Exception> CloseableIteration<E, X> iteration(byte[] start, byte[] prefix, byte[] upperBound, FailingKVMappingFunction<K, V, E, X> mappingFunction) {
       try {
         RocksIterator iterator = db.newIterator(columnFamilyHandle);
-        iterator.seek(prefix);
+        iterator.seek(start);
         iterator.status();
-        return new RocksMappingIteration<>(iterator, prefix, keySerializer, valueSerializer, mappingFunction);
+        return new RocksMappingIteration<>(iterator, prefix, upperBound, keySerializer, valueSerializer, mappingFunction);
       } catch (RocksDBException e) {
         throw new RuntimeException(e);
       }
@@ -338,13 +462,15 @@ public class RocksStore implements AutoCloseable {
     protected final ColumnFamilyHandle idForStringColumnFamilyHandle;
     protected final ColumnFamilyHandle languageForIdColumnFamilyHandle;
     protected final ColumnFamilyHandle idForLanguageColumnFamilyHandle;
+    protected final ColumnFamilyHandle nodeForIdColumnFamilyHandle;
 
-    BasicStringStore(RocksDB db, ColumnFamilyHandle stringForIdColumnFamilyHandle, ColumnFamilyHandle idForStringColumnFamilyHandle, ColumnFamilyHandle languageForIdColumnFamilyHandle, ColumnFamilyHandle idForLanguageColumnFamilyHandle) {
+    BasicStringStore(RocksDB db, ColumnFamilyHandle stringForIdColumnFamilyHandle, ColumnFamilyHandle idForStringColumnFamilyHandle, ColumnFamilyHandle languageForIdColumnFamilyHandle, ColumnFamilyHandle idForLanguageColumnFamilyHandle, ColumnFamilyHandle nodeForIdColumnFamilyHandle) {
       this.db = db;
       this.stringForIdColumnFamilyHandle = stringForIdColumnFamilyHandle;
       this.idForStringColumnFamilyHandle = idForStringColumnFamilyHandle;
       this.languageForIdColumnFamilyHandle = languageForIdColumnFamilyHandle;
       this.idForLanguageColumnFamilyHandle = idForLanguageColumnFamilyHandle;
+      this.nodeForIdColumnFamilyHandle = nodeForIdColumnFamilyHandle;
     }
 
     @Override
@@ -367,14 +493,28 @@ public class RocksStore implements AutoCloseable {
       }
     }
 
+    @Override
+    public byte[] getNode(long id) {
+      try {
+        return db.get(nodeForIdColumnFamilyHandle, Longs.toByteArray(id));
+      } catch (RocksDBException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
     @Override
     public void close() {
     }
   }
 
   private static class RStringStore extends BasicStringStore {
-    RStringStore(RocksDB db, ColumnFamilyHandle stringForIdColumnFamilyHandle, ColumnFamilyHandle idForStringColumnFamilyHandle, ColumnFamilyHandle languageForIdColumnFamilyHandle, ColumnFamilyHandle idForLanguageColumnFamilyHandle) {
-      super(db, stringForIdColumnFamilyHandle, idForStringColumnFamilyHandle, languageForIdColumnFamilyHandle, idForLanguageColumnFamilyHandle);
+    RStringStore(RocksDB db, ColumnFamilyHandle stringForIdColumnFamilyHandle, ColumnFamilyHandle idForStringColumnFamilyHandle, ColumnFamilyHandle languageForIdColumnFamilyHandle, ColumnFamilyHandle idForLanguageColumnFamilyHandle, ColumnFamilyHandle nodeForIdColumnFamilyHandle) {
+      super(db, stringForIdColumnFamilyHandle, idForStringColumnFamilyHandle, languageForIdColumnFamilyHandle, idForLanguageColumnFamilyHandle, nodeForIdColumnFamilyHandle);
+    }
+
+    @Override
+    public byte[] putNode(long id, byte[] localName) {
+      return getNode(id);
     }
 
     @Override
@@ -401,8 +541,30 @@ public class RocksStore implements AutoCloseable {
   }
 
   private static class RWStringStore extends BasicStringStore {
-    RWStringStore(RocksDB db, ColumnFamilyHandle stringForIdColumnFamilyHandle, ColumnFamilyHandle idForStringColumnFamilyHandle, ColumnFamilyHandle languageForIdColumnFamilyHandle, ColumnFamilyHandle idForLanguageColumnFamilyHandle) {
-      super(db, stringForIdColumnFamilyHandle, idForStringColumnFamilyHandle, languageForIdColumnFamilyHandle, idForLanguageColumnFamilyHandle);
+    // The node ids are not allocated from a counter: the node writes are only locked by id
+    private final Striped<Lock> nodeLocks = Striped.lock(1024);
+
+    RWStringStore(RocksDB db, ColumnFamilyHandle stringForIdColumnFamilyHandle, ColumnFamilyHandle idForStringColumnFamilyHandle, ColumnFamilyHandle languageForIdColumnFamilyHandle, ColumnFamilyHandle idForLanguageColumnFamilyHandle, ColumnFamilyHandle nodeForIdColumnFamilyHandle) {
+      super(db, stringForIdColumnFamilyHandle, idForStringColumnFamilyHandle, languageForIdColumnFamilyHandle, idForLanguageColumnFamilyHandle, nodeForIdColumnFamilyHandle);
+    }
+
+    @Override
+    public byte[] putNode(long id, byte[] localName) {
+      Lock lock = nodeLocks.get(id);
+      lock.lock();
+      try {
+        byte[] key = Longs.toByteArray(id);
+        byte[] existing = db.get(nodeForIdColumnFamilyHandle, key);
+        if (existing != null) {
+          return existing;
+        }
+        db.put(nodeForIdColumnFamilyHandle, key, localName);
+        return localName;
+      } catch (RocksDBException e) {
+        throw new RuntimeException(e);
+      } finally {
+        lock.unlock();
+      }
     }
 
     @Override
@@ -455,14 +617,16 @@ public class RocksStore implements AutoCloseable {
   private static class RocksMappingIteration<K, V, E, X extends Exception> implements CloseableIteration<E, X> {
     private final RocksIterator iterator;
     private final byte[] prefix;
+    private final byte[] upperBound;
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private final FailingKVMappingFunction<K, V, E, X> mappingFunction;
 
 
-    private RocksMappingIteration(RocksIterator iterator, byte[] prefix, Serializer<K> keySerializer, Serializer<V> valueSerializer, FailingKVMappingFunction<K, V, E, X> mappingFunction) {
+    private RocksMappingIteration(RocksIterator iterator, byte[] prefix, byte[] upperBound, Serializer<K> keySerializer, Serializer<V> valueSerializer, FailingKVMappingFunction<K, V, E, X> mappingFunction) {
       this.iterator = iterator;
       this.prefix = prefix;
+      this.upperBound = upperBound;
       this.keySerializer = keySerializer;
       this.valueSerializer = valueSerializer;
       this.mappingFunction = mappingFunction;
@@ -470,7 +634,7 @@ public class RocksStore implements AutoCloseable {
 
     @Override
     public boolean hasNext() {
-      return iterator.isValid() && hasPrefix();
+      return iterator.isValid() && hasPrefix() && isBeforeUpperBound();
     }
 
     @Override
@@ -501,6 +665,10 @@ public class RocksStore implements AutoCloseable {
       return true;
     }
 
+    private boolean isBeforeUpperBound() {
+      return upperBound == null || UnsignedBytes.lexicographicalComparator().compare(iterator.key(), upperBound) < 0;
+    }
+
     @Override
     public void remove() {
       throw new UnsupportedOperationException();
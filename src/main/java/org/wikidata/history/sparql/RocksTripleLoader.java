@@ -1,5 +1,10 @@
 package org.wikidata.history.sparql;
 
+import com.google.common.util.concurrent.Striped;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import org.apache.commons.lang3.tuple.Pair;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Value;
@@ -11,33 +16,64 @@ import org.eclipse.rdf4j.rio.helpers.NTriplesUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
 import java.util.zip.GZIPInputStream;
 
 public final class RocksTripleLoader implements AutoCloseable {
   private static final Logger LOGGER = LoggerFactory.getLogger(RocksTripleLoader.class);
   private static final IRI SCHEMA_DESCRIPTION = SimpleValueFactory.getInstance().createIRI("http://schema.org/description");
   private static final IRI SCHEMA_ABOUT = SimpleValueFactory.getInstance().createIRI("http://schema.org/about");
+  private static final IRI WIKIBASE_WIKI_GROUP = SimpleValueFactory.getInstance().createIRI(Vocabulary.WB_NAMESPACE, "wikiGroup");
+  private static final long[] EMPTY_ARRAY = new long[]{};
+  private static final int MAX_IN_MEMORY_ACTIVITY_COUNTS = 10_000_000;
+  private static final ZonedDateTime EPOCH_MONTH = Instant.EPOCH.atZone(ZoneOffset.UTC);
+  private static final int ACTIVITY_CONTRIBUTOR_BITS = 48;
+  private static final int BATCH_SIZE = 10_000;
 
   private final RocksStore store;
-  private final Path countFile;
+  private final Path indexDirectory;
   private final boolean wdtOnly;
+  private final long highWaterRevisionId;
   private final NumericValueFactory valueFactory;
   private final RocksStore.Index<long[], long[]> spoIndex;
   private final RocksStore.Index<long[], long[]> posIndex;
   private final RocksStore.Index<long[], long[]> ospIndex;
   private final RocksStore.Index<Long, long[]> insertedStatement;
   private final RocksStore.Index<Long, long[]> deletedStatement;
+  private final ExecutorService parsers;
+  // Each triple is always updated by the same single threaded writer: only the updates of the revision triple lists are locked
+  private final ExecutorService[] writers;
+  // Bounds the number of batches read but not yet written, shared by all the loaded files
+  private final Semaphore inFlightBatches;
+  private final Striped<Lock> revisionLocks = Striped.lock(1024);
 
   public RocksTripleLoader(Path path, boolean wdtOnly) {
     store = new RocksStore(path, false);
-    countFile = path.resolve("triple-progress.txt");
+    indexDirectory = path;
     valueFactory = new NumericValueFactory(store.getReadWriteStringStore());
     spoIndex = store.spoStatementIndex();
     posIndex = store.posStatementIndex();
@@ -45,87 +81,201 @@ public final class RocksTripleLoader implements AutoCloseable {
     insertedStatement = store.insertedStatementIndex();
     deletedStatement = store.deletedStatementIndex();
     this.wdtOnly = wdtOnly;
+    highWaterRevisionId = store.getHighWaterRevisionId();
+
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    parsers = Executors.newFixedThreadPool(parallelism);
+    writers = new ExecutorService[parallelism];
+    for (int i = 0; i < writers.length; i++) {
+      writers[i] = Executors.newSingleThreadExecutor();
+    }
+    inFlightBatches = new Semaphore(2 * parallelism);
   }
 
   public void load(Path file) throws IOException {
+    load(List.of(file));
+  }
+
+  /**
+   * Loads the files concurrently.
+   * Each file is read by its own thread and the checkpoint of a file only records the triples of the batches that have been fully written.
+   * <p>
+   * If the store already contains triples, the files are expected to contain the triples of the pages changed after its high-water revision,
+   * with ranges starting at it if they were already there, like the ones written by an incremental preprocessing.
+   * The stored ranges of these triples that are open at the high-water revision are closed just after it and then merged with the loaded ones.
+   * <p>
+   * The checkpoints are removed once the load is done so that a later file with the same name is fully loaded.
+   */
+  public void load(List<Path> files) throws IOException {
     LOGGER.info("Loading triples");
     if (wdtOnly) {
       LOGGER.info("Loading only direct properties");
     }
-    loadTriples(file);
+    if (highWaterRevisionId >= 0) {
+      LOGGER.info("Updating the triples after revision " + highWaterRevisionId);
+    }
+    try {
+      files.parallelStream().forEach(file -> {
+        try {
+          loadTriples(file);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    LOGGER.info("Building entity timelines");
+    buildEntityTimelines();
+
+    LOGGER.info("Building predicate activity");
+    buildPredicateActivity();
+
+    Long lastRevisionId = store.revisionDateIndex().getLastKey();
+    if (lastRevisionId != null && lastRevisionId > highWaterRevisionId) {
+      store.setHighWaterRevisionId(lastRevisionId);
+    }
 
     LOGGER.info("Compacting store");
     store.compact();
+
+    for (Path file : files) {
+      Files.deleteIfExists(checkpointFile(file));
+    }
+  }
+
+  private Path checkpointFile(Path file) {
+    return indexDirectory.resolve("triple-progress-" + file.getFileName() + ".txt");
   }
 
   private BufferedReader gzipReader(Path path) throws IOException {
     return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(path))));
   }
 
+  /**
+   * The lines are read by the calling thread in batches that are parsed and encoded by {@link #parsers} and then applied by {@link #writers}
+   */
   private void loadTriples(Path path) throws IOException {
-    long start = 0;
-    try {
-      start = Long.parseLong(new String(Files.readAllBytes(countFile)).trim());
-    } catch (IOException e) {
-      LOGGER.error(e.getMessage(), e);
+    LOGGER.info("Loading triples from " + path);
+    LoadingCheckpoint checkpoint = new LoadingCheckpoint(checkpointFile(path), path);
+    BatchSubmitter submitter = new BatchSubmitter(checkpoint);
+    if (path.getFileName().toString().endsWith(BinaryTripleFormat.FILE_EXTENSION)) {
+      loadBinaryTriples(path, submitter);
+      return;
     }
 
-    AtomicLong done = new AtomicLong(start);
     try (BufferedReader reader = gzipReader(path)) {
-      // We skip the lines we have to skip
-      for (long i = 0; i < start; i++) {
-        reader.readLine();
+      // We skip the lines already loaded
+      long position = 0;
+      while (position < checkpoint.getStart() && reader.readLine() != null) {
+        position++;
       }
 
-      reader.lines().parallel().peek(line -> {
-        long count = done.getAndIncrement();
-        if (count % 1_000_000 == 0) {
-          try {
-            Files.write(countFile, Long.toString(count).getBytes());
-          } catch (IOException e) {
-            LOGGER.error(e.getMessage(), e);
-          }
-          LOGGER.info(count + " triples imported");
+      List<String> lines = new ArrayList<>(BATCH_SIZE);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+        position++;
+        if (lines.size() == BATCH_SIZE) {
+          submitter.submit(parseLines(lines), position);
+          lines = new ArrayList<>(BATCH_SIZE);
         }
-      }).forEach(line -> {
-        String[] parts = line.split("\t");
-        try {
-          long[] revisionIds = Arrays.stream(parts[3].split(" ")).mapToLong(Long::parseLong).toArray();
-          if (!LongRangeUtils.isSorted(revisionIds)) {
-            LOGGER.error("the revision ranges are not sorted: " + Arrays.toString(revisionIds));
-          }
-          Resource subject = NTriplesUtil.parseResource(parts[0], valueFactory);
-          IRI predicate = NTriplesUtil.parseURI(parts[1], valueFactory);
-          Value object = NTriplesUtil.parseValue(parts[2], valueFactory);
-          if (wdtOnly && !(OWL.SAMEAS.equals(predicate) || RDFS.LABEL.equals(predicate) || SCHEMA_DESCRIPTION.equals(predicate) || SKOS.ALT_LABEL.equals(predicate) || SCHEMA_ABOUT.equals(predicate) || Vocabulary.WDT_NAMESPACE.equals(predicate.getNamespace()))) {
-            return;
-          }
-          addTriple(
-                  valueFactory.encodeValue(subject),
-                  valueFactory.encodeValue(predicate),
-                  valueFactory.encodeValue(object),
-                  revisionIds
-          );
-        } catch (NotSupportedValueException e) {
-          // We ignore it for now
-        } catch (Exception e) {
-          LOGGER.error(e.getMessage(), e);
-        }
-      });
+      }
+      if (!lines.isEmpty()) {
+        submitter.submit(parseLines(lines), position);
+      }
     }
+    submitter.finish();
   }
 
-  private void addTriple(long subject, long predicate, long object, long[] range) {
+  private CompletableFuture<EncodedTriples> parseLines(List<String> lines) {
+    return CompletableFuture.supplyAsync(() -> {
+      EncodedTriples triples = new EncodedTriples(lines.size());
+      for (String line : lines) {
+        parseLine(line, triples);
+      }
+      return triples;
+    }, parsers);
+  }
+
+  private void parseLine(String line, EncodedTriples output) {
+    String[] parts = line.split("\t");
+    try {
+      long[] revisionIds = Arrays.stream(parts[3].split(" ")).mapToLong(Long::parseLong).toArray();
+      if (!LongRangeUtils.isSorted(revisionIds)) {
+        LOGGER.error("the revision ranges are not sorted: " + Arrays.toString(revisionIds));
+      }
+      Resource subject = NTriplesUtil.parseResource(parts[0], valueFactory);
+      IRI predicate = NTriplesUtil.parseURI(parts[1], valueFactory);
+      Value object = NTriplesUtil.parseValue(parts[2], valueFactory);
+      if (!isLoadedPredicate(predicate)) {
+        return;
+      }
+      output.add(
+              valueFactory.encodeValue(subject),
+              valueFactory.encodeValue(predicate),
+              valueFactory.encodeValue(object),
+              revisionIds,
+              isSharedSubject(subject) || isSharedPredicate(predicate)
+      );
+    } catch (NotSupportedValueException e) {
+      // We ignore it for now
+    } catch (Exception e) {
+      LOGGER.error(e.getMessage(), e);
+    }
+  }
+
+  private void loadBinaryTriples(Path path, BatchSubmitter submitter) throws IOException {
+    BinaryTriplesBatcher batcher = new BinaryTriplesBatcher(submitter);
+    try (InputStream input = new BufferedInputStream(Files.newInputStream(path))) {
+      BinaryTripleFormat.read(input, valueFactory, batcher);
+      batcher.flush();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    submitter.finish();
+  }
+
+  private boolean isLoadedPredicate(IRI predicate) {
+    return !wdtOnly || OWL.SAMEAS.equals(predicate) || RDFS.LABEL.equals(predicate) || SCHEMA_DESCRIPTION.equals(predicate) || SKOS.ALT_LABEL.equals(predicate) || SCHEMA_ABOUT.equals(predicate) || Vocabulary.WDT_NAMESPACE.equals(predicate.getNamespace());
+  }
+
+  /**
+   * The value and reference nodes are shared between entities
+   */
+  private static boolean isSharedSubject(Value subject) {
+    if (!(subject instanceof IRI)) {
+      return false;
+    }
+    String namespace = ((IRI) subject).getNamespace();
+    return Vocabulary.WDV_NAMESPACE.equals(namespace) || Vocabulary.WDREF_NAMESPACE.equals(namespace);
+  }
+
+  /**
+   * The site nodes are shared between entities
+   */
+  private static boolean isSharedPredicate(IRI predicate) {
+    return WIKIBASE_WIKI_GROUP.equals(predicate);
+  }
+
+  /**
+   * @param sharedNode if the triple might come from several entities. Its range is then never closed by a load:
+   *                   the entities not reloaded might still contain it.
+   */
+  private void addTriple(long subject, long predicate, long object, long[] range, boolean sharedNode) {
     if (range == null) {
       throw new IllegalArgumentException("Triple without revision range");
     }
-    long[] spoTriple = new long[]{subject, predicate, object};
-    long[] posTriple = new long[]{predicate, object, subject};
-    long[] ospTriple = new long[]{object, subject, predicate};
+    addTriple(new long[]{subject, predicate, object}, new long[]{predicate, object, subject}, new long[]{object, subject, predicate}, range, sharedNode);
+  }
 
+  private void addTriple(long[] spoTriple, long[] posTriple, long[] ospTriple, long[] range, boolean sharedNode) {
     long[] existingRange = spoIndex.get(spoTriple);
     if (existingRange != null) {
-      range = LongRangeUtils.union(existingRange, range);
+      // If the triple is still there after the high-water revision, the loaded range continues the closed one
+      long[] previousRange = sharedNode ? existingRange : LongRangeUtils.closeOpenInterval(existingRange, highWaterRevisionId + 1);
+      range = LongRangeUtils.union(previousRange, range);
     }
     spoIndex.put(spoTriple, range);
     posIndex.put(posTriple, range);
@@ -152,27 +302,368 @@ public final class RocksTripleLoader implements AutoCloseable {
     }
   }
 
-  private static void addToStatementListIndex(RocksStore.Index<Long, long[]> index, long key, long[] triple) {
-    long[] existingTriples = index.get(key);
-    long[] newTriples = (existingTriples == null) ? triple : TripleArrayUtils.addToSortedArray(existingTriples, triple);
-    if (newTriples != existingTriples) {
-      index.put(key, newTriples);
+  /**
+   * Joins the revision metadata with the sizes of the revision triple lists so that an entity timeline is a single prefix scan.
+   * Only the revisions after the high-water revision are added by an incremental load.
+   */
+  private void buildEntityTimelines() {
+    RocksStore.Index<Long, Long> revisionDate = store.revisionDateIndex();
+    RocksStore.Index<Long, String> revisionContributor = store.revisionContributorIndex();
+    RocksStore.Index<long[], long[]> entityTimeline = store.entityTimelineIndex();
+
+    long count = 0;
+    try (CloseableIteration<Map.Entry<Long, Long>, RuntimeException> revisionTopics = store.revisionTopicIndex().longRangeIteration(highWaterRevisionId + 1, Long.MAX_VALUE, Pair::of)) {
+      while (revisionTopics.hasNext()) {
+        Map.Entry<Long, Long> entry = revisionTopics.next();
+        long revision = entry.getKey();
+        entityTimeline.put(new long[]{entry.getValue(), revision}, new long[]{
+                revisionDate.getOrDefault(revision, -1L),
+                contributorId(revisionContributor, revision),
+                insertedStatement.getOrDefault(revision, EMPTY_ARRAY).length / 3,
+                deletedStatement.getOrDefault(revision, EMPTY_ARRAY).length / 3
+        });
+        count++;
+        if (count % 1_000_000 == 0) {
+          LOGGER.info(count + " revisions added to the entity timelines");
+        }
+      }
     }
   }
 
-  private static void removeFromStatementListIndex(RocksStore.Index<Long, long[]> index, long key, long[] triple) {
-    long[] existingTriples = index.get(key);
-    if (existingTriples == null) {
-      return;
+  /**
+   * Counts the triples added and removed per (predicate, month, contributor) to answer edit analytics with a prefix scan.
+   * An incremental load adds the counts of the revisions after the high-water revision to the existing ones.
+   */
+  private void buildPredicateActivity() {
+    RocksStore.Index<Long, Long> revisionDate = store.revisionDateIndex();
+    RocksStore.Index<Long, String> revisionContributor = store.revisionContributorIndex();
+    RocksStore.Index<long[], long[]> predicateActivity = store.predicateActivityIndex();
+    if (highWaterRevisionId < 0) {
+      predicateActivity.clear(); // The counts of an interrupted full load
+    }
+
+    // The counts are aggregated in memory by predicate then by packed (month, contributor) and added to the index when there are too many of them
+    LongObjectHashMap<LongObjectHashMap<long[]>> counts = new LongObjectHashMap<>();
+    int countsSize = 0;
+    for (int column = 0; column < 2; column++) {
+      RocksStore.Index<Long, long[]> tripleLists = (column == 0) ? insertedStatement : deletedStatement;
+      try (CloseableIteration<Map.Entry<Long, long[]>, RuntimeException> revisions = tripleLists.longRangeIteration(highWaterRevisionId + 1, Long.MAX_VALUE, Pair::of)) {
+        while (revisions.hasNext()) {
+          Map.Entry<Long, long[]> entry = revisions.next();
+          Long date = revisionDate.get(entry.getKey());
+          if (date == null) {
+            continue;
+          }
+          long monthContributor = packMonthContributor(
+                  ChronoUnit.MONTHS.between(EPOCH_MONTH, Instant.ofEpochSecond(date).atZone(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1)),
+                  contributorId(revisionContributor, entry.getKey())
+          );
+          long[] triples = entry.getValue();
+          for (int i = 0; i < triples.length; i += 3) {
+            LongObjectHashMap<long[]> predicateCounts = counts.getIfAbsentPut(triples[i + 1], LongObjectHashMap::new);
+            long[] value = predicateCounts.get(monthContributor);
+            if (value == null) {
+              value = new long[2];
+              predicateCounts.put(monthContributor, value);
+              countsSize++;
+            }
+            value[column]++;
+          }
+          if (countsSize > MAX_IN_MEMORY_ACTIVITY_COUNTS) {
+            addToPredicateActivity(predicateActivity, counts);
+            countsSize = 0;
+          }
+        }
+      }
     }
-    long[] newTriples = TripleArrayUtils.removeFromSortedArray(existingTriples, triple);
-    if (newTriples != existingTriples) {
-      index.put(key, newTriples);
+    addToPredicateActivity(predicateActivity, counts);
+  }
+
+  private static long packMonthContributor(long month, long contributor) {
+    // contributor is -1 if unknown
+    if (month < 0 || month >= (1L << (64 - ACTIVITY_CONTRIBUTOR_BITS - 1)) || contributor + 1 >= (1L << ACTIVITY_CONTRIBUTOR_BITS)) {
+      throw new IllegalStateException("Not able to pack the activity month " + month + " and contributor " + contributor);
+    }
+    return (month << ACTIVITY_CONTRIBUTOR_BITS) | (contributor + 1);
+  }
+
+  private static void addToPredicateActivity(RocksStore.Index<long[], long[]> predicateActivity, LongObjectHashMap<LongObjectHashMap<long[]>> counts) {
+    counts.forEachKeyValue((predicate, predicateCounts) -> predicateCounts.forEachKeyValue((monthContributor, value) -> {
+      long month = EPOCH_MONTH.plusMonths(monthContributor >>> ACTIVITY_CONTRIBUTOR_BITS).toEpochSecond();
+      long contributor = (monthContributor & ((1L << ACTIVITY_CONTRIBUTOR_BITS) - 1)) - 1;
+      long[] rawKey = new long[]{predicate, month, contributor};
+      long[] existing = predicateActivity.get(rawKey);
+      if (existing != null) {
+        value[0] += existing[0];
+        value[1] += existing[1];
+      }
+      predicateActivity.put(rawKey, value);
+    }));
+    counts.clear();
+  }
+
+  /**
+   * @return the string id of the revision contributor or -1 if unknown
+   */
+  private long contributorId(RocksStore.Index<Long, String> revisionContributor, long revision) {
+    String contributor = revisionContributor.get(revision);
+    Long contributorId = (contributor == null) ? null : store.getReadWriteStringStore().putString(contributor);
+    return (contributorId == null) ? -1 : contributorId;
+  }
+
+  private void addToStatementListIndex(RocksStore.Index<Long, long[]> index, long key, long[] triple) {
+    Lock lock = revisionLocks.get(key);
+    lock.lock();
+    try {
+      long[] existingTriples = index.get(key);
+      long[] newTriples = (existingTriples == null) ? triple : TripleArrayUtils.addToSortedArray(existingTriples, triple);
+      if (newTriples != existingTriples) {
+        index.put(key, newTriples);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void removeFromStatementListIndex(RocksStore.Index<Long, long[]> index, long key, long[] triple) {
+    Lock lock = revisionLocks.get(key);
+    lock.lock();
+    try {
+      long[] existingTriples = index.get(key);
+      if (existingTriples == null) {
+        return;
+      }
+      long[] newTriples = TripleArrayUtils.removeFromSortedArray(existingTriples, triple);
+      if (newTriples != existingTriples) {
+        index.put(key, newTriples);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * A batch of encoded triples
+   */
+  private static final class EncodedTriples {
+    private final LongArrayList ids;
+    private final List<long[]> ranges;
+    private final BitSet sharedNodes = new BitSet();
+
+    private EncodedTriples(int capacity) {
+      ids = new LongArrayList(3 * capacity);
+      ranges = new ArrayList<>(capacity);
+    }
+
+    void add(long subject, long predicate, long object, long[] range, boolean sharedNode) {
+      if (sharedNode) {
+        sharedNodes.set(ranges.size());
+      }
+      ids.add(subject);
+      ids.add(predicate);
+      ids.add(object);
+      ranges.add(range);
+    }
+
+    int size() {
+      return ranges.size();
+    }
+
+    /**
+     * All the updates of a triple are done by the same writer
+     */
+    int writer(int i, int writerCount) {
+      int hash = Long.hashCode(ids.get(3 * i));
+      hash = 31 * hash + Long.hashCode(ids.get(3 * i + 1));
+      hash = 31 * hash + Long.hashCode(ids.get(3 * i + 2));
+      return Math.floorMod(hash, writerCount);
+    }
+  }
+
+  /**
+   * Sends the batches of a file to the writers and commits them into the file checkpoint when they are fully applied.
+   * The number of batches in flight of all the files is bounded by {@link #inFlightBatches} so that the reading does not outpace the writing.
+   */
+  private final class BatchSubmitter {
+    private final LoadingCheckpoint checkpoint;
+    // The batches of the file not yet written are the registered parties
+    private final Phaser pendingBatches = new Phaser(1);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private long nextBatch = 0;
+
+    private BatchSubmitter(LoadingCheckpoint checkpoint) {
+      this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @param end the number of items in the loaded file at the end of the batch
+     */
+    void submit(CompletableFuture<EncodedTriples> batch, long end) throws IOException {
+      checkFailure();
+      try {
+        inFlightBatches.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      pendingBatches.register();
+      long batchIndex = nextBatch++;
+      batch.thenCompose(this::write).whenComplete((result, e) -> {
+        if (e == null) {
+          checkpoint.commit(batchIndex, end);
+        } else {
+          failure.compareAndSet(null, e);
+        }
+        inFlightBatches.release();
+        pendingBatches.arriveAndDeregister();
+      });
+    }
+
+    private CompletableFuture<Void> write(EncodedTriples batch) {
+      // The triples are partitioned between the writers
+      int[][] partitions = new int[writers.length][];
+      int[] partitionSizes = new int[writers.length];
+      int[] tripleWriters = new int[batch.size()];
+      for (int i = 0; i < batch.size(); i++) {
+        tripleWriters[i] = batch.writer(i, writers.length);
+        partitionSizes[tripleWriters[i]]++;
+      }
+      for (int w = 0; w < writers.length; w++) {
+        partitions[w] = new int[partitionSizes[w]];
+        partitionSizes[w] = 0;
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        partitions[tripleWriters[i]][partitionSizes[tripleWriters[i]]++] = i;
+      }
+
+      List<CompletableFuture<Void>> writes = new ArrayList<>(writers.length);
+      for (int w = 0; w < writers.length; w++) {
+        if (partitions[w].length > 0) {
+          int[] partition = partitions[w];
+          writes.add(CompletableFuture.runAsync(() -> write(batch, partition), writers[w]));
+        }
+      }
+      return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void write(EncodedTriples batch, int[] triples) {
+      for (int i : triples) {
+        try {
+          addTriple(batch.ids.get(3 * i), batch.ids.get(3 * i + 1), batch.ids.get(3 * i + 2), batch.ranges.get(i), batch.sharedNodes.get(i));
+        } catch (Exception e) {
+          LOGGER.error(e.getMessage(), e);
+        }
+      }
+    }
+
+    /**
+     * Waits for all the batches to be applied
+     */
+    void finish() throws IOException {
+      try {
+        pendingBatches.awaitAdvanceInterruptibly(pendingBatches.arrive());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      checkFailure();
+      checkpoint.finish();
+    }
+
+    private void checkFailure() throws IOException {
+      Throwable e = failure.get();
+      if (e != null) {
+        throw new IOException("The loading of the triples failed after " + checkpoint.getCommitted() + " committed items", e);
+      }
+    }
+  }
+
+  /**
+   * Encodes the terms of a binary file as they are read and gathers its triples into batches
+   */
+  private final class BinaryTriplesBatcher implements BinaryTripleFormat.Handler {
+    private final BatchSubmitter submitter;
+    private final long start;
+    private final LongArrayList termIds = new LongArrayList();
+    private final BitSet loadedPredicates = new BitSet();
+    private final BitSet sharedSubjects = new BitSet();
+    private final BitSet sharedPredicates = new BitSet();
+    private long position = 0;
+    private EncodedTriples batch = new EncodedTriples(BATCH_SIZE);
+    private int batchItems = 0;
+
+    private BinaryTriplesBatcher(BatchSubmitter submitter) {
+      this.submitter = submitter;
+      start = submitter.checkpoint.getStart();
+    }
+
+    @Override
+    public void term(Value term) {
+      if (term instanceof IRI && isLoadedPredicate((IRI) term)) {
+        loadedPredicates.set(termIds.size());
+      }
+      if (term instanceof IRI && isSharedPredicate((IRI) term)) {
+        sharedPredicates.set(termIds.size());
+      }
+      if (isSharedSubject(term)) {
+        sharedSubjects.set(termIds.size());
+      }
+      try {
+        termIds.add(valueFactory.encodeValue(term));
+      } catch (NotSupportedValueException e) {
+        termIds.add(-1);
+      }
+    }
+
+    @Override
+    public void reset() {
+      termIds.clear();
+      loadedPredicates.clear();
+      sharedSubjects.clear();
+      sharedPredicates.clear();
+    }
+
+    @Override
+    public void triple(int subject, int predicate, int object, long[] revisionIds) {
+      position++;
+      if (position <= start) {
+        return; // Already loaded
+      }
+      if (!LongRangeUtils.isSorted(revisionIds)) {
+        LOGGER.error("the revision ranges are not sorted: " + Arrays.toString(revisionIds));
+      }
+      long subjectId = termIds.get(subject);
+      long predicateId = termIds.get(predicate);
+      long objectId = termIds.get(object);
+      if (subjectId != -1 && predicateId != -1 && objectId != -1 && loadedPredicates.get(predicate)) {
+        batch.add(subjectId, predicateId, objectId, revisionIds, sharedSubjects.get(subject) || sharedPredicates.get(predicate));
+      }
+      batchItems++;
+      if (batchItems == BATCH_SIZE) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (batchItems == 0) {
+        return;
+      }
+      try {
+        submitter.submit(CompletableFuture.completedFuture(batch), position);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      batch = new EncodedTriples(BATCH_SIZE);
+      batchItems = 0;
     }
   }
 
   @Override
   public void close() {
+    parsers.shutdown();
+    for (ExecutorService writer : writers) {
+      writer.shutdown();
+    }
     valueFactory.close();
     store.close();
   }
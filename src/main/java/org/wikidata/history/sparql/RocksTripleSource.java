@@ -1,18 +1,29 @@
 package org.wikidata.history.sparql;
 
 
+import org.eclipse.collections.api.set.primitive.ImmutableLongSet;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongLongHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
 import org.eclipse.rdf4j.common.iteration.*;
 import org.eclipse.rdf4j.model.*;
 import org.eclipse.rdf4j.model.vocabulary.XSD;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -20,6 +31,15 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
   private static final Logger LOGGER = LoggerFactory.getLogger("tripleSource");
   private static final CloseableIteration<Statement, QueryEvaluationException> EMPTY_ITERATION = new EmptyIteration<>();
   private static final long[] EMPTY_ARRAY = new long[]{};
+  /**
+   * Maximal number of revision ids between the two sides of a diff for which it is computed from the statement_inserted/statement_deleted lists.
+   * Larger diffs are computed by scanning the pattern prefix in the statement indexes.
+   */
+  private static final long MAX_WALKED_DIFF_WINDOW = 100_000;
+  private static final TripleListLoader DIRECT_TRIPLE_LIST_LOADER = (index, revisionId) -> {
+    long[] triples = index.get(revisionId);
+    return (triples == null) ? null : new TripleList(triples, false);
+  };
 
   private final RocksStore store;
   private final RocksStore.Index<Long, Long> revisionDateIndex;
@@ -35,7 +55,10 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
   private final RocksStore.Index<long[], long[]> ospStatementIndex;
   private final RocksStore.Index<Long, long[]> insertedStatementIndex;
   private final RocksStore.Index<Long, long[]> deletedStatementIndex;
+  private final RocksStore.Index<long[], long[]> entityTimelineIndex;
+  private final RocksStore.Index<long[], long[]> predicateActivityIndex;
   private final NumericValueFactory valueFactory;
+  private final TransitiveClosureComputer closureComputer;
   private final Map<IRI, MagicPredicate> magicPredicates = new HashMap<>();
 
   public RocksTripleSource(Path path) {
@@ -53,7 +76,10 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
     ospStatementIndex = store.ospStatementIndex();
     insertedStatementIndex = store.insertedStatementIndex();
     deletedStatementIndex = store.deletedStatementIndex();
+    entityTimelineIndex = store.entityTimelineIndex();
+    predicateActivityIndex = store.predicateActivityIndex();
     valueFactory = new NumericValueFactory(store.getReadOnlyStringStore());
+    closureComputer = new TransitiveClosureComputer(spoStatementIndex, posStatementIndex);
     registerMagicPredicates();
   }
 
@@ -68,6 +94,249 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
     return valueFactory;
   }
 
+  /**
+   * Identifier of the index content: it changes each time data is loaded into the index
+   */
+  public long getLoadGeneration() {
+    return store.getLatestSequenceNumber();
+  }
+
+  /**
+   * Encoded nodes reachable from start with a path of length at least 1 of predicate in the global state at revisionId
+   */
+  ImmutableLongSet getReachableNodes(long start, long predicate, long revisionId, boolean inverse) {
+    return closureComputer.closure(start, predicate, revisionId, inverse);
+  }
+
+  /**
+   * Number of triples matching the pattern at the end of each time bucket, from the first to the last bucket with a change.
+   * <p>
+   * It is computed with a single scan of the pattern prefix in statement_spo or statement_pos:
+   * each [start, end) range becomes a +1 event at its start revision and a -1 event at its end revision, the events are then summed per bucket using the revision dates.
+   *
+   * @param subject    null to match all subjects
+   * @param object     null to match all objects
+   * @param bucketUnit {@link ChronoUnit#DAYS}, {@link ChronoUnit#MONTHS} or {@link ChronoUnit#YEARS}
+   */
+  public SortedMap<Instant, Long> getTripleCountHistogram(Resource subject, IRI predicate, Value object, ChronoUnit bucketUnit) {
+    long[] prefix;
+    RocksStore.Index<long[], long[]> index;
+    try {
+      if (subject != null) {
+        index = spoStatementIndex;
+        prefix = (object == null)
+                ? new long[]{valueFactory.encodeValue(subject), valueFactory.encodeValue(predicate)}
+                : new long[]{valueFactory.encodeValue(subject), valueFactory.encodeValue(predicate), valueFactory.encodeValue(object)};
+      } else {
+        index = posStatementIndex;
+        prefix = (object == null)
+                ? new long[]{valueFactory.encodeValue(predicate)}
+                : new long[]{valueFactory.encodeValue(predicate), valueFactory.encodeValue(object)};
+      }
+    } catch (NotSupportedValueException e) {
+      return new TreeMap<>(); // The value is not in the store: there is no matching triple
+    }
+
+    LongLongHashMap revisionDeltas = new LongLongHashMap();
+    try (CloseableIteration<long[], RuntimeException> ranges = index.longPrefixIteration(prefix, (triple, revisions) -> revisions)) {
+      while (ranges.hasNext()) {
+        long[] revisions = ranges.next();
+        for (int i = 0; i < revisions.length; i += 2) {
+          revisionDeltas.addToValue(revisions[i], 1);
+          if (revisions[i + 1] != Long.MAX_VALUE) {
+            revisionDeltas.addToValue(revisions[i + 1], -1);
+          }
+        }
+      }
+    }
+
+    TreeMap<Instant, Long> bucketDeltas = new TreeMap<>();
+    long revisionsWithoutDate = 0;
+    for (long revision : revisionDeltas.keysView().toSortedArray()) {
+      Long date = revisionDateIndex.get(revision);
+      if (date == null) {
+        revisionsWithoutDate++;
+      } else {
+        bucketDeltas.merge(bucketStart(Instant.ofEpochSecond(date), bucketUnit), revisionDeltas.get(revision), Long::sum);
+      }
+    }
+    if (revisionsWithoutDate > 0) {
+      LOGGER.warn(revisionsWithoutDate + " revisions without date have been ignored in the histogram computation");
+    }
+
+    TreeMap<Instant, Long> histogram = new TreeMap<>();
+    if (bucketDeltas.isEmpty()) {
+      return histogram;
+    }
+    long count = 0;
+    for (Instant bucket = bucketDeltas.firstKey(); !bucket.isAfter(bucketDeltas.lastKey()); bucket = nextBucketStart(bucket, bucketUnit)) {
+      count += bucketDeltas.getOrDefault(bucket, 0L);
+      histogram.put(bucket, count);
+    }
+    return histogram;
+  }
+
+  /**
+   * The last revision of the entity done at or before the given date
+   *
+   * @return empty if the entity did not exist yet
+   */
+  public OptionalLong getEntityRevisionAt(Resource entity, Instant date) {
+    long[] revisions;
+    try {
+      revisions = topicRevisionsIndex.get(valueFactory.encodeValue(entity));
+    } catch (NotSupportedValueException e) {
+      return OptionalLong.empty();
+    }
+    if (revisions == null) {
+      return OptionalLong.empty();
+    }
+    revisions = revisions.clone();
+    Arrays.sort(revisions);
+
+    // The revisions of an entity are done in increasing revision id order: we look for the last one done before the date
+    long timestamp = date.getEpochSecond();
+    int low = 0;
+    int high = revisions.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      Long revisionDate = revisionDateIndex.get(revisions[middle]);
+      if (revisionDate != null && revisionDate <= timestamp) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return (low == 0) ? OptionalLong.empty() : OptionalLong.of(revisions[low - 1]);
+  }
+
+  /**
+   * The revisions of the entity in increasing id order, read with a single prefix scan of entity_timeline
+   */
+  public List<EntityRevision> getEntityTimeline(Resource entity) {
+    long[] prefix;
+    try {
+      prefix = new long[]{valueFactory.encodeValue(entity)};
+    } catch (NotSupportedValueException e) {
+      return Collections.emptyList();
+    }
+    NumericValueFactory.StringStore stringStore = store.getReadOnlyStringStore();
+    List<EntityRevision> timeline = new ArrayList<>();
+    try (CloseableIteration<EntityRevision, RuntimeException> revisions = entityTimelineIndex.longPrefixIteration(prefix, (key, value) -> new EntityRevision(
+            key[1],
+            (value[0] == -1) ? null : Instant.ofEpochSecond(value[0]),
+            (value[1] == -1) ? null : stringStore.getString(value[1]),
+            value[2],
+            value[3]
+    ))) {
+      while (revisions.hasNext()) {
+        timeline.add(revisions.next());
+      }
+    }
+    return timeline;
+  }
+
+  /**
+   * Number of triples with the predicate added and removed per month and contributor, ordered by month, read with a single prefix scan of predicate_activity
+   *
+   * @param contributor null to return all contributors
+   */
+  public List<PredicateActivity> getPredicateActivity(IRI predicate, String contributor) {
+    long[] prefix;
+    try {
+      prefix = new long[]{valueFactory.encodeValue(predicate)};
+    } catch (NotSupportedValueException e) {
+      return Collections.emptyList();
+    }
+    NumericValueFactory.StringStore stringStore = store.getReadOnlyStringStore();
+    Long contributorId = (contributor == null) ? null : stringStore.putString(contributor);
+    if (contributor != null && contributorId == null) {
+      return Collections.emptyList(); // Unknown contributor
+    }
+    List<PredicateActivity> activity = new ArrayList<>();
+    try (CloseableIteration<PredicateActivity, RuntimeException> counts = predicateActivityIndex.longPrefixIteration(prefix, (key, value) ->
+            (contributorId == null || key[2] == contributorId)
+                    ? new PredicateActivity(Instant.ofEpochSecond(key[1]), (key[2] == -1) ? null : stringStore.getString(key[2]), value[0], value[1])
+                    : null
+    )) {
+      while (counts.hasNext()) {
+        PredicateActivity count = counts.next();
+        if (count != null) {
+          activity.add(count);
+        }
+      }
+    }
+    return activity;
+  }
+
+  /**
+   * Sends to the handler the triples describing the entity in the global state at revisionId:
+   * the triples with the entity as subject and the ones of the statement, value, reference and blank nodes they link to.
+   * <p>
+   * Each node is read with a single seek in statement_spo.
+   */
+  public void exportEntityState(Resource entity, long revisionId, RDFHandler handler) throws RDFHandlerException {
+    long start;
+    try {
+      start = valueFactory.encodeValue(entity);
+    } catch (NotSupportedValueException e) {
+      return; // Not in the store
+    }
+
+    handler.startRDF();
+    LongHashSet visited = LongHashSet.newSetWith(start);
+    LongArrayList toVisit = LongArrayList.newListWith(start);
+    while (!toVisit.isEmpty()) {
+      long subject = toVisit.removeAtIndex(toVisit.size() - 1);
+      try (CloseableIteration<long[], RuntimeException> triples = spoStatementIndex.longPrefixIteration(
+              new long[]{subject},
+              (triple, revisions) -> LongRangeUtils.isInRange(revisionId, revisions) ? triple : null
+      )) {
+        while (triples.hasNext()) {
+          long[] triple = triples.next();
+          if (triple == null) {
+            continue;
+          }
+          Statement statement = formatSpoTriple(triple, null);
+          handler.handleStatement(statement);
+          if (isEntityDescriptionNode(statement.getObject()) && visited.add(triple[2])) {
+            toVisit.add(triple[2]);
+          }
+        }
+      }
+    }
+    handler.endRDF();
+  }
+
+  private static boolean isEntityDescriptionNode(Value value) {
+    if (value instanceof BNode) {
+      return true;
+    }
+    if (!(value instanceof IRI)) {
+      return false;
+    }
+    String namespace = ((IRI) value).getNamespace();
+    return namespace.equals(Vocabulary.WDS_NAMESPACE) || namespace.equals(Vocabulary.WDV_NAMESPACE) || namespace.equals(Vocabulary.WDREF_NAMESPACE);
+  }
+
+  private static Instant bucketStart(Instant instant, ChronoUnit bucketUnit) {
+    ZonedDateTime day = instant.atZone(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+    switch (bucketUnit) {
+      case DAYS:
+        return day.toInstant();
+      case MONTHS:
+        return day.withDayOfMonth(1).toInstant();
+      case YEARS:
+        return day.withDayOfYear(1).toInstant();
+      default:
+        throw new IllegalArgumentException("Unsupported time bucket unit: " + bucketUnit);
+    }
+  }
+
+  private static Instant nextBucketStart(Instant bucketStart, ChronoUnit bucketUnit) {
+    return bucketStart.atZone(ZoneOffset.UTC).plus(1, bucketUnit).toInstant();
+  }
+
   private void registerMagicPredicates() {
     MagicPredicate[] predicates = new MagicPredicate[]{
             new RevisionsStatesConverter(Vocabulary.HISTORY_GLOBAL_STATE, Vocabulary.SnapshotType.NONE, Vocabulary.SnapshotType.GLOBAL_STATE),
@@ -87,51 +356,67 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
     }
   }
 
+  /**
+   * Triple source to use for the evaluation of a single query.
+   * It decodes each statement_inserted/statement_deleted list only once for all the patterns of the query.
+   */
+  QueryTripleSource newQueryTripleSource() {
+    return new QueryTripleSource();
+  }
+
   @Override
   public CloseableIteration<Statement, QueryEvaluationException> getStatements(
           Resource subj, IRI pred, Value obj, Resource... contexts
+  ) throws QueryEvaluationException {
+    return getStatements(subj, pred, obj, DIRECT_TRIPLE_LIST_LOADER, contexts);
+  }
+
+  private CloseableIteration<Statement, QueryEvaluationException> getStatements(
+          Resource subj, IRI pred, Value obj, TripleListLoader tripleListLoader, Resource... contexts
   ) throws QueryEvaluationException {
     if (contexts == null || contexts.length == 0) {
-      return getStatements(subj, pred, obj, (Resource) null);
+      return getStatements(subj, pred, obj, (Resource) null, tripleListLoader);
     } else if (contexts.length == 1) {
-      return getStatements(subj, pred, obj, contexts[0]);
+      return getStatements(subj, pred, obj, contexts[0], tripleListLoader);
     } else {
       List<CloseableIteration<Statement, QueryEvaluationException>> results = new ArrayList<>(contexts.length);
       for (Resource context : contexts) {
-        results.add(getStatements(subj, pred, obj, context));
+        results.add(getStatements(subj, pred, obj, context, tripleListLoader));
       }
       return new UnionIteration<>(results);
     }
   }
 
-  private CloseableIteration<Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource context) throws QueryEvaluationException {
+  private CloseableIteration<Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource context, TripleListLoader tripleListLoader) throws QueryEvaluationException {
     if (context != null) {
+      RevisionDiff diff = RevisionDiff.parse(context);
+      if (diff != null) {
+        return getDiffStatements(subj, pred, obj, diff, context);
+      }
       NumericValueFactory.RevisionIRI revisionIri = convertRevisionIRI(context);
       if (revisionIri == null) {
         return new EmptyIteration<>(); //Invalid revision IRI
       } else {
-        return getStatementsForBasicRelationWithGuess(subj, pred, obj, revisionIri);
+        return getStatementsForBasicRelationWithGuess(subj, pred, obj, revisionIri, tripleListLoader);
       }
     } else if (pred == null) {
       return new UnionIteration<>(Stream.concat(
               magicPredicates.values().stream().map(predicate -> predicate.getStatements(subj, obj)),
-              Stream.of(getStatementsForBasicRelationWithGuess(subj, null, obj, null))
+              Stream.of(getStatementsForBasicRelationWithGuess(subj, null, obj, null, tripleListLoader))
       ).collect(Collectors.toList()));
     } else if (magicPredicates.containsKey(pred)) {
       return magicPredicates.get(pred).getStatements(subj, obj);
     } else {
-      return getStatementsForBasicRelationWithGuess(subj, pred, obj, null);
+      return getStatementsForBasicRelationWithGuess(subj, pred, obj, null, tripleListLoader);
     }
   }
 
-  private CloseableIteration<Statement, QueryEvaluationException> getStatementsForBasicRelationWithGuess(Resource subj, IRI pred, Value obj, NumericValueFactory.RevisionIRI revisionIri) {
+  private CloseableIteration<Statement, QueryEvaluationException> getStatementsForBasicRelationWithGuess(Resource subj, IRI pred, Value obj, NumericValueFactory.RevisionIRI revisionIri, TripleListLoader tripleListLoader) {
     // If we have a context we could restrict our triples patterns to triples in this context
     if (revisionIri == null || revisionIri.getSnapshotType() == Vocabulary.SnapshotType.GLOBAL_STATE ) {
       return getStatementsForBasicRelation(subj, pred, obj, revisionIri);
-    } else if (revisionIri.getSnapshotType() == Vocabulary.SnapshotType.ADDITIONS) {
-      return getStatementsInTripleListIndex(subj, pred, obj, revisionIri, insertedStatementIndex);
-    } else if (revisionIri.getSnapshotType() == Vocabulary.SnapshotType.DELETIONS) {
-      return getStatementsInTripleListIndex(subj, pred, obj, revisionIri, deletedStatementIndex);
+    } else if (revisionIri.getSnapshotType() == Vocabulary.SnapshotType.ADDITIONS || revisionIri.getSnapshotType() == Vocabulary.SnapshotType.DELETIONS) {
+      return getStatementsInTripleListIndex(subj, pred, obj, revisionIri, tripleListLoader.load(tripleListIndex(revisionIri.getSnapshotType()), revisionIri.getRevisionId()));
     } else {
       LOGGER.warn("Not supported content IRI " + revisionIri);
       return new EmptyIteration<>();
@@ -139,20 +424,27 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
   }
 
   private CloseableIteration<Statement, QueryEvaluationException> getStatementsForBasicRelation(Resource subj, IRI pred, Value obj, NumericValueFactory.RevisionIRI revisionIri) {
+    return getStatementsForBasicRelation(subj, pred, obj, revisions -> revisionsInExpected(revisions, revisionIri));
+  }
+
+  /**
+   * @param graphsOfRanges returns the graphs to output a triple in from its revision ranges
+   */
+  private CloseableIteration<Statement, QueryEvaluationException> getStatementsForBasicRelation(Resource subj, IRI pred, Value obj, Function<long[], Stream<? extends Resource>> graphsOfRanges) {
     try {
       if (subj == null) {
         if (pred == null) {
           long[] prefix = (obj == null) ? EMPTY_ARRAY : new long[]{valueFactory.encodeValue(obj)};
           return new FlatMapClosableIteration<>(ospStatementIndex.longPrefixIteration(
                   prefix,
-                  (triple, revisions) -> revisionsInExpected(revisions, revisionIri).map(rev -> formatOspTriple(triple, rev)).iterator()));
+                  (triple, revisions) -> graphsOfRanges.apply(revisions).map(rev -> formatOspTriple(triple, rev)).iterator()));
         } else {
           long[] prefix = (obj == null)
                   ? new long[]{valueFactory.encodeValue(pred)}
                   : new long[]{valueFactory.encodeValue(pred), valueFactory.encodeValue(obj)};
           return new FlatMapClosableIteration<>(posStatementIndex.longPrefixIteration(
                   prefix,
-                  (triple, revisions) -> revisionsInExpected(revisions, revisionIri).map(rev -> formatPosTriple(triple, rev)).iterator()));
+                  (triple, revisions) -> graphsOfRanges.apply(revisions).map(rev -> formatPosTriple(triple, rev)).iterator()));
         }
       } else {
         if (obj == null) {
@@ -161,18 +453,18 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
                   : new long[]{valueFactory.encodeValue(subj), valueFactory.encodeValue(pred)};
           return new FlatMapClosableIteration<>(spoStatementIndex.longPrefixIteration(
                   prefix,
-                  (triple, revisions) -> revisionsInExpected(revisions, revisionIri).map(rev -> formatSpoTriple(triple, rev)).iterator()));
+                  (triple, revisions) -> graphsOfRanges.apply(revisions).map(rev -> formatSpoTriple(triple, rev)).iterator()));
         } else if (pred == null) {
           long[] prefix = new long[]{valueFactory.encodeValue(obj), valueFactory.encodeValue(subj)};
           return new FlatMapClosableIteration<>(ospStatementIndex.longPrefixIteration(
                   prefix,
-                  (triple, revisions) -> revisionsInExpected(revisions, revisionIri).map(rev -> formatOspTriple(triple, rev)).iterator()));
+                  (triple, revisions) -> graphsOfRanges.apply(revisions).map(rev -> formatOspTriple(triple, rev)).iterator()));
         } else {
           long[] triple = new long[]{valueFactory.encodeValue(subj), valueFactory.encodeValue(pred), valueFactory.encodeValue(obj)};
           long[] revisions = spoStatementIndex.get(triple);
           return (revisions == null)
                   ? EMPTY_ITERATION
-                  : new CloseableIteratorIteration<>(revisionsInExpected(revisions, revisionIri).map(rev -> formatSpoTriple(triple, rev)).iterator());
+                  : new CloseableIteratorIteration<>(graphsOfRanges.apply(revisions).map(rev -> formatSpoTriple(triple, rev)).iterator());
         }
       }
     } catch (NotSupportedValueException e) {
@@ -180,8 +472,67 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
     }
   }
 
-  private CloseableIteration<Statement, QueryEvaluationException> getStatementsInTripleListIndex(Resource subj, IRI pred, Value obj, NumericValueFactory.RevisionIRI revisionIri, RocksStore.Index<Long, long[]> index) {
-    long[] triples = index.get(revisionIri.getRevisionId());
+  /**
+   * Triples matching the pattern that differ between the global states of the two revisions of the diff.
+   * <p>
+   * If the revisions are close, the triples changed by the revisions in between are streamed from statement_inserted/statement_deleted and checked against their revision ranges.
+   * Otherwise, or if the subject is bound, the pattern prefix is scanned once, comparing for each triple its presence in both global states.
+   */
+  private CloseableIteration<Statement, QueryEvaluationException> getDiffStatements(Resource subj, IRI pred, Value obj, RevisionDiff diff, Resource context) {
+    if (subj != null || Math.abs(diff.to - diff.from) > MAX_WALKED_DIFF_WINDOW) {
+      return getStatementsForBasicRelation(subj, pred, obj, revisions -> diff.isInDiff(revisions) ? Stream.of(context) : Stream.empty());
+    }
+
+    long p;
+    long o;
+    try {
+      p = (pred == null) ? 0 : valueFactory.encodeValue(pred);
+      o = (obj == null) ? 0 : valueFactory.encodeValue(obj);
+    } catch (NotSupportedValueException e) {
+      throw new QueryEvaluationException(e);
+    }
+    long first = Math.min(diff.from, diff.to);
+    long last = Math.max(diff.from, diff.to);
+    List<CloseableIteration<Statement, QueryEvaluationException>> changes = new ArrayList<>(2);
+    for (RocksStore.Index<Long, long[]> index : List.of(insertedStatementIndex, deletedStatementIndex)) {
+      changes.add(new FlatMapClosableIteration<>(index.longRangeIteration(
+              first + 1, last + 1, (revision, triples) -> changedStatements(revision, triples, p, o, first, diff, context)
+      )));
+    }
+    return new UnionIteration<>(changes);
+  }
+
+  /**
+   * The triples of a statement_inserted/statement_deleted list that are in the diff.
+   * <p>
+   * A triple is in the lists of each revision where its ranges start or end. It is only returned from the list of the first of these revisions after the diff start so that no set of the already returned triples is needed.
+   */
+  private Iterator<Statement> changedStatements(long revision, long[] triples, long p, long o, long first, RevisionDiff diff, Resource context) {
+    List<Statement> statements = new ArrayList<>();
+    for (int i = 0; i < triples.length; i += 3) {
+      if ((p == 0 || triples[i + 1] == p) && (o == 0 || triples[i + 2] == o)) {
+        long[] triple = Arrays.copyOfRange(triples, i, i + 3);
+        long[] revisions = spoStatementIndex.get(triple);
+        if (revisions != null && LongRangeUtils.stableIntervalEnd(first, revisions) == revision && diff.isInDiff(revisions)) {
+          statements.add(formatSpoTriple(triple, context));
+        }
+      }
+    }
+    return statements.iterator();
+  }
+
+  private RocksStore.Index<Long, long[]> tripleListIndex(Vocabulary.SnapshotType snapshotType) {
+    switch (snapshotType) {
+      case ADDITIONS:
+        return insertedStatementIndex;
+      case DELETIONS:
+        return deletedStatementIndex;
+      default:
+        throw new IllegalArgumentException("No triple list index for " + snapshotType);
+    }
+  }
+
+  private CloseableIteration<Statement, QueryEvaluationException> getStatementsInTripleListIndex(Resource subj, IRI pred, Value obj, NumericValueFactory.RevisionIRI revisionIri, TripleList triples) {
     if (triples == null) {
       return EMPTY_ITERATION;
     }
@@ -283,6 +634,98 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
     }
   }
 
+  /**
+   * Graph of the triples added or removed between the global states at revisions "from" and "to"
+   */
+  private static final class RevisionDiff {
+    private final long from;
+    private final long to;
+    private final boolean additions;
+
+    private RevisionDiff(long from, long to, boolean additions) {
+      this.from = from;
+      this.to = to;
+      this.additions = additions;
+    }
+
+    /**
+     * @return null if the graph is not a diff
+     */
+    static RevisionDiff parse(Resource graph) {
+      String iri = graph.stringValue();
+      boolean additions;
+      String revisions;
+      if (iri.startsWith(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE)) {
+        additions = true;
+        revisions = iri.substring(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE.length());
+      } else if (iri.startsWith(Vocabulary.REVISION_DIFF_DELETIONS_NAMESPACE)) {
+        additions = false;
+        revisions = iri.substring(Vocabulary.REVISION_DIFF_DELETIONS_NAMESPACE.length());
+      } else {
+        return null;
+      }
+      String[] parts = revisions.split("/");
+      try {
+        if (parts.length == 2) {
+          return new RevisionDiff(Long.parseLong(parts[0]), Long.parseLong(parts[1]), additions);
+        }
+      } catch (NumberFormatException e) {
+        // Invalid diff IRI
+      }
+      throw new QueryEvaluationException("Invalid revision diff IRI: " + iri + ". It should be of the form <" + Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE + "FROM_REVISION_ID/TO_REVISION_ID>");
+    }
+
+    boolean isInDiff(long[] revisionIdRanges) {
+      boolean inFrom = LongRangeUtils.isInRange(from, revisionIdRanges);
+      boolean inTo = LongRangeUtils.isInRange(to, revisionIdRanges);
+      return additions ? (inTo && !inFrom) : (inFrom && !inTo);
+    }
+  }
+
+  @FunctionalInterface
+  private interface TripleListLoader {
+    TripleList load(RocksStore.Index<Long, long[]> index, long revisionId);
+  }
+
+  final class QueryTripleSource implements TripleSource {
+    private final Map<RocksStore.Index<Long, long[]>, Map<Long, TripleList>> tripleLists = new ConcurrentHashMap<>();
+
+    private QueryTripleSource() {
+    }
+
+    @Override
+    public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+      return RocksTripleSource.this.getStatements(subj, pred, obj, this::loadTripleList, contexts);
+    }
+
+    @Override
+    public NumericValueFactory getValueFactory() {
+      return valueFactory;
+    }
+
+    /**
+     * @return the triples added or removed by the revision depending on snapshotType, null if there are none
+     */
+    TripleList getTripleList(Vocabulary.SnapshotType snapshotType, long revisionId) {
+      return loadTripleList(tripleListIndex(snapshotType), revisionId);
+    }
+
+    ImmutableLongSet getReachableNodes(long start, long predicate, long revisionId, boolean inverse) {
+      return RocksTripleSource.this.getReachableNodes(start, predicate, revisionId, inverse);
+    }
+
+    private TripleList loadTripleList(RocksStore.Index<Long, long[]> index, long revisionId) {
+      // The lists are reused by the other patterns of the query so it is worth indexing objects
+      TripleList triples = tripleLists
+              .computeIfAbsent(index, i -> new ConcurrentHashMap<>())
+              .computeIfAbsent(revisionId, id -> {
+                long[] value = index.get(id);
+                return new TripleList((value == null) ? EMPTY_ARRAY : value, true);
+              });
+      return (triples.getTriples().length == 0) ? null : triples;
+    }
+  }
+
   private static class FlatMapClosableIteration<E, X extends Exception> implements CloseableIteration<E, X> {
     private final CloseableIteration<Iterator<E>, X> iter;
     private Iterator<E> current;
@@ -320,33 +763,35 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
 
   private static class TripleListIteration implements CloseableIteration<Statement, QueryEvaluationException> {
     private final long[] triples;
+    private final TripleList.Cursor cursor;
     private final NumericValueFactory valueFactory;
-    private final Long subject;
-    private final Long predicate;
-    private final Long object;
+    private final long subject;
+    private final long predicate;
+    private final long object;
     private final Resource context;
-    private int position = 0;
+    private int position = -1;
 
-    TripleListIteration(long[] triples, NumericValueFactory valueFactory, Long subject, Long predicate, Long object, Resource context) {
-      this.triples = triples;
+    TripleListIteration(TripleList triples, NumericValueFactory valueFactory, Long subject, Long predicate, Long object, Resource context) {
+      this.triples = triples.getTriples();
       this.valueFactory = valueFactory;
-      this.subject = subject;
-      this.predicate = predicate;
-      this.object = object;
+      this.subject = (subject == null) ? 0 : subject;
+      this.predicate = (predicate == null) ? 0 : predicate;
+      this.object = (object == null) ? 0 : object;
       this.context = context;
+      this.cursor = triples.lookup(this.subject, this.predicate, this.object);
     }
 
     @Override
     public boolean hasNext() {
-      while (
-              position < triples.length && (
-                      (subject != null && triples[position] != subject) ||
-                              (predicate != null && triples[position + 1] != predicate) ||
-                              (object != null && triples[position + 2] != object)
-              )) {
-        position += 3;
+      while (position < 0 && cursor.hasNext()) {
+        int candidate = cursor.next();
+        if ((subject == 0 || triples[candidate] == subject) &&
+                (predicate == 0 || triples[candidate + 1] == predicate) &&
+                (object == 0 || triples[candidate + 2] == object)) {
+          position = candidate;
+        }
       }
-      return position < triples.length;
+      return position >= 0;
     }
 
     @Override
@@ -364,7 +809,7 @@ public final class RocksTripleSource implements TripleSource, AutoCloseable {
       } catch (NotSupportedValueException e) {
         throw new QueryEvaluationException(e);
       } finally {
-        position += 3;
+        position = -1;
       }
     }
 
@@ -1,20 +1,29 @@
 package org.wikidata.history.sparql;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.UpdateExecutionException;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
 import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.Service;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.UpdateExpr;
 import org.eclipse.rdf4j.query.algebra.evaluation.AbstractQueryPreparer;
 import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
 import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.*;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
 import org.eclipse.rdf4j.repository.sparql.federation.SPARQLServiceResolver;
 
+import java.util.Objects;
+
 public final class SimpleQueryPreparer extends AbstractQueryPreparer {
   private static final SPARQLServiceResolver SPARQL_SERVICE_RESOLVER = new SPARQLServiceResolver();
   private static final EvaluationStatistics EVALUATION_STATISTICS = new HistoryEvaluationStatistics();
@@ -31,22 +40,57 @@ public final class SimpleQueryPreparer extends AbstractQueryPreparer {
           new OrderLimitOptimizer(),
           new QueryJoinOptimizer(EVALUATION_STATISTICS)
   };
+  private static final int PLAN_CACHE_SIZE = 1024;
+
+  private final Cache<PlanKey, TupleExpr> planCache = CacheBuilder.newBuilder()
+          .maximumSize(PLAN_CACHE_SIZE)
+          .recordStats()
+          .build();
 
   public SimpleQueryPreparer(TripleSource tripleSource) {
     super(tripleSource);
   }
 
+  public CacheStats getPlanCacheStats() {
+    return planCache.stats();
+  }
+
+  public long getPlanCacheSize() {
+    return planCache.size();
+  }
+
   @Override
   protected CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluate(
           TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, boolean includeInferred, int maxExecutionTime
   ) throws QueryEvaluationException {
+    TripleSource tripleSource = getTripleSource();
+    if (tripleSource instanceof RocksTripleSource) {
+      tripleSource = ((RocksTripleSource) tripleSource).newQueryTripleSource();
+    }
+    EvaluationStrategy strategy = new HistoryEvaluationStrategy(tripleSource, dataset, SPARQL_SERVICE_RESOLVER, 0L, EVALUATION_STATISTICS);
+
+    // The parsed query objects are reused by the callers for the same query so the plans are cached by identity
+    PlanKey planKey = new PlanKey(tupleExpr, dataset, bindings);
+    TupleExpr plan = planCache.getIfPresent(planKey);
+    if (plan == null) {
+      plan = optimize(tupleExpr, dataset, bindings, strategy);
+      if (isDeterministic(tupleExpr)) {
+        planCache.put(planKey, plan);
+      }
+    }
+
+    //System.out.println("Query plan:\n" + plan);
+
+    // Evaluation might annotate the plan so the cached one is kept pristine
+    return strategy.evaluate(plan.clone(), bindings);
+  }
+
+  private TupleExpr optimize(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, EvaluationStrategy strategy) {
     tupleExpr = tupleExpr.clone();
     if (!(tupleExpr instanceof QueryRoot)) {
       tupleExpr = new QueryRoot(tupleExpr);
     }
 
-    EvaluationStrategy strategy = new ExtendedEvaluationStrategy(getTripleSource(), dataset, SPARQL_SERVICE_RESOLVER, 0L, EVALUATION_STATISTICS);
-
     for (QueryOptimizer optimizer : SIMPLE_OPTIMIZERS) {
       optimizer.optimize(tupleExpr, dataset, bindings);
     }
@@ -54,9 +98,31 @@ public final class SimpleQueryPreparer extends AbstractQueryPreparer {
 
     new ExprValueConverter(getTripleSource().getValueFactory()).optimize(tupleExpr, dataset, bindings);
 
-    //System.out.println("Query plan:\n" + tupleExpr);
+    return tupleExpr;
+  }
+
+  /**
+   * Returns false if the query contains a zero-argument function like NOW() or RAND() or a SERVICE call.
+   * <p>
+   * ConstantOptimizer replaces functions like NOW() by their value so the plans of such queries should not be reused.
+   */
+  public static boolean isDeterministic(TupleExpr tupleExpr) {
+    boolean[] isDeterministic = new boolean[]{true};
+    tupleExpr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+      @Override
+      public void meet(FunctionCall node) {
+        if (node.getArgs().isEmpty()) {
+          isDeterministic[0] = false;
+        }
+        super.meet(node);
+      }
 
-    return strategy.evaluate(tupleExpr, bindings);
+      @Override
+      public void meet(Service node) {
+        isDeterministic[0] = false;
+      }
+    });
+    return isDeterministic[0];
   }
 
   @Override
@@ -65,4 +131,33 @@ public final class SimpleQueryPreparer extends AbstractQueryPreparer {
   ) throws UpdateExecutionException {
     throw new UpdateExecutionException("This repository is read only");
   }
+
+  private static final class PlanKey {
+    private final TupleExpr tupleExpr;
+    private final Dataset dataset;
+    private final BindingSet bindings;
+
+    private PlanKey(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings) {
+      this.tupleExpr = tupleExpr;
+      this.dataset = dataset;
+      this.bindings = new QueryBindingSet(bindings); // The caller might modify its binding set later
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if (o instanceof PlanKey) {
+        PlanKey other = (PlanKey) o;
+        return tupleExpr == other.tupleExpr && Objects.equals(dataset, other.dataset) && Objects.equals(bindings, other.bindings);
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(tupleExpr), dataset, bindings);
+    }
+  }
 }
\ No newline at end of file
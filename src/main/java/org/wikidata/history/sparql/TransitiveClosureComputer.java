@@ -0,0 +1,138 @@
+package org.wikidata.history.sparql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.eclipse.collections.api.set.primitive.ImmutableLongSet;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Computes the nodes reachable from a start node following a predicate in the global state of a revision.
+ * <p>
+ * The traversal is a BFS directly on the encoded statement_spo (or statement_pos for the inverse direction) index.
+ * Each closure is cached with the interval of revisions during which none of the edges it has looked at changes,
+ * so it is reused by all the queries on a revision of this interval.
+ * A few closures with different intervals are kept for the same start node so that queries comparing revisions do not evict each other.
+ */
+final class TransitiveClosureComputer {
+  private static final long MAX_CACHED_NODES = 50_000_000;
+  private static final int MAX_CLOSURES_PER_KEY = 8;
+
+  private final RocksStore.Index<long[], long[]> spoIndex;
+  private final RocksStore.Index<long[], long[]> posIndex;
+  // The lists are never modified once cached: a new list is put to update the entry weight
+  private final Cache<ClosureKey, List<Closure>> cache = CacheBuilder.newBuilder()
+          .maximumWeight(MAX_CACHED_NODES)
+          .weigher((ClosureKey key, List<Closure> closures) -> closures.stream().mapToInt(closure -> closure.nodes.size() + 1).sum())
+          .build();
+
+  TransitiveClosureComputer(RocksStore.Index<long[], long[]> spoIndex, RocksStore.Index<long[], long[]> posIndex) {
+    this.spoIndex = spoIndex;
+    this.posIndex = posIndex;
+  }
+
+  /**
+   * @param inverse if true the predicate edges are followed from object to subject
+   * @return the nodes reachable with paths of length at least 1
+   */
+  ImmutableLongSet closure(long start, long predicate, long revisionId, boolean inverse) {
+    ClosureKey key = new ClosureKey(start, predicate, inverse);
+    List<Closure> closures = cache.getIfPresent(key);
+    if (closures == null) {
+      closures = Collections.emptyList();
+    }
+    for (Closure closure : closures) {
+      if (closure.isValidAt(revisionId)) {
+        return closure.nodes;
+      }
+    }
+
+    Closure closure = compute(start, predicate, revisionId, inverse);
+    // The least recently computed closures are dropped first
+    List<Closure> updated = new ArrayList<>(Math.min(closures.size() + 1, MAX_CLOSURES_PER_KEY));
+    updated.add(closure);
+    for (int i = 0; i < closures.size() && updated.size() < MAX_CLOSURES_PER_KEY; i++) {
+      updated.add(closures.get(i));
+    }
+    cache.put(key, updated);
+    return closure.nodes;
+  }
+
+  private Closure compute(long start, long predicate, long revisionId, boolean inverse) {
+    RocksStore.Index<long[], long[]> index = inverse ? posIndex : spoIndex;
+    LongHashSet reached = new LongHashSet();
+    LongArrayList frontier = new LongArrayList();
+    frontier.add(start);
+    long[] validity = new long[]{Long.MIN_VALUE, Long.MAX_VALUE};
+
+    while (!frontier.isEmpty()) {
+      long node = frontier.removeAtIndex(frontier.size() - 1);
+      // statement_spo keys are (s, p, o) and statement_pos keys are (p, o, s): the neighbour is always the third element
+      long[] prefix = inverse ? new long[]{predicate, node} : new long[]{node, predicate};
+      try (CloseableIteration<long[], RuntimeException> edges = index.longPrefixIteration(prefix, (triple, ranges) -> {
+        validity[0] = Math.max(validity[0], LongRangeUtils.stableIntervalStart(revisionId, ranges));
+        validity[1] = Math.min(validity[1], LongRangeUtils.stableIntervalEnd(revisionId, ranges));
+        return LongRangeUtils.isInRange(revisionId, ranges) ? triple : null;
+      })) {
+        while (edges.hasNext()) {
+          long[] triple = edges.next();
+          if (triple != null && reached.add(triple[2])) {
+            frontier.add(triple[2]);
+          }
+        }
+      }
+    }
+    return new Closure(reached.toImmutable(), validity[0], validity[1]);
+  }
+
+  private static final class ClosureKey {
+    private final long start;
+    private final long predicate;
+    private final boolean inverse;
+
+    private ClosureKey(long start, long predicate, boolean inverse) {
+      this.start = start;
+      this.predicate = predicate;
+      this.inverse = inverse;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if (o instanceof ClosureKey) {
+        ClosureKey other = (ClosureKey) o;
+        return start == other.start && predicate == other.predicate && inverse == other.inverse;
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(start, predicate, inverse);
+    }
+  }
+
+  private static final class Closure {
+    private final ImmutableLongSet nodes;
+    private final long validFrom;
+    private final long validTo;
+
+    private Closure(ImmutableLongSet nodes, long validFrom, long validTo) {
+      this.nodes = nodes;
+      this.validFrom = validFrom;
+      this.validTo = validTo;
+    }
+
+    boolean isValidAt(long revisionId) {
+      return validFrom <= revisionId && revisionId < validTo;
+    }
+  }
+}
@@ -23,6 +23,50 @@ final class TripleArrayUtils {
     return newArray;
   }
 
+  /**
+   * @param predicate the predicate to also compare or 0 to only compare subjects
+   * @return the position of the first triple of the (s, p, o) sorted array that is not before (subject, predicate)
+   */
+  static int lowerBound(long[] array, long subject, long predicate) {
+    int low = 0;
+    int high = array.length / 3;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareToPrefix(array, 3 * middle, subject, predicate) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return 3 * low;
+  }
+
+  /**
+   * @param predicate the predicate to also compare or 0 to only compare subjects
+   * @return the position of the first triple of the (s, p, o) sorted array that is after (subject, predicate)
+   */
+  static int upperBound(long[] array, long subject, long predicate) {
+    int low = 0;
+    int high = array.length / 3;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareToPrefix(array, 3 * middle, subject, predicate) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return 3 * low;
+  }
+
+  private static int compareToPrefix(long[] array, int position, long subject, long predicate) {
+    int result = Long.compare(array[position], subject);
+    if (result != 0 || predicate == 0) {
+      return result;
+    }
+    return Long.compare(array[position + 1], predicate);
+  }
+
   static long[] removeFromSortedArray(long[] array, long[] triple) {
     int position = 0;
     while (position < array.length && (array[position] != triple[0] || array[position + 1] != triple[1] || array[position + 2] != triple[2])) {
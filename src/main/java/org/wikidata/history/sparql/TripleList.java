@@ -0,0 +1,121 @@
+package org.wikidata.history.sparql;
+
+import java.util.Arrays;
+
+/**
+ * The (s, p, o) sorted triples added or removed by a revision.
+ * <p>
+ * Subject bound lookups are done with a binary search.
+ * If object indexing is enabled, object bound lookups use a (o, s, p) ordering of the triples built on first use.
+ */
+final class TripleList {
+  private final long[] triples;
+  private final boolean indexObjects;
+  private volatile int[] objectOrder;
+
+  TripleList(long[] triples, boolean indexObjects) {
+    this.triples = triples;
+    this.indexObjects = indexObjects;
+  }
+
+  long[] getTriples() {
+    return triples;
+  }
+
+  /**
+   * The returned cursor might also return triples not matching the pattern: the caller should still filter them.
+   *
+   * @param subject   0 if not bound
+   * @param predicate 0 if not bound
+   * @param object    0 if not bound
+   * @return the positions in {@link #getTriples()} of the triples that might match the pattern
+   */
+  Cursor lookup(long subject, long predicate, long object) {
+    if (subject != 0) {
+      return new Cursor(null, TripleArrayUtils.lowerBound(triples, subject, predicate) / 3, TripleArrayUtils.upperBound(triples, subject, predicate) / 3);
+    } else if (object != 0 && indexObjects) {
+      int[] order = getObjectOrder();
+      return new Cursor(order, objectLowerBound(order, object, false), objectLowerBound(order, object, true));
+    } else {
+      return new Cursor(null, 0, triples.length / 3);
+    }
+  }
+
+  private int[] getObjectOrder() {
+    int[] order = objectOrder;
+    if (order == null) {
+      order = buildObjectOrder(triples);
+      objectOrder = order;
+    }
+    return order;
+  }
+
+  /**
+   * Sorts the triple indexes by object, keeping the (s, p) order for the same object.
+   * <p>
+   * Each index is packed in a long with the rank of its object among the distinct objects so that a primitive sort is enough.
+   */
+  private static int[] buildObjectOrder(long[] triples) {
+    int count = triples.length / 3;
+    long[] objects = new long[count];
+    for (int i = 0; i < count; i++) {
+      objects[i] = triples[3 * i + 2];
+    }
+    long[] distinctObjects = objects.clone();
+    Arrays.sort(distinctObjects);
+    int distinctCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (i == 0 || distinctObjects[i] != distinctObjects[distinctCount - 1]) {
+        distinctObjects[distinctCount++] = distinctObjects[i];
+      }
+    }
+    long[] packed = new long[count];
+    for (int i = 0; i < count; i++) {
+      long rank = Arrays.binarySearch(distinctObjects, 0, distinctCount, objects[i]);
+      packed[i] = (rank << 32) | i;
+    }
+    Arrays.sort(packed);
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = (int) packed[i];
+    }
+    return order;
+  }
+
+  private int objectLowerBound(int[] order, long object, boolean strict) {
+    int low = 0;
+    int high = order.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      long value = triples[3 * order[middle] + 2];
+      if (value < object || (strict && value == object)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  static final class Cursor {
+    private final int[] order;
+    private int rank;
+    private final int end;
+
+    private Cursor(int[] order, int start, int end) {
+      this.order = order;
+      this.rank = start;
+      this.end = end;
+    }
+
+    boolean hasNext() {
+      return rank < end;
+    }
+
+    int next() {
+      int triple = (order == null) ? rank : order[rank];
+      rank++;
+      return 3 * triple;
+    }
+  }
+}
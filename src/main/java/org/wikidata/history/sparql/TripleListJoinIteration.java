@@ -0,0 +1,168 @@
+package org.wikidata.history.sparql;
+
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Joins a set of triple patterns against the sorted (s, p, o) triple list of a revision additions or deletions.
+ * <p>
+ * The join is done on the encoded values of the in-memory array: values are only decoded for the final bindings.
+ * Each pattern lookup uses the subject or object ordering of the triple list when its subject or object is known.
+ * The solutions are produced lazily by a depth-first walk keeping one lookup cursor per pattern.
+ */
+final class TripleListJoinIteration extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+  private static final long UNBOUND = 0; // 0 is never a valid encoding
+
+  private final TripleList tripleList;
+  private final long[] triples;
+  private final NumericValueFactory valueFactory;
+  private final BindingSet bindings;
+  private final List<String> variables = new ArrayList<>();
+  private final long[][] patterns;
+  private final int[][] patternVariables;
+  private final TripleList.Cursor[] cursors;
+  // The variables bound by the current triple of each pattern cursor
+  private final int[][] boundVariables;
+  private final int[] boundCounts;
+  private long[] values;
+  private int depth = -1;
+
+  TripleListJoinIteration(TripleList tripleList, List<StatementPattern> statementPatterns, NumericValueFactory valueFactory, BindingSet bindings) {
+    this.tripleList = tripleList;
+    this.triples = tripleList.getTriples();
+    this.valueFactory = valueFactory;
+    this.bindings = bindings;
+    this.patterns = new long[statementPatterns.size()][3];
+    this.patternVariables = new int[statementPatterns.size()][3];
+    this.cursors = new TripleList.Cursor[statementPatterns.size()];
+    this.boundVariables = new int[statementPatterns.size()][3];
+    this.boundCounts = new int[statementPatterns.size()];
+    if (encodePatterns(statementPatterns)) {
+      values = new long[variables.size()];
+      cursors[0] = openCursor(0);
+      depth = 0;
+    }
+  }
+
+  /**
+   * Fills patterns with the encoded (s, p, o) constants and patternVariables with the variable ids (-1 for constants)
+   *
+   * @return false if one of the constant values is not in the store
+   */
+  private boolean encodePatterns(List<StatementPattern> statementPatterns) {
+    Map<String, Integer> variableIds = new HashMap<>();
+    for (int i = 0; i < patterns.length; i++) {
+      StatementPattern pattern = statementPatterns.get(i);
+      Var[] vars = new Var[]{pattern.getSubjectVar(), pattern.getPredicateVar(), pattern.getObjectVar()};
+      for (int j = 0; j < 3; j++) {
+        Value value = vars[j].hasValue() ? vars[j].getValue() : bindings.getValue(vars[j].getName());
+        if (value == null) {
+          patternVariables[i][j] = variableIds.computeIfAbsent(vars[j].getName(), name -> {
+            variables.add(name);
+            return variables.size() - 1;
+          });
+        } else {
+          patternVariables[i][j] = -1;
+          try {
+            patterns[i][j] = valueFactory.encodeValue(value);
+          } catch (NotSupportedValueException e) {
+            return false; // The value is not in the store: no triple could match
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  protected BindingSet getNextElement() throws QueryEvaluationException {
+    if (!nextSolution()) {
+      return null;
+    }
+    QueryBindingSet result = new QueryBindingSet(bindings);
+    try {
+      for (int i = 0; i < values.length; i++) {
+        result.addBinding(variables.get(i), valueFactory.createValue(values[i]));
+      }
+    } catch (NotSupportedValueException e) {
+      throw new QueryEvaluationException(e);
+    }
+    return result;
+  }
+
+  /**
+   * Moves to the next solution, stored in values
+   *
+   * @return false if there are no more solutions
+   */
+  private boolean nextSolution() {
+    while (depth >= 0) {
+      unbind(depth);
+      TripleList.Cursor cursor = cursors[depth];
+      if (!cursor.hasNext()) {
+        cursors[depth] = null;
+        depth--;
+      } else if (bind(depth, cursor.next())) {
+        if (depth == patterns.length - 1) {
+          return true;
+        }
+        depth++;
+        cursors[depth] = openCursor(depth);
+      }
+    }
+    return false;
+  }
+
+  private TripleList.Cursor openCursor(int patternIndex) {
+    long[] pattern = patterns[patternIndex];
+    int[] slots = patternVariables[patternIndex];
+    return tripleList.lookup(
+            currentValue(pattern, slots, values, 0),
+            currentValue(pattern, slots, values, 1),
+            currentValue(pattern, slots, values, 2)
+    );
+  }
+
+  /**
+   * Binds the unbound variables of the pattern to the triple at the given position
+   *
+   * @return false if the triple does not match the pattern
+   */
+  private boolean bind(int patternIndex, int position) {
+    long[] pattern = patterns[patternIndex];
+    int[] slots = patternVariables[patternIndex];
+    int[] bound = boundVariables[patternIndex];
+    for (int j = 0; j < 3; j++) {
+      int variable = slots[j];
+      if (variable >= 0 && values[variable] == UNBOUND) {
+        values[variable] = triples[position + j];
+        bound[boundCounts[patternIndex]++] = variable;
+      } else if (triples[position + j] != currentValue(pattern, slots, values, j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void unbind(int patternIndex) {
+    int[] bound = boundVariables[patternIndex];
+    for (int j = 0; j < boundCounts[patternIndex]; j++) {
+      values[bound[j]] = UNBOUND;
+    }
+    boundCounts[patternIndex] = 0;
+  }
+
+  private static long currentValue(long[] pattern, int[] slots, long[] values, int position) {
+    return (slots[position] >= 0) ? values[slots[position]] : pattern[position];
+  }
+}
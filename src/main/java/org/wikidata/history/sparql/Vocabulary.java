@@ -52,6 +52,14 @@ public final class Vocabulary {
   public static final String REVISION_ADDITIONS_NAMESPACE = REVISION_NAMESPACE + "additions/";
   public static final String REVISION_DELETIONS_NAMESPACE = REVISION_NAMESPACE + "deletions/";
   public static final String REVISION_GLOBAL_STATE_NAMESPACE = REVISION_NAMESPACE + "global/";
+  /**
+   * Graphs of the triples in the global state at revision B but not at revision A: {@code <http://www.wikidata.org/revision/diff/additions/A/B>}
+   */
+  public static final String REVISION_DIFF_ADDITIONS_NAMESPACE = REVISION_NAMESPACE + "diff/additions/";
+  /**
+   * Graphs of the triples in the global state at revision A but not at revision B: {@code <http://www.wikidata.org/revision/diff/deletions/A/B>}
+   */
+  public static final String REVISION_DIFF_DELETIONS_NAMESPACE = REVISION_NAMESPACE + "diff/deletions/";
 
   public static final IRI CURRENT_GLOBAL_STATE = VALUE_FACTORY.createIRI(REVISION_GLOBAL_STATE_NAMESPACE, Long.toString(Long.MAX_VALUE / 256));
 
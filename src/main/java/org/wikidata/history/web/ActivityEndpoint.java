@@ -0,0 +1,44 @@
+package org.wikidata.history.web;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.wikidata.history.sparql.PredicateActivity;
+import org.wikidata.history.sparql.RocksTripleSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Returns the number of triples with a given predicate added and removed per month and contributor.
+ * <p>
+ * Parameters: predicate (mandatory) as an IRI or N-Triples term and contributor (optional) to restrict to a single contributor.
+ */
+class ActivityEndpoint {
+  private final RocksTripleSource tripleSource;
+
+  ActivityEndpoint(RocksTripleSource tripleSource) {
+    this.tripleSource = tripleSource;
+  }
+
+  void get(Context context) {
+    Value predicate = HistogramEndpoint.parseTerm(context.queryParam("predicate"), tripleSource.getValueFactory());
+    if (!(predicate instanceof IRI)) {
+      throw new BadRequestResponse("The 'predicate' parameter is mandatory and should be an IRI");
+    }
+
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (PredicateActivity activity : tripleSource.getPredicateActivity((IRI) predicate, context.queryParam("contributor"))) {
+      Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("month", activity.getMonth().toString());
+      entry.put("contributor", activity.getContributor());
+      entry.put("additions", activity.getInsertionCount());
+      entry.put("deletions", activity.getDeletionCount());
+      result.add(entry);
+    }
+    context.json(result);
+  }
+}
@@ -0,0 +1,101 @@
+package org.wikidata.history.web;
+
+import io.javalin.core.util.Header;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.NotFoundResponse;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.rio.helpers.NTriplesUtil;
+import org.wikidata.history.sparql.RocksTripleSource;
+import org.wikidata.history.sparql.Vocabulary;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Returns the triples describing an entity at a given revision or date, including its statement, value and reference nodes.
+ * <p>
+ * Parameters: entity (mandatory) as an IRI or N-Triples term and either revision (a revision id) or date (an ISO instant). By default the current state is returned.
+ * The output is N-Triples or, if requested with the Accept header, a JSON array of {subject, predicate, object} N-Triples terms.
+ */
+class EntityStateEndpoint {
+  private static final String NTRIPLES_MIME_TYPE = RDFFormat.NTRIPLES.getDefaultMIMEType();
+  private static final String JSON_MIME_TYPE = "application/json";
+  private static final long CURRENT_REVISION = Long.parseLong(Vocabulary.CURRENT_GLOBAL_STATE.getLocalName());
+
+  private final RocksTripleSource tripleSource;
+
+  EntityStateEndpoint(RocksTripleSource tripleSource) {
+    this.tripleSource = tripleSource;
+  }
+
+  void get(Context context) {
+    Value entity = HistogramEndpoint.parseTerm(context.queryParam("entity"), tripleSource.getValueFactory());
+    if (!(entity instanceof Resource)) {
+      throw new BadRequestResponse("The 'entity' parameter is mandatory and should be an IRI");
+    }
+    long revisionId = getRevisionId(context, (Resource) entity);
+
+    String mimeType;
+    try {
+      mimeType = ContentNegotiation.negotiateAccept(context.header(Header.ACCEPT), List.of(NTRIPLES_MIME_TYPE, JSON_MIME_TYPE))
+              .orElseThrow(() -> new NotAcceptableResponse("Accepted format are: " + NTRIPLES_MIME_TYPE + " and " + JSON_MIME_TYPE));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse(e.getMessage());
+    }
+
+    if (mimeType.equals(JSON_MIME_TYPE)) {
+      List<Map<String, String>> result = new ArrayList<>();
+      tripleSource.exportEntityState((Resource) entity, revisionId, new AbstractRDFHandler() {
+        @Override
+        public void handleStatement(Statement statement) {
+          Map<String, String> triple = new LinkedHashMap<>();
+          triple.put("subject", NTriplesUtil.toNTriplesString(statement.getSubject()));
+          triple.put("predicate", NTriplesUtil.toNTriplesString(statement.getPredicate()));
+          triple.put("object", NTriplesUtil.toNTriplesString(statement.getObject()));
+          result.add(triple);
+        }
+      });
+      context.json(result);
+    } else {
+      context.contentType(NTRIPLES_MIME_TYPE);
+      try {
+        tripleSource.exportEntityState((Resource) entity, revisionId, Rio.createWriter(RDFFormat.NTRIPLES, context.res.getOutputStream()));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private long getRevisionId(Context context, Resource entity) {
+    String revision = context.queryParam("revision");
+    String date = context.queryParam("date");
+    if (revision != null && date != null) {
+      throw new BadRequestResponse("Only one of the 'revision' and 'date' parameters should be set");
+    }
+    if (revision != null) {
+      try {
+        return Long.parseLong(revision);
+      } catch (NumberFormatException e) {
+        throw new BadRequestResponse("Invalid revision id: " + revision);
+      }
+    }
+    if (date != null) {
+      try {
+        return tripleSource.getEntityRevisionAt(entity, Instant.parse(date))
+                .orElseThrow(() -> new NotFoundResponse("The entity " + entity + " did not exist at " + date));
+      } catch (DateTimeParseException e) {
+        throw new BadRequestResponse("Invalid date: " + date + ". It should be an ISO instant like 2016-05-01T00:00:00Z");
+      }
+    }
+    return CURRENT_REVISION;
+  }
+}
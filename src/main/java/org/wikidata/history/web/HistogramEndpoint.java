@@ -0,0 +1,74 @@
+package org.wikidata.history.web;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.rio.helpers.NTriplesUtil;
+import org.wikidata.history.sparql.RocksTripleSource;
+
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Returns the number of triples matching a pattern at the end of each day, month or year.
+ * <p>
+ * Parameters: predicate (mandatory), subject and object (optional) as IRIs or N-Triples terms and bucket (day, month or year, by default month).
+ */
+class HistogramEndpoint {
+  private static final Map<String, ChronoUnit> BUCKET_UNITS = Map.of(
+          "day", ChronoUnit.DAYS,
+          "month", ChronoUnit.MONTHS,
+          "year", ChronoUnit.YEARS
+  );
+
+  private final RocksTripleSource tripleSource;
+
+  HistogramEndpoint(RocksTripleSource tripleSource) {
+    this.tripleSource = tripleSource;
+  }
+
+  void get(Context context) {
+    ValueFactory valueFactory = tripleSource.getValueFactory();
+    Value subject = parseTerm(context.queryParam("subject"), valueFactory);
+    Value predicate = parseTerm(context.queryParam("predicate"), valueFactory);
+    Value object = parseTerm(context.queryParam("object"), valueFactory);
+    if (!(predicate instanceof IRI)) {
+      throw new BadRequestResponse("The 'predicate' parameter is mandatory and should be an IRI");
+    }
+    if (subject != null && !(subject instanceof Resource)) {
+      throw new BadRequestResponse("The 'subject' parameter should be an IRI or a blank node");
+    }
+    String bucket = Optional.ofNullable(context.queryParam("bucket")).orElse("month");
+    ChronoUnit bucketUnit = BUCKET_UNITS.get(bucket);
+    if (bucketUnit == null) {
+      throw new BadRequestResponse("Unsupported bucket: " + bucket + ". Supported buckets are " + BUCKET_UNITS.keySet());
+    }
+
+    List<Map<String, Object>> result = new ArrayList<>();
+    tripleSource.getTripleCountHistogram((Resource) subject, (IRI) predicate, object, bucketUnit).forEach((date, count) -> {
+      Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("date", date.toString());
+      entry.put("count", count);
+      result.add(entry);
+    });
+    context.json(result);
+  }
+
+  static Value parseTerm(String term, ValueFactory valueFactory) {
+    if (term == null || term.isEmpty()) {
+      return null;
+    }
+    try {
+      if (term.startsWith("<") || term.startsWith("\"") || term.startsWith("_:")) {
+        return NTriplesUtil.parseValue(term, valueFactory);
+      } else {
+        return valueFactory.createIRI(term);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("Invalid RDF term " + term + ": " + e.getMessage());
+    }
+  }
+}
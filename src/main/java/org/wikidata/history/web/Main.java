@@ -32,6 +32,7 @@ public class Main {
     options.addOption("h", "host", true, "Host name");
     options.addOption("p", "port", true, "Name of the port to listen from");
     options.addOption("l", "logFile", true, "Name of the query log file. By default query-log.txt");
+    options.addOption("c", "cacheDir", true, "Directory where to cache query results on disk. By default results are only cached in memory");
 
     CommandLineParser parser = new DefaultParser();
     CommandLine line = parser.parse(options, args);
@@ -43,11 +44,22 @@ public class Main {
 
     RocksTripleSource tripleSource = new RocksTripleSource(indexPath);
     QueryLogger queryLogger = new QueryLogger(queryLog);
-    SparqlEndpoint sparqlEndpoint = new SparqlEndpoint(tripleSource, queryLogger);
+    Path resultCacheDir = line.hasOption("cacheDir") ? Paths.get(line.getOptionValue("cacheDir")) : null;
+    ResultCache resultCache = new ResultCache(resultCacheDir, tripleSource.getLoadGeneration());
+    SparqlEndpoint sparqlEndpoint = new SparqlEndpoint(tripleSource, queryLogger, resultCache);
+    HistogramEndpoint histogramEndpoint = new HistogramEndpoint(tripleSource);
+    EntityStateEndpoint entityStateEndpoint = new EntityStateEndpoint(tripleSource);
+    TimelineEndpoint timelineEndpoint = new TimelineEndpoint(tripleSource);
+    ActivityEndpoint activityEndpoint = new ActivityEndpoint(tripleSource);
     Javalin javalin = Javalin.create()
             .get("", ctx -> ctx.contentType("text/html").result(Main.class.getResourceAsStream("/index.html")))
             .get("/sparql", sparqlEndpoint::get)
             .post("/sparql", sparqlEndpoint::post)
+            .get("/sparql/stats", sparqlEndpoint::stats)
+            .get("/histogram", histogramEndpoint::get)
+            .get("/entity", entityStateEndpoint::get)
+            .get("/timeline", timelineEndpoint::get)
+            .get("/activity", activityEndpoint::get)
             .get("/prefixes", ctx -> ctx.contentType("application/json").result(Main.class.getResourceAsStream("/prefixes.json")))
             .start(port);
 
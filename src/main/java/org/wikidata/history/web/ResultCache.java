@@ -0,0 +1,191 @@
+package org.wikidata.history.web;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cache of serialized query results.
+ * <p>
+ * The index is read-only between loads so the results only depend on the query, the result format and the index load generation.
+ * The results are kept in memory and, if a directory is provided, on disk. The on-disk cache is emptied when the generation changes.
+ */
+final class ResultCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResultCache.class);
+  private static final long MAX_MEMORY_BYTES = 256L * 1024 * 1024;
+  private static final long MAX_DISK_BYTES = 4L * 1024 * 1024 * 1024;
+  private static final int MAX_ENTRY_BYTES = 16 * 1024 * 1024;
+  private static final String GENERATION_FILE_NAME = "generation";
+  private static final String ENTRY_SUFFIX = ".result";
+
+  private final Cache<String, byte[]> memoryCache = CacheBuilder.newBuilder()
+          .maximumWeight(MAX_MEMORY_BYTES)
+          .weigher((String key, byte[] value) -> value.length)
+          .build();
+  private final Path directory;
+  private final AtomicLong diskSize = new AtomicLong();
+
+  /**
+   * @param directory the directory of the on-disk cache, null for a memory only cache
+   */
+  ResultCache(Path directory, long generation) throws IOException {
+    this.directory = directory;
+    if (directory != null) {
+      Files.createDirectories(directory);
+      Path generationFile = directory.resolve(GENERATION_FILE_NAME);
+      String generationString = Long.toString(generation);
+      if (Files.exists(generationFile) && Files.readString(generationFile).equals(generationString)) {
+        diskSize.set(listEntries().stream().mapToLong(ResultCache::sizeOf).sum());
+      } else {
+        LOGGER.info("The index changed, clearing the result cache in " + directory);
+        for (Path entry : listEntries()) {
+          Files.deleteIfExists(entry);
+        }
+        Files.writeString(generationFile, generationString);
+      }
+    }
+  }
+
+  Optional<InputStream> get(String key) {
+    byte[] result = memoryCache.getIfPresent(key);
+    if (result != null) {
+      return Optional.of(new ByteArrayInputStream(result));
+    }
+    if (directory != null) {
+      Path file = entryFile(key);
+      try {
+        InputStream inputStream = Files.newInputStream(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        return Optional.of(inputStream);
+      } catch (NoSuchFileException e) {
+        return Optional.empty();
+      } catch (IOException e) {
+        LOGGER.warn("Not able to read the cached result " + file, e);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Wraps the output of a query evaluation: the written bytes are saved in the cache if {@link CachingOutputStream#commit()} is called
+   */
+  CachingOutputStream newEntry(String key, OutputStream output) {
+    return new CachingOutputStream(key, output);
+  }
+
+  private void put(String key, byte[] value) {
+    memoryCache.put(key, value);
+    if (directory != null) {
+      Path file = entryFile(key);
+      try {
+        Path temporaryFile = Files.createTempFile(directory, null, ".tmp");
+        Files.write(temporaryFile, value);
+        long previousSize = Files.exists(file) ? sizeOf(file) : 0;
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (diskSize.addAndGet(value.length - previousSize) > MAX_DISK_BYTES) {
+          evictFromDisk();
+        }
+      } catch (IOException e) {
+        LOGGER.warn("Not able to write the cached result " + file, e);
+      }
+    }
+  }
+
+  private synchronized void evictFromDisk() throws IOException {
+    // We remove the least recently used entries until the cache is 90% full
+    List<Path> entries = listEntries();
+    entries.sort(Comparator.comparing(ResultCache::lastModifiedTime));
+    for (Path entry : entries) {
+      if (diskSize.get() <= MAX_DISK_BYTES * 9 / 10) {
+        return;
+      }
+      long size = sizeOf(entry);
+      if (Files.deleteIfExists(entry)) {
+        diskSize.addAndGet(-size);
+      }
+    }
+  }
+
+  private Path entryFile(String key) {
+    return directory.resolve(Hashing.sha256().hashString(key, StandardCharsets.UTF_8) + ENTRY_SUFFIX);
+  }
+
+  private List<Path> listEntries() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().endsWith(ENTRY_SUFFIX)).collect(Collectors.toList());
+    }
+  }
+
+  private static long sizeOf(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static FileTime lastModifiedTime(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  final class CachingOutputStream extends FilterOutputStream {
+    private final String key;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private CachingOutputStream(String key, OutputStream output) {
+      super(output);
+      this.key = key;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      if (buffer != null) {
+        buffer.write(b);
+        checkBufferSize();
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      if (buffer != null) {
+        buffer.write(b, off, len);
+        checkBufferSize();
+      }
+    }
+
+    private void checkBufferSize() {
+      if (buffer.size() > MAX_ENTRY_BYTES) {
+        buffer = null; // Too big to be cached
+      }
+    }
+
+    /**
+     * Saves the written bytes in the cache. To call only when the full result has been written successfully.
+     */
+    void commit() {
+      if (buffer != null) {
+        put(key, buffer.toByteArray());
+        buffer = null;
+      }
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package org.wikidata.history.web;
 
+import com.google.common.cache.CacheStats;
 import io.javalin.core.util.Header;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
@@ -17,10 +18,8 @@ import org.eclipse.rdf4j.model.impl.TreeModel;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.SD;
 import org.eclipse.rdf4j.query.*;
-import org.eclipse.rdf4j.query.algebra.evaluation.QueryPreparer;
 import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 import org.eclipse.rdf4j.query.parser.*;
-import org.eclipse.rdf4j.query.parser.sparql.SPARQLParser;
 import org.eclipse.rdf4j.query.resultio.BooleanQueryResultWriterFactory;
 import org.eclipse.rdf4j.query.resultio.BooleanQueryResultWriterRegistry;
 import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterFactory;
@@ -30,14 +29,19 @@ import org.eclipse.rdf4j.rio.RDFWriterRegistry;
 import org.eclipse.rdf4j.rio.Rio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wikidata.history.sparql.ParsedQueryCache;
 import org.wikidata.history.sparql.SimpleQueryPreparer;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.BiConsumer;
@@ -47,14 +51,16 @@ class SparqlEndpoint {
   private static final int QUERY_TIMOUT_IN_S = 60 * 5;
   private static final Logger LOGGER = LoggerFactory.getLogger(SparqlEndpoint.class);
 
-  private final QueryParser queryParser = new SPARQLParser();
-  private final QueryPreparer queryPreparer;
+  private final ParsedQueryCache queryParser = new ParsedQueryCache();
+  private final SimpleQueryPreparer queryPreparer;
   private final ExecutorService executorService = Executors.newCachedThreadPool();
   private final QueryLogger queryLogger;
+  private final ResultCache resultCache;
 
-  SparqlEndpoint(TripleSource tripleSource, QueryLogger queryLogger) {
+  SparqlEndpoint(TripleSource tripleSource, QueryLogger queryLogger, ResultCache resultCache) {
     queryPreparer = new SimpleQueryPreparer(tripleSource);
     this.queryLogger = queryLogger;
+    this.resultCache = resultCache;
   }
 
   void get(Context context) {
@@ -85,8 +91,25 @@ class SparqlEndpoint {
     }
   }
 
+  void stats(Context context) {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("parsedQueryCache", cacheStats(queryParser.getStats(), queryParser.getSize()));
+    stats.put("planCache", cacheStats(queryPreparer.getPlanCacheStats(), queryPreparer.getPlanCacheSize()));
+    context.json(stats);
+  }
+
+  private static Map<String, Object> cacheStats(CacheStats stats, long size) {
+    Map<String, Object> result = new HashMap<>();
+    result.put("size", size);
+    result.put("hitCount", stats.hitCount());
+    result.put("missCount", stats.missCount());
+    result.put("hitRate", stats.hitRate());
+    result.put("evictionCount", stats.evictionCount());
+    return result;
+  }
+
   private void executeDescription(Context context) {
-    outputWithFormat(RDFWriterRegistry.getInstance(), context, (service, outputStream) ->
+    outputWithFormat(RDFWriterRegistry.getInstance(), context, null, (service, outputStream) ->
             Rio.write(getServiceDescription(), service.getWriter(outputStream))
     );
   }
@@ -98,21 +121,22 @@ class SparqlEndpoint {
     } catch (MalformedQueryException e) {
       throw new BadRequestResponse(e.getMessage());
     }
-    queryLogger.logQuery(parsedQuery.getSourceString());
+    queryLogger.logQuery(query);
+    String cacheKey = SimpleQueryPreparer.isDeterministic(parsedQuery.getTupleExpr()) ? ParsedQueryCache.normalizeQuery(query) : null;
     if (parsedQuery instanceof ParsedBooleanQuery) {
-      evaluateBooleanQuery((ParsedBooleanQuery) parsedQuery, context);
+      evaluateBooleanQuery((ParsedBooleanQuery) parsedQuery, context, cacheKey);
     } else if (parsedQuery instanceof ParsedGraphQuery) {
-      evaluateGraphQuery((ParsedGraphQuery) parsedQuery, context);
+      evaluateGraphQuery((ParsedGraphQuery) parsedQuery, context, cacheKey);
     } else if (parsedQuery instanceof ParsedTupleQuery) {
-      evaluateTupleQuery((ParsedTupleQuery) parsedQuery, context);
+      evaluateTupleQuery((ParsedTupleQuery) parsedQuery, context, cacheKey);
     } else {
       throw new BadRequestResponse("Unsupported kind of query: " + parsedQuery);
     }
 
   }
 
-  private void evaluateBooleanQuery(ParsedBooleanQuery parsedQuery, Context context) {
-    outputWithFormat(BooleanQueryResultWriterRegistry.getInstance(), context, (service, outputStream) -> {
+  private void evaluateBooleanQuery(ParsedBooleanQuery parsedQuery, Context context, String cacheKey) {
+    outputWithFormat(BooleanQueryResultWriterRegistry.getInstance(), context, cacheKey, (service, outputStream) -> {
               try {
                 BooleanQuery query = queryPreparer.prepare(parsedQuery);
                 query.setMaxExecutionTime(QUERY_TIMOUT_IN_S);
@@ -125,8 +149,8 @@ class SparqlEndpoint {
     );
   }
 
-  private void evaluateGraphQuery(ParsedGraphQuery parsedQuery, Context context) {
-    outputWithFormat(RDFWriterRegistry.getInstance(), context, (service, outputStream) -> {
+  private void evaluateGraphQuery(ParsedGraphQuery parsedQuery, Context context, String cacheKey) {
+    outputWithFormat(RDFWriterRegistry.getInstance(), context, cacheKey, (service, outputStream) -> {
       try {
         GraphQuery query = queryPreparer.prepare(parsedQuery);
         query.setMaxExecutionTime(QUERY_TIMOUT_IN_S);
@@ -138,8 +162,8 @@ class SparqlEndpoint {
     });
   }
 
-  private void evaluateTupleQuery(ParsedTupleQuery parsedQuery, Context context) {
-    outputWithFormat(TupleQueryResultWriterRegistry.getInstance(), context, (service, outputStream) -> {
+  private void evaluateTupleQuery(ParsedTupleQuery parsedQuery, Context context, String cacheKey) {
+    outputWithFormat(TupleQueryResultWriterRegistry.getInstance(), context, cacheKey, (service, outputStream) -> {
       try {
         TupleQuery query = queryPreparer.prepare(parsedQuery);
         query.setMaxExecutionTime(QUERY_TIMOUT_IN_S);
@@ -151,7 +175,10 @@ class SparqlEndpoint {
     });
   }
 
-  private <FF extends FileFormat, S> void outputWithFormat(FileFormatServiceRegistry<FF, S> writerRegistry, Context context, BiConsumer<S, OutputStream> addToOutput) {
+  /**
+   * @param cacheKey the key of the output in the result cache, null if it should not be cached
+   */
+  private <FF extends FileFormat, S> void outputWithFormat(FileFormatServiceRegistry<FF, S> writerRegistry, Context context, String cacheKey, BiConsumer<S, OutputStream> addToOutput) {
     List<String> accepted = writerRegistry.getKeys().stream().flatMap(k -> k.getMIMETypes().stream()).collect(Collectors.toList());
     String mimeType;
     try {
@@ -170,14 +197,29 @@ class SparqlEndpoint {
       return new InternalServerErrorResponse("Unable to write " + fileFormat);
     });
 
+    String resultKey = (cacheKey == null) ? null : mimeType + "\n" + cacheKey;
+    if (resultKey != null) {
+      Optional<InputStream> cachedResult = resultCache.get(resultKey);
+      if (cachedResult.isPresent()) {
+        context.contentType(mimeType);
+        context.result(cachedResult.get());
+        return;
+      }
+    }
+
     try {
-      PipedOutputStream outputStream = new PipedOutputStream();
-      PipedInputStream inputStream = new PipedInputStream(outputStream);
+      PipedOutputStream pipedOutputStream = new PipedOutputStream();
+      PipedInputStream inputStream = new PipedInputStream(pipedOutputStream);
+      ResultCache.CachingOutputStream cachingOutputStream = (resultKey == null) ? null : resultCache.newEntry(resultKey, pipedOutputStream);
+      OutputStream outputStream = (cachingOutputStream == null) ? pipedOutputStream : cachingOutputStream;
       context.contentType(mimeType);
       context.result(inputStream);
       executorService.submit(() -> {
         try {
           addToOutput.accept(service, outputStream);
+          if (cachingOutputStream != null) {
+            cachingOutputStream.commit();
+          }
         } catch (HttpResponseException e) {
           try {
             context.status(e.getStatus());
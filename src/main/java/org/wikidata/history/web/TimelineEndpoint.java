@@ -0,0 +1,45 @@
+package org.wikidata.history.web;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.wikidata.history.sparql.EntityRevision;
+import org.wikidata.history.sparql.RocksTripleSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Returns the revisions of an entity with their date, contributor and number of added and removed triples.
+ * <p>
+ * Parameter: entity (mandatory) as an IRI or N-Triples term.
+ */
+class TimelineEndpoint {
+  private final RocksTripleSource tripleSource;
+
+  TimelineEndpoint(RocksTripleSource tripleSource) {
+    this.tripleSource = tripleSource;
+  }
+
+  void get(Context context) {
+    Value entity = HistogramEndpoint.parseTerm(context.queryParam("entity"), tripleSource.getValueFactory());
+    if (!(entity instanceof Resource)) {
+      throw new BadRequestResponse("The 'entity' parameter is mandatory and should be an IRI");
+    }
+
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (EntityRevision revision : tripleSource.getEntityTimeline((Resource) entity)) {
+      Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("revision", revision.getRevisionId());
+      entry.put("date", (revision.getDate() == null) ? null : revision.getDate().toString());
+      entry.put("contributor", revision.getContributor());
+      entry.put("additions", revision.getInsertionCount());
+      entry.put("deletions", revision.getDeletionCount());
+      result.add(entry);
+    }
+    context.json(result);
+  }
+}
@@ -0,0 +1,73 @@
+package org.wikidata.history.preprocessor;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class ParallelBZip2InputStreamTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @AfterEach
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  @Test
+  void testMultipleBlocks() throws IOException {
+    byte[] data = randomText(1_000_000, 1);
+    Assertions.assertArrayEquals(data, decompress(compress(data)));
+  }
+
+  @Test
+  void testConcatenatedStreams() throws IOException {
+    byte[] first = randomText(300_000, 2);
+    byte[] second = randomText(10, 3);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    compressed.write(compress(first));
+    compressed.write(compress(second));
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(first);
+    expected.write(second);
+    Assertions.assertArrayEquals(expected.toByteArray(), decompress(compressed.toByteArray()));
+  }
+
+  @Test
+  void testEmpty() throws IOException {
+    Assertions.assertArrayEquals(new byte[]{}, decompress(compress(new byte[]{})));
+  }
+
+  private byte[] decompress(byte[] compressed) throws IOException {
+    try (InputStream input = new ParallelBZip2InputStream(new ByteArrayInputStream(compressed), executor, 3)) {
+      return input.readAllBytes();
+    }
+  }
+
+  private static byte[] compress(byte[] data) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream output = new BZip2CompressorOutputStream(compressed, 1)) {
+      output.write(data);
+    }
+    return compressed.toByteArray();
+  }
+
+  private static byte[] randomText(int length, long seed) {
+    Random random = new Random(seed);
+    StringBuilder builder = new StringBuilder(length);
+    while (builder.length() < length) {
+      builder.append(Integer.toString(random.nextInt(100_000), 36)).append(' ');
+    }
+    return builder.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,57 @@
+package org.wikidata.history.preprocessor;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+class PreprocessedSegmentsTest {
+
+  @Test
+  void testSegments() throws IOException, InterruptedException {
+    Path dumps = Files.createTempDirectory(null);
+    Path directory = Files.createTempDirectory(null);
+    Path dumpFile = dumps.resolve("dump-p1p2.xml.bz2");
+    try (
+            InputStream input = getClass().getResourceAsStream("/dump_file_sample.xml");
+            OutputStream output = new BZip2CompressorOutputStream(Files.newOutputStream(dumpFile))
+    ) {
+      IOUtils.copy(input, output);
+    }
+    // Leftovers of an interrupted run
+    Files.createFile(directory.resolve("partial-revisions-dump-p3p4.xml-shard0.tsv.gz"));
+    Files.createFile(directory.resolve("triples-dump-p3p4.xml-shard0.tsv.gz"));
+    Files.createFile(directory.resolve("revisions-dump-p3p4.xml-shard1.tsv.gz"));
+
+    PreprocessedSegments segments = new PreprocessedSegments(directory, 2, true, WikidataSitesTest.fromSampleDump(), WikidataPropertyInformationTest.fromSampleDump(), -1);
+    Assertions.assertFalse(segments.isComplete(dumpFile));
+    Assertions.assertEquals(List.of(), PreprocessedSegments.listFiles(directory, "revisions"));
+    Assertions.assertEquals(List.of(), PreprocessedSegments.listFiles(directory, "triples"));
+    segments.process(dumpFile);
+    Assertions.assertTrue(segments.isComplete(dumpFile));
+    Assertions.assertEquals(List.of(
+            directory.resolve("revisions-dump-p1p2.xml-shard0.tsv.gz"),
+            directory.resolve("revisions-dump-p1p2.xml-shard1.tsv.gz")
+    ), PreprocessedSegments.listFiles(directory, "revisions"));
+    Assertions.assertEquals(List.of(
+            directory.resolve("triples-dump-p1p2.xml-shard0.bin"),
+            directory.resolve("triples-dump-p1p2.xml-shard1.bin")
+    ), PreprocessedSegments.listFiles(directory, "triples"));
+
+    // A new conversion replaces all the shards of the previous one
+    new PreprocessedSegments(directory, 1, false, WikidataSitesTest.fromSampleDump(), WikidataPropertyInformationTest.fromSampleDump(), -1).process(dumpFile);
+    Assertions.assertEquals(List.of(directory.resolve("revisions-dump-p1p2.xml-shard0.tsv.gz")), PreprocessedSegments.listFiles(directory, "revisions"));
+    Assertions.assertEquals(List.of(directory.resolve("triples-dump-p1p2.xml-shard0.tsv.gz")), PreprocessedSegments.listFiles(directory, "triples"));
+    try (Stream<Path> files = Files.list(directory)) {
+      Assertions.assertEquals(2, files.count());
+    }
+  }
+}
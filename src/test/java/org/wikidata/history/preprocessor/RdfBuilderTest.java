@@ -1,5 +1,6 @@
 package org.wikidata.history.preprocessor;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.rdf4j.model.*;
 import org.eclipse.rdf4j.model.impl.LinkedHashModel;
@@ -13,18 +14,22 @@ import org.junit.jupiter.api.Test;
 import org.wikidata.wdtk.datamodel.helpers.Datamodel;
 import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
 import org.wikidata.wdtk.datamodel.implementation.EntityDocumentImpl;
+import org.wikidata.wdtk.datamodel.implementation.SitesImpl;
 import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
 import org.wikidata.wdtk.datamodel.interfaces.Sites;
 import org.wikidata.wdtk.dumpfiles.DumpProcessingController;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
 class RdfBuilderTest {
 
-  private static final ObjectMapper OBJECT_MAPPER = new DatamodelMapper(Datamodel.SITE_WIKIDATA);
+  private static final ObjectMapper OBJECT_MAPPER = new DatamodelMapper(Datamodel.SITE_WIKIDATA)
+          .enable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
   private static final List<String> HASHED_NAMESPACES = Arrays.asList(
           "http://www.wikidata.org/value/",
           "http://www.wikidata.org/reference/"
@@ -34,8 +39,9 @@ class RdfBuilderTest {
   private final WikidataPropertyInformation PROPERTY_INFORMATION;
 
   RdfBuilderTest() throws IOException {
-    sites = (new DumpProcessingController("wikidatawiki")).getSitesInformation();
-    PROPERTY_INFORMATION = new WikidataPropertyInformation();
+    Sites downloadedSites = (new DumpProcessingController("wikidatawiki")).getSitesInformation();
+    sites = (downloadedSites == null) ? makeTestSites() : downloadedSites;
+    PROPERTY_INFORMATION = WikidataPropertyInformationTest.fromSampleDump();
   }
 
   @Test
@@ -45,6 +51,7 @@ class RdfBuilderTest {
     testEntityConversion("Q6");
     testEntityConversion("Q7");
     //TODO: date normalization testEntityConversion("Q8");
+    testJsonConversion(readEntityJson("Q8"));
   }
 
   @Test
@@ -53,8 +60,28 @@ class RdfBuilderTest {
     testEntityConversion("P3");
   }
 
+  @Test
+  void testJsonConversion() throws IOException {
+    // The fields before the id and the type and the empty maps serialized as arrays
+    testJsonConversion("{\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"foo\"}},\"aliases\":{\"en\":[{\"language\":\"en\",\"value\":\"bar\"}]}," +
+            "\"descriptions\":[],\"claims\":[],\"lastrevid\":12,\"datatype\":\"string\",\"id\":\"P2\",\"type\":\"property\"}");
+  }
+
+  /**
+   * The sites of the test entities, used when the sites table could not be downloaded
+   */
+  private static Sites makeTestSites() {
+    SitesImpl sites = new SitesImpl();
+    for (String language : new String[]{"en", "ru"}) {
+      sites.setSiteInformation(language + "wiki", "wikipedia", language, "mediawiki",
+              "https://" + language + ".wikipedia.org/w/$1", "https://" + language + ".wikipedia.org/wiki/$1");
+    }
+    return sites;
+  }
+
   private void testEntityConversion(String entityId) throws IOException {
-    EntityDocument entity = OBJECT_MAPPER.readValue(getClass().getResource("/entities/" + entityId + ".json"), EntityDocumentImpl.class);
+    String json = readEntityJson(entityId);
+    EntityDocument entity = OBJECT_MAPPER.readValue(json, EntityDocumentImpl.class);
     Model expected = makeHashedBlankNodes(Rio.parse(getClass().getResourceAsStream("/rdf/" + entityId + ".nt"), "", RDFFormat.NTRIPLES));
     ModelRdfOutput output = new ModelRdfOutput();
     RdfBuilder rdfBuilder = new RdfBuilder(output, sites, PROPERTY_INFORMATION);
@@ -63,6 +90,35 @@ class RdfBuilderTest {
     if (!Models.isomorphic(expected, actual)) {
       Assertions.fail("Mapping failed." + diff(expected, actual));
     }
+
+    // The second conversion only uses cached fragments
+    RdfBuilder.FragmentCache fragmentCache = new RdfBuilder.FragmentCache();
+    for (int i = 0; i < 2; i++) {
+      ModelRdfOutput cachedOutput = new ModelRdfOutput();
+      new RdfBuilder(cachedOutput, sites, PROPERTY_INFORMATION, fragmentCache).addEntityDocument(entity);
+      Assertions.assertEquals(output.getModel(), cachedOutput.getModel());
+    }
+
+    testJsonConversion(json);
+  }
+
+  /**
+   * Checks that the streaming front end gives the same triples as the Wikidata Toolkit model one
+   */
+  private void testJsonConversion(String json) throws IOException {
+    ModelRdfOutput expected = new ModelRdfOutput();
+    new RdfBuilder(expected, sites, PROPERTY_INFORMATION).addEntityDocument(OBJECT_MAPPER.readValue(json, EntityDocumentImpl.class));
+    ModelRdfOutput actual = new ModelRdfOutput();
+    new RdfBuilder(actual, sites, PROPERTY_INFORMATION).addEntityJson(json);
+    if (!Models.isomorphic(expected.getModel(), actual.getModel())) {
+      Assertions.fail("The streaming conversion failed." + diff(expected.getModel(), actual.getModel()));
+    }
+  }
+
+  private String readEntityJson(String entityId) throws IOException {
+    try (InputStream input = getClass().getResourceAsStream("/entities/" + entityId + ".json")) {
+      return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+    }
   }
 
   private Model makeHashedBlankNodes(Model model) {
@@ -2,6 +2,7 @@ package org.wikidata.history.preprocessor;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.ArrayUtils;
 import org.eclipse.rdf4j.model.*;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
@@ -16,7 +17,10 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 class RevisionFileConverterTest {
@@ -60,11 +64,123 @@ class RevisionFileConverterTest {
   @Test
   void test() throws IOException, InterruptedException {
     ListHistoryOutput output = new ListHistoryOutput();
-    RevisionFileConverter revisionFileConverter = new RevisionFileConverter(output);
-    revisionFileConverter.process(makeDumpFile());
+    RevisionFileConverter revisionFileConverter = new RevisionFileConverter(WikidataSitesTest.fromSampleDump(), WikidataPropertyInformationTest.fromSampleDump());
+    revisionFileConverter.process(makeDumpFile(), output);
     assertMapEquals(EXPECTED_TRIPLES, output.triples);
   }
 
+  @Test
+  void testIncremental() throws IOException, InterruptedException {
+    ListHistoryOutput output = new ListHistoryOutput();
+    RevisionFileConverter revisionFileConverter = new RevisionFileConverter(WikidataSitesTest.fromSampleDump(), WikidataPropertyInformationTest.fromSampleDump(), 9);
+    revisionFileConverter.process(makeDumpFile(), output);
+
+    // Only the triples there at revision 9 or added later are written, starting at revision 9 at the earliest
+    ValueFactory vf = SimpleValueFactory.getInstance();
+    IRI q1 = vf.createIRI(Vocabulary.WD_NAMESPACE, "Q1");
+    Map<Statement, long[]> expected = new HashMap<>();
+    expected.put(vf.createStatement(q1, RDF.TYPE, vf.createIRI(Vocabulary.WB_NAMESPACE, "Item")), new long[]{9, Long.MAX_VALUE});
+    expected.put(vf.createStatement(q1, RDFS.LABEL, vf.createLiteral("foo", "fr")), new long[]{9, Long.MAX_VALUE});
+    expected.put(vf.createStatement(q1, RDFS.LABEL, vf.createLiteral("foo", "en")), new long[]{9, Long.MAX_VALUE});
+    expected.put(vf.createStatement(q1, RDFS.LABEL, vf.createLiteral("bar", "de")), new long[]{11, Long.MAX_VALUE});
+    expected.put(vf.createStatement(q1, RDFS.LABEL, vf.createLiteral("foo", "es")), new long[]{9, Long.MAX_VALUE});
+    assertMapEquals(expected, output.triples);
+    Assertions.assertEquals(List.of(11L), output.revisionIds);
+
+    // The pages without changes are skipped
+    ListHistoryOutput emptyOutput = new ListHistoryOutput();
+    new RevisionFileConverter(WikidataSitesTest.fromSampleDump(), WikidataPropertyInformationTest.fromSampleDump(), 11).process(makeDumpFile(), emptyOutput);
+    Assertions.assertEquals(Map.of(), emptyOutput.triples);
+    Assertions.assertEquals(List.of(), emptyOutput.revisionIds);
+  }
+
+  @Test
+  void testOutputFailure() throws IOException {
+    RevisionFileConverter revisionFileConverter = new RevisionFileConverter(WikidataSitesTest.fromSampleDump(), WikidataPropertyInformationTest.fromSampleDump());
+    Path dumpFile = makeDumpFile();
+    Assertions.assertThrows(IOException.class, () -> revisionFileConverter.process(dumpFile, new ListHistoryOutput() {
+      @Override
+      public synchronized void addTriple(Resource subject, IRI predicate, Value object, long... revisionIds) throws IOException {
+        throw new IOException("disk full");
+      }
+    }));
+  }
+
+  @Test
+  void testDamagedDumpFile() throws IOException {
+    RevisionFileConverter revisionFileConverter = new RevisionFileConverter(WikidataSitesTest.fromSampleDump(), WikidataPropertyInformationTest.fromSampleDump());
+
+    // The bzip2 stream is cut
+    Path dumpFile = makeDumpFile();
+    byte[] content = Files.readAllBytes(dumpFile);
+    Files.write(dumpFile, Arrays.copyOf(content, content.length / 2));
+    Assertions.assertThrows(IOException.class, () -> revisionFileConverter.process(dumpFile, new ListHistoryOutput()));
+
+    // The XML is cut
+    Path xmlFile = Files.createTempFile("foo", ".xml.bz2");
+    try (
+            InputStream input = getClass().getResourceAsStream("/dump_file_sample.xml");
+            OutputStream output = new BZip2CompressorOutputStream(Files.newOutputStream(xmlFile))
+    ) {
+      byte[] xml = IOUtils.toByteArray(input);
+      output.write(xml, 0, xml.length - 100);
+    }
+    Assertions.assertThrows(IOException.class, () -> revisionFileConverter.process(xmlFile, new ListHistoryOutput()));
+  }
+
+  @Test
+  void testPageHistory() throws IOException {
+    ValueFactory vf = SimpleValueFactory.getInstance();
+    IRI q1 = vf.createIRI(Vocabulary.WD_NAMESPACE, "Q1");
+    Literal a = vf.createLiteral("a");
+    Literal b = vf.createLiteral("b");
+
+    ListHistoryOutput output = new ListHistoryOutput();
+    RevisionFileConverter.PageHistory history = new RevisionFileConverter.PageHistory(output);
+    history.addRevision(2, labels(q1, a, b));
+    history.addRevision(3, labels(q1, a));
+    history.addRevision(5, null);
+    history.addRevision(7, labels(q1, a, b));
+    history.addRevision(8, labels(q1, b));
+    history.addRevision(6, labels(q1)); // Not sorted
+
+    // The closed ranges are written as soon as they are closed and only the open ones are kept
+    Assertions.assertArrayEquals(new long[]{2, 8}, output.triples.get(vf.createStatement(q1, RDFS.LABEL, a)));
+    Assertions.assertArrayEquals(new long[]{2, 3}, output.triples.get(vf.createStatement(q1, RDFS.LABEL, b)));
+    Assertions.assertEquals(-1, history.getOpenRangeStart(q1, RDFS.LABEL, a));
+    Assertions.assertEquals(7, history.getOpenRangeStart(q1, RDFS.LABEL, b));
+    Assertions.assertEquals(-1, history.getOpenRangeStart(q1, RDFS.LABEL, vf.createLiteral("c")));
+  }
+
+  @Test
+  void testPageHistoryBaseRevision() throws IOException {
+    ValueFactory vf = SimpleValueFactory.getInstance();
+    IRI q1 = vf.createIRI(Vocabulary.WD_NAMESPACE, "Q1");
+    Literal a = vf.createLiteral("a");
+    Literal b = vf.createLiteral("b");
+
+    // The last valid revision before the base revision is used if the last one is not valid
+    RevisionFileConverter.PageHistory history = new RevisionFileConverter.PageHistory(new ListHistoryOutput());
+    history.addBaseRevision(9, labels(q1, a));
+    history.addBaseRevision(9, null);
+    history.addRevision(11, labels(q1, a, b));
+    Assertions.assertEquals(9, history.getOpenRangeStart(q1, RDFS.LABEL, a));
+    Assertions.assertEquals(11, history.getOpenRangeStart(q1, RDFS.LABEL, b));
+
+    // The page fails if there is no valid base revision
+    RevisionFileConverter.PageHistory invalidHistory = new RevisionFileConverter.PageHistory(new ListHistoryOutput());
+    invalidHistory.addBaseRevision(9, null);
+    Assertions.assertThrows(IllegalStateException.class, () -> invalidHistory.addRevision(11, labels(q1, a)));
+  }
+
+  private static RevisionFileConverter.SetRdfOutput labels(IRI subject, Literal... labels) {
+    RevisionFileConverter.SetRdfOutput output = new RevisionFileConverter.SetRdfOutput();
+    for (Literal label : labels) {
+      output.outputStatement(subject, RDFS.LABEL, label);
+    }
+    return output;
+  }
+
   private Path makeDumpFile() throws IOException {
     Path file = Files.createTempFile("foo", ".xml.bz2");
     try (
@@ -77,17 +193,22 @@ class RevisionFileConverterTest {
     return file;
   }
 
-  private static final class ListHistoryOutput implements HistoryOutput {
+  private static class ListHistoryOutput implements HistoryOutput {
 
     private final Map<Statement, long[]> triples = new HashMap<>();
+    private final List<Long> revisionIds = new ArrayList<>();
 
     @Override
-    public void addRevision(long revisionId, long parentRevisionId, String entityId, Instant timestamp, String contributorName, String comment) {
+    public synchronized void addRevision(long revisionId, long parentRevisionId, String entityId, Instant timestamp, String contributorName, String comment) {
+      revisionIds.add(revisionId);
     }
 
+    /**
+     * The ranges of a triple written several times are appended, the closed ones being written first
+     */
     @Override
-    public void addTriple(Resource subject, IRI predicate, Value object, long... revisionIds) {
-      triples.put(SimpleValueFactory.getInstance().createStatement(subject, predicate, object), revisionIds);
+    public synchronized void addTriple(Resource subject, IRI predicate, Value object, long... revisionIds) throws IOException {
+      triples.merge(SimpleValueFactory.getInstance().createStatement(subject, predicate, object), revisionIds, ArrayUtils::addAll);
     }
 
     @Override
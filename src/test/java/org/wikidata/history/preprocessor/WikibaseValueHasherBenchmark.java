@@ -0,0 +1,91 @@
+package org.wikidata.history.preprocessor;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.helpers.DatamodelMapper;
+import org.wikidata.wdtk.datamodel.implementation.EntityDocumentImpl;
+import org.wikidata.wdtk.datamodel.interfaces.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes the values and references of the test entities like the conversion of a revision of each of them does, with and without cache.
+ * <p>
+ * Run it with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.wikidata.history.preprocessor.WikibaseValueHasherBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WikibaseValueHasherBenchmark {
+  private static final String[] ENTITIES = new String[]{"Q4", "Q6", "Q7", "Q8"};
+  private static final ObjectMapper OBJECT_MAPPER = new DatamodelMapper(Datamodel.SITE_WIKIDATA)
+          .enable(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+
+  private final List<Value> values = new ArrayList<>();
+  private final List<Reference> references = new ArrayList<>();
+  private WikibaseValueHasher cachedHasher;
+  private WikibaseValueHasher uncachedHasher;
+
+  @Setup
+  public void setup() throws IOException {
+    for (String entityId : ENTITIES) {
+      try (InputStream input = getClass().getResourceAsStream("/entities/" + entityId + ".json")) {
+        EntityDocument entity = OBJECT_MAPPER.readValue(input, EntityDocumentImpl.class);
+        if (entity instanceof StatementDocument) {
+          ((StatementDocument) entity).getAllStatements().forEachRemaining(statement -> {
+            addValue(statement.getMainSnak());
+            statement.getAllQualifiers().forEachRemaining(this::addValue);
+            for (Reference reference : statement.getReferences()) {
+              references.add(reference);
+              reference.getAllSnaks().forEachRemaining(this::addValue);
+            }
+          });
+        }
+      }
+    }
+    cachedHasher = new WikibaseValueHasher();
+    uncachedHasher = new WikibaseValueHasher(0);
+  }
+
+  private void addValue(Snak snak) {
+    if (snak instanceof ValueSnak) {
+      values.add(((ValueSnak) snak).getValue());
+    }
+  }
+
+  @Benchmark
+  public void cached(Blackhole blackhole) {
+    hashAll(cachedHasher, blackhole);
+  }
+
+  @Benchmark
+  public void uncached(Blackhole blackhole) {
+    hashAll(uncachedHasher, blackhole);
+  }
+
+  private void hashAll(WikibaseValueHasher hasher, Blackhole blackhole) {
+    for (Value value : values) {
+      blackhole.consume(hasher.hash(value));
+    }
+    for (Reference reference : references) {
+      blackhole.consume(hasher.hash(reference));
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(WikibaseValueHasherBenchmark.class.getSimpleName()).build()).run();
+  }
+}
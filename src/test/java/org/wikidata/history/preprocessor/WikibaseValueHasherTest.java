@@ -0,0 +1,54 @@
+package org.wikidata.history.preprocessor;
+
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.Reference;
+import org.wikidata.wdtk.datamodel.interfaces.SnakGroup;
+import org.wikidata.wdtk.datamodel.interfaces.Value;
+
+import java.util.List;
+
+class WikibaseValueHasherTest {
+
+  private static final PropertyIdValue P1 = Datamodel.makeWikidataPropertyIdValue("P1");
+  private static final PropertyIdValue P2 = Datamodel.makeWikidataPropertyIdValue("P2");
+
+  @Test
+  void testCachedHashes() {
+    WikibaseValueHasher cachedHasher = new WikibaseValueHasher(1);
+    WikibaseValueHasher uncachedHasher = new WikibaseValueHasher(0);
+
+    Value value = Datamodel.makeStringValue("foo");
+    String valueHash = uncachedHasher.hash(value);
+    Assertions.assertEquals(40, valueHash.length());
+    Assertions.assertEquals(valueHash, cachedHasher.hash(value));
+    Assertions.assertEquals(valueHash, cachedHasher.hash(Datamodel.makeStringValue("foo")));
+    Assertions.assertNotEquals(valueHash, cachedHasher.hash(Datamodel.makeStringValue("bar")));
+    Assertions.assertEquals(valueHash, cachedHasher.hash(value)); // Evicted and computed again
+
+    Assertions.assertEquals(
+            uncachedHasher.hash(SimpleValueFactory.getInstance().createIRI("http://example.com/s"), P1),
+            cachedHasher.hash(SimpleValueFactory.getInstance().createIRI("http://example.com/s"), P1)
+    );
+  }
+
+  @Test
+  void testReferenceSnakOrder() {
+    WikibaseValueHasher hasher = new WikibaseValueHasher();
+    Reference reference = makeReference(false);
+    String hash = hasher.hash(reference);
+    Assertions.assertEquals(hash, hasher.hash(makeReference(true)));
+    Assertions.assertEquals(hash, new WikibaseValueHasher(0).hash(reference));
+    // The reference is not modified
+    Assertions.assertEquals(P2, reference.getSnakGroups().get(0).getProperty());
+  }
+
+  private static Reference makeReference(boolean sorted) {
+    SnakGroup p1Group = Datamodel.makeSnakGroup(List.of(Datamodel.makeValueSnak(P1, Datamodel.makeStringValue("a"))));
+    SnakGroup p2Group = Datamodel.makeSnakGroup(List.of(Datamodel.makeValueSnak(P2, Datamodel.makeStringValue("b"))));
+    return Datamodel.makeReference(sorted ? List.of(p1Group, p2Group) : List.of(p2Group, p1Group));
+  }
+}
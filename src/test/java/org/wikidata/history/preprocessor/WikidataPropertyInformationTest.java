@@ -0,0 +1,65 @@
+package org.wikidata.history.preprocessor;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.DatatypeIdValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class WikidataPropertyInformationTest {
+
+  @Test
+  void testFromDumps() throws IOException {
+    assertSampleInformation(fromSampleDump());
+  }
+
+  @Test
+  void testSaveAndLoad() throws IOException {
+    Path file = Files.createTempFile("properties", ".tsv.gz");
+    fromSampleDump().save(file);
+    assertSampleInformation(WikidataPropertyInformation.load(file));
+  }
+
+  /**
+   * @return the information about the properties used by the test entities, without querying the Wikidata Query Service
+   */
+  static WikidataPropertyInformation fromSampleDump() throws IOException {
+    Path file = Files.createTempFile("properties", ".xml.bz2");
+    try (
+            InputStream input = WikidataPropertyInformationTest.class.getResourceAsStream("/property_dump_sample.xml");
+            OutputStream output = new BZip2CompressorOutputStream(Files.newOutputStream(file))
+    ) {
+      IOUtils.copy(input, output);
+    }
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      return WikidataPropertyInformation.fromDumps(List.of(file), executor);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void assertSampleInformation(WikidataPropertyInformation information) {
+    // The last revision is used
+    Assertions.assertEquals(DatatypeIdValue.DT_ITEM, information.getDatatypeIRI(Datamodel.makeWikidataPropertyIdValue("P2")));
+    Assertions.assertEquals(DatatypeIdValue.DT_EXTERNAL_ID, information.getDatatypeIRI(Datamodel.makeWikidataPropertyIdValue("P11")));
+    Assertions.assertEquals(DatatypeIdValue.DT_GEO_SHAPE, information.getDatatypeIRI(Datamodel.makeWikidataPropertyIdValue("P3896")));
+    Assertions.assertNull(information.getDatatype(Datamodel.makeWikidataPropertyIdValue("P9")));
+
+    Assertions.assertEquals("http://example.com/preferred/$1", information.getUriPattern(Datamodel.makeWikidataPropertyIdValue("P11")));
+    Assertions.assertNull(information.getUriPattern(Datamodel.makeWikidataPropertyIdValue("P2")));
+  }
+}
@@ -0,0 +1,45 @@
+package org.wikidata.history.preprocessor;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.wikidata.wdtk.datamodel.interfaces.Sites;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+class WikidataSitesTest {
+
+  @Test
+  void testLoad() throws IOException {
+    Sites sites = fromSampleDump();
+    Assertions.assertEquals("wikipedia", sites.getGroup("enwiki"));
+    Assertions.assertEquals("ru", sites.getLanguageCode("ruwiki"));
+    Assertions.assertEquals("https://en.wikipedia.org/wiki/Douglas_Adams", sites.getPageUrl("enwiki", "Douglas Adams"));
+  }
+
+  @Test
+  void testLoadInvalidFile() throws IOException {
+    Path file = Files.createTempFile("sites", ".sql");
+    Files.write(file, "-- empty".getBytes());
+    Assertions.assertThrows(IOException.class, () -> WikidataSites.load(file));
+  }
+
+  /**
+   * @return the sites used by the test entities, without downloading the sites table
+   */
+  static Sites fromSampleDump() throws IOException {
+    Path file = Files.createTempFile("sites", ".sql.gz");
+    try (
+            InputStream input = WikidataSitesTest.class.getResourceAsStream("/sites_sample.sql");
+            OutputStream output = new GZIPOutputStream(Files.newOutputStream(file))
+    ) {
+      IOUtils.copy(input, output);
+    }
+    return WikidataSites.load(file);
+  }
+}
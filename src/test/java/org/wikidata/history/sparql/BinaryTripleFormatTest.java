@@ -0,0 +1,66 @@
+package org.wikidata.history.sparql;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+class BinaryTripleFormatTest {
+
+  private static final ValueFactory VALUE_FACTORY = SimpleValueFactory.getInstance();
+
+  @Test
+  void testRoundTrip() throws IOException {
+    IRI q42 = VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q42");
+    IRI p31 = VALUE_FACTORY.createIRI(Vocabulary.WDT_NAMESPACE, "P31");
+    List<Statement> statements = List.of(
+            VALUE_FACTORY.createStatement(q42, p31, VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q5")),
+            VALUE_FACTORY.createStatement(q42, p31, VALUE_FACTORY.createLiteral("foo\tbar\n", "en")),
+            VALUE_FACTORY.createStatement(q42, p31, VALUE_FACTORY.createLiteral(Long.MAX_VALUE))
+    );
+    List<long[]> ranges = List.of(new long[]{0, Long.MAX_VALUE}, new long[]{1, 200, 300, 400}, new long[]{10, 1L << 40});
+
+    // The dictionary is reset before the last triple
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (BinaryTripleFormat.Writer writer = new BinaryTripleFormat.Writer(output, 4)) {
+      for (int i = 0; i < statements.size(); i++) {
+        Statement statement = statements.get(i);
+        writer.writeTriple(statement.getSubject(), statement.getPredicate(), statement.getObject(), ranges.get(i));
+      }
+    }
+
+    List<Value> terms = new ArrayList<>();
+    List<Statement> readStatements = new ArrayList<>();
+    List<long[]> readRanges = new ArrayList<>();
+    BinaryTripleFormat.read(new ByteArrayInputStream(output.toByteArray()), VALUE_FACTORY, new BinaryTripleFormat.Handler() {
+      @Override
+      public void term(Value term) {
+        terms.add(term);
+      }
+
+      @Override
+      public void reset() {
+        terms.clear();
+      }
+
+      @Override
+      public void triple(int subject, int predicate, int object, long[] revisionIds) {
+        readStatements.add(VALUE_FACTORY.createStatement((IRI) terms.get(subject), (IRI) terms.get(predicate), terms.get(object)));
+        readRanges.add(revisionIds);
+      }
+    });
+    Assertions.assertEquals(statements, readStatements);
+    for (int i = 0; i < ranges.size(); i++) {
+      Assertions.assertArrayEquals(ranges.get(i), readRanges.get(i));
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package org.wikidata.history.sparql;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+class HistoryEvaluationStrategyTest {
+
+  private static final ValueFactory VALUE_FACTORY = SimpleValueFactory.getInstance();
+  private static final IRI SUBCLASS_OF = VALUE_FACTORY.createIRI(Vocabulary.WDT_NAMESPACE, "P279");
+  private static final String PREFIXES = "PREFIX wd: <" + Vocabulary.WD_NAMESPACE + "> PREFIX wdt: <" + Vocabulary.WDT_NAMESPACE + "> ";
+
+  private final Path tempDir;
+
+  HistoryEvaluationStrategyTest() throws IOException {
+    tempDir = Files.createTempDirectory(null);
+    Files.deleteIfExists(tempDir);
+  }
+
+  @BeforeEach
+  void setUpBeforeClass() throws NotSupportedValueException {
+    try (RocksStore store = new RocksStore(tempDir, false)) {
+      NumericValueFactory factory = new NumericValueFactory(store.getReadWriteStringStore());
+      addSubClassOf(store, factory, "Q1", "Q2", 10, Long.MAX_VALUE);
+      addSubClassOf(store, factory, "Q2", "Q3", 10, 20);
+      addSubClassOf(store, factory, "Q3", "Q4", 15, Long.MAX_VALUE);
+      addSubClassOf(store, factory, "Q2", "Q5", 20, Long.MAX_VALUE);
+    }
+  }
+
+  private static void addSubClassOf(RocksStore store, NumericValueFactory factory, String subClass, String superClass, long start, long end) throws NotSupportedValueException {
+    long s = factory.encodeValue(VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, subClass));
+    long p = factory.encodeValue(SUBCLASS_OF);
+    long o = factory.encodeValue(VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, superClass));
+    long[] range = new long[]{start, end};
+    store.spoStatementIndex().put(new long[]{s, p, o}, range);
+    store.posStatementIndex().put(new long[]{p, o, s}, range);
+    store.ospStatementIndex().put(new long[]{o, s, p}, range);
+  }
+
+  @Test
+  void testClosure() {
+    try (HistoryRepository repository = new HistoryRepository(tempDir)) {
+      RepositoryConnection connection = repository.getConnection();
+      Assertions.assertEquals(set("Q2", "Q3"), evaluate(connection, "SELECT ?c WHERE { GRAPH <" + Vocabulary.REVISION_GLOBAL_STATE_NAMESPACE + "12> { wd:Q1 wdt:P279+ ?c } }"));
+      Assertions.assertEquals(set("Q2", "Q3", "Q4"), evaluate(connection, "SELECT ?c WHERE { GRAPH <" + Vocabulary.REVISION_GLOBAL_STATE_NAMESPACE + "16> { wd:Q1 wdt:P279+ ?c } }"));
+      Assertions.assertEquals(set("Q2", "Q5"), evaluate(connection, "SELECT ?c WHERE { GRAPH <" + Vocabulary.REVISION_GLOBAL_STATE_NAMESPACE + "25> { wd:Q1 wdt:P279+ ?c } }"));
+      Assertions.assertEquals(set("Q1", "Q2", "Q5"), evaluate(connection, "SELECT ?c WHERE { GRAPH <" + Vocabulary.REVISION_GLOBAL_STATE_NAMESPACE + "25> { wd:Q1 wdt:P279* ?c } }"));
+      Assertions.assertEquals(set("Q1", "Q2", "Q3"), evaluate(connection, "SELECT ?c WHERE { GRAPH <" + Vocabulary.REVISION_GLOBAL_STATE_NAMESPACE + "16> { ?c wdt:P279+ wd:Q4 } }"));
+      Assertions.assertEquals(set("Q3"), evaluate(connection, "SELECT ?c WHERE { GRAPH <" + Vocabulary.REVISION_GLOBAL_STATE_NAMESPACE + "25> { ?c wdt:P279+ wd:Q4 } }"));
+      Assertions.assertTrue(connection.prepareBooleanQuery(PREFIXES + "ASK { GRAPH <" + Vocabulary.REVISION_GLOBAL_STATE_NAMESPACE + "16> { wd:Q1 wdt:P279+ wd:Q4 } }").evaluate());
+      Assertions.assertFalse(connection.prepareBooleanQuery(PREFIXES + "ASK { GRAPH <" + Vocabulary.REVISION_GLOBAL_STATE_NAMESPACE + "25> { wd:Q1 wdt:P279+ wd:Q4 } }").evaluate());
+    }
+  }
+
+  private static Set<String> evaluate(RepositoryConnection connection, String query) {
+    Set<String> result = new HashSet<>();
+    try (TupleQueryResult bindings = connection.prepareTupleQuery(PREFIXES + query).evaluate()) {
+      for (BindingSet binding : bindings) {
+        result.add(((IRI) binding.getValue("c")).getLocalName());
+      }
+    }
+    return result;
+  }
+
+  private static Set<String> set(String... values) {
+    return new HashSet<>(Arrays.asList(values));
+  }
+}
@@ -0,0 +1,32 @@
+package org.wikidata.history.sparql;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class LoadingCheckpointTest {
+
+  @Test
+  void testOutOfOrderCommits() throws IOException {
+    Path file = Files.createTempDirectory(null).resolve("progress.txt");
+    LoadingCheckpoint checkpoint = new LoadingCheckpoint(file, Path.of("triples.tsv.gz"));
+    Assertions.assertEquals(0, checkpoint.getStart());
+
+    checkpoint.commit(1, 20);
+    Assertions.assertEquals(0, checkpoint.getCommitted());
+    checkpoint.commit(0, 10);
+    Assertions.assertEquals(20, checkpoint.getCommitted());
+    checkpoint.commit(3, 40);
+    Assertions.assertEquals(20, checkpoint.getCommitted());
+    checkpoint.finish();
+
+    // The batch 3 is after a missing batch and so is loaded again
+    LoadingCheckpoint restarted = new LoadingCheckpoint(file, Path.of("triples.tsv.gz"));
+    Assertions.assertEquals(20, restarted.getStart());
+    restarted.commit(0, 30);
+    Assertions.assertEquals(30, restarted.getCommitted());
+  }
+}
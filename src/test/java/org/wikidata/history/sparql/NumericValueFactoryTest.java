@@ -33,6 +33,58 @@ class NumericValueFactoryTest {
     testIRIConversion("http://example.com", valueFactory);
   }
 
+  @Test
+  void testNamespaceFactoredIRIEncoding() throws NotSupportedValueException {
+    NumericValueFactory valueFactory = new NumericValueFactory(new TestStringStore());
+    testIRIConversion("http://schema.org/foofoofoofoo", valueFactory);
+    testIRIConversion("http://schema.org/bar", valueFactory);
+
+    // The split does not depend on the one given to the factory
+    Assertions.assertEquals(
+            ((NumericValueFactory.NumericValue) valueFactory.createIRI("http://schema.org/", "foofoofoofoo")).encode(),
+            ((NumericValueFactory.NumericValue) valueFactory.createIRI("http://", "schema.org/foofoofoofoo")).encode()
+    );
+
+    // The namespace is read from the pinned table and the local name from the dictionary
+    IRI iri = (IRI) valueFactory.createValue(((NumericValueFactory.NumericValue) valueFactory.createIRI("http://schema.org/bar")).encode());
+    Assertions.assertEquals("http://schema.org/", iri.getNamespace());
+    Assertions.assertEquals("bar", iri.getLocalName());
+
+    // The sitelink article bases are pinned too
+    testIRIConversion("https://en.wikipedia.org/wiki/bar", valueFactory);
+    testIRIConversion("https://fr.wikisource.org/wiki/foofoofoofoo", valueFactory);
+    testIRIConversion("https://commons.wikimedia.org/wiki/bar", valueFactory);
+
+    // The other namespaces have no id: the full IRI has to be in the dictionary
+    Assertions.assertFalse(valueFactory.createIRI("http://example.com/bar") instanceof NumericValueFactory.NumericValue);
+  }
+
+  @Test
+  void testNodeIRIEncoding() throws NotSupportedValueException {
+    // The test dictionary does not contain these IRIs
+    NumericValueFactory valueFactory = new NumericValueFactory(new TestStringStore());
+    testIRIConversion(Vocabulary.WDV_NAMESPACE + "c0b3e2c48e4c8c8e4f28f3c3d1b2a8e0bdd7d6a1", valueFactory);
+    testIRIConversion(Vocabulary.WDREF_NAMESPACE + "a5a2f3a4c7f1d1a92fc5e2d9e57b07e8e1b3f8e2", valueFactory);
+    testIRIConversion(Vocabulary.WDS_NAMESPACE + "Q42-F078E5B3-F9A8-480E-B7AC-D97778CBBEF9", valueFactory);
+    testIRIConversion(Vocabulary.WDS_NAMESPACE + "q42-f078e5b3-f9a8-480e-b7ac-d97778cbbef9", valueFactory);
+    testIRIConversion(Vocabulary.WDV_NAMESPACE + "foo", valueFactory);
+
+    // The same fingerprint is used by the value nodes with the same 15 first characters
+    IRI first = valueFactory.createIRI(Vocabulary.WDV_NAMESPACE + "0123456789abcde00000000000000000000000000");
+    IRI second = valueFactory.createIRI(Vocabulary.WDV_NAMESPACE + "0123456789abcde00000000000000000000000001");
+    Assertions.assertNotEquals(((NumericValueFactory.NumericValue) first).encode(), ((NumericValueFactory.NumericValue) second).encode());
+    testIRIConversion(first.stringValue(), valueFactory);
+    testIRIConversion(second.stringValue(), valueFactory);
+
+    // The namespace is known without reading the node table
+    IRI decoded = (IRI) new NumericValueFactory(new NumericValueFactory.EmptyStringStore()).createValue(((NumericValueFactory.NumericValue) first).encode());
+    Assertions.assertEquals(Vocabulary.WDV_NAMESPACE, decoded.getNamespace());
+    Assertions.assertThrows(IllegalStateException.class, decoded::getLocalName);
+
+    // Without node table, the dictionary is used
+    testIRIConversion(Vocabulary.WDV_NAMESPACE + "foofoofoofoo", new NumericValueFactory(new TestStringStore(false)));
+  }
+
   @Test
   void testStringEncoding() throws NotSupportedValueException {
     NumericValueFactory valueFactory = new NumericValueFactory(new TestStringStore());
@@ -146,6 +198,21 @@ class NumericValueFactoryTest {
       DECODING.put(2L, Long.toString(Long.MIN_VALUE));
       ENCODING.put("http://example.com", 3L);
       DECODING.put(3L, "http://example.com");
+      ENCODING.put(Vocabulary.WDV_NAMESPACE + "foofoofoofoo", 4L);
+      DECODING.put(4L, Vocabulary.WDV_NAMESPACE + "foofoofoofoo");
+    }
+
+    private final Map<Long, byte[]> nodes;
+
+    TestStringStore() {
+      this(true);
+    }
+
+    /**
+     * @param hasNodeTable if the nodes could be stored
+     */
+    TestStringStore(boolean hasNodeTable) {
+      nodes = hasNodeTable ? new HashMap<>() : null;
     }
 
     @Override
@@ -168,6 +235,16 @@ class NumericValueFactoryTest {
       return ENCODING.containsKey(languageCode) ? ENCODING.get(languageCode).shortValue() : null;
     }
 
+    @Override
+    public byte[] getNode(long id) {
+      return nodes == null ? null : nodes.get(id);
+    }
+
+    @Override
+    public byte[] putNode(long id, byte[] localName) {
+      return nodes == null ? null : nodes.computeIfAbsent(id, k -> localName);
+    }
+
     @Override
     public void close() {
     }
@@ -0,0 +1,26 @@
+package org.wikidata.history.sparql;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ParsedQueryCacheTest {
+
+  @Test
+  void testNormalizeQuery() {
+    Assertions.assertEquals("SELECT * WHERE { ?s ?p ?o }", ParsedQueryCache.normalizeQuery("  SELECT *\n WHERE {\t?s ?p   ?o\r\n}\n"));
+    Assertions.assertEquals("SELECT * WHERE { ?s ?p \"a  b\" }", ParsedQueryCache.normalizeQuery("SELECT * WHERE { ?s ?p \"a  b\" }"));
+    Assertions.assertEquals("SELECT * WHERE { ?s ?p 'a \\'  b' }", ParsedQueryCache.normalizeQuery("SELECT  * WHERE { ?s ?p 'a \\'  b' }"));
+    Assertions.assertEquals("SELECT * WHERE { ?s ?p \"\"\"a \"  b\"\"\" }", ParsedQueryCache.normalizeQuery("SELECT * WHERE  { ?s ?p \"\"\"a \"  b\"\"\" }"));
+    Assertions.assertEquals("# don't  touch\nSELECT * WHERE { ?s ?p \"a  b\" }", ParsedQueryCache.normalizeQuery("# don't  touch\nSELECT * WHERE { ?s ?p \"a  b\" }"));
+    Assertions.assertEquals("PREFIX ex: <http://example.com/#> SELECT * WHERE { ?s ?p ?o FILTER(?o < 3) }", ParsedQueryCache.normalizeQuery("PREFIX ex: <http://example.com/#>\nSELECT * WHERE { ?s ?p ?o FILTER(?o  <  3) }"));
+  }
+
+  @Test
+  void testParseQuery() {
+    ParsedQueryCache cache = new ParsedQueryCache();
+    Assertions.assertSame(cache.parseQuery("SELECT * WHERE { ?s ?p ?o }", null), cache.parseQuery("SELECT *\nWHERE { ?s ?p ?o }", null));
+    Assertions.assertNotSame(cache.parseQuery("SELECT * WHERE { ?s ?p \"a b\" }", null), cache.parseQuery("SELECT * WHERE { ?s ?p \"a  b\" }", null));
+    Assertions.assertEquals(1, cache.getStats().hitCount());
+    Assertions.assertEquals(3, cache.getStats().missCount());
+  }
+}
@@ -0,0 +1,62 @@
+package org.wikidata.history.sparql;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.DBOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+class RocksStoreTest {
+
+  @Test
+  void testPreviousVersionIndex() throws IOException, RocksDBException {
+    // An index without the column families added since
+    Path directory = Files.createTempDirectory(null);
+    List<ColumnFamilyHandle> handles = new ArrayList<>();
+    try (
+            DBOptions options = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true);
+            RocksDB db = RocksDB.open(options, directory.toString(), List.of(
+                    new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY),
+                    new ColumnFamilyDescriptor("id4str".getBytes()),
+                    new ColumnFamilyDescriptor("str4id".getBytes())
+            ), handles)
+    ) {
+      handles.forEach(ColumnFamilyHandle::close);
+    }
+    Assertions.assertThrows(IllegalStateException.class, () -> new RocksStore(directory, true));
+    Assertions.assertThrows(IllegalStateException.class, () -> new RocksStore(directory, false));
+
+    // An index with a column family that is not used anymore
+    Path obsoleteDirectory = Files.createTempDirectory(null);
+    new RocksStore(obsoleteDirectory, false).close();
+    List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+    try (Options options = new Options()) {
+      for (byte[] name : RocksDB.listColumnFamilies(options, obsoleteDirectory.toString())) {
+        descriptors.add(new ColumnFamilyDescriptor(name));
+      }
+    }
+    List<ColumnFamilyHandle> obsoleteHandles = new ArrayList<>();
+    try (
+            DBOptions options = new DBOptions();
+            RocksDB db = RocksDB.open(options, obsoleteDirectory.toString(), descriptors, obsoleteHandles)
+    ) {
+      db.createColumnFamily(new ColumnFamilyDescriptor("ns4id".getBytes())).close();
+      obsoleteHandles.forEach(ColumnFamilyHandle::close);
+    }
+    Assertions.assertThrows(IllegalStateException.class, () -> new RocksStore(obsoleteDirectory, true));
+
+    // A new index
+    Path newDirectory = Files.createTempDirectory(null);
+    new RocksStore(newDirectory, false).close();
+    new RocksStore(newDirectory, true).close();
+  }
+}
@@ -0,0 +1,150 @@
+package org.wikidata.history.sparql;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+class RocksTripleLoaderTest {
+
+  private static final ValueFactory VALUE_FACTORY = SimpleValueFactory.getInstance();
+  private static final String REVISIONS = "10\t-1\tQ42\t1577836800\tAlice\n" +
+          "11\t10\tQ42\t1577923200\tBob\n" +
+          "12\t-1\tQ5\t1578009600\tAlice\n" +
+          "13\t11\tQ42\t1580515200\tAlice\n";
+  // The triples are split into two shards, the second one in the binary format
+  private static final String TRIPLES_0 = "<http://www.wikidata.org/entity/Q42>\t<http://www.wikidata.org/prop/direct/P31>\t<http://www.wikidata.org/entity/Q5>\t10 " + Long.MAX_VALUE + "\n" +
+          "<http://www.wikidata.org/entity/Q42>\t<http://www.wikidata.org/prop/direct/P21>\t<http://www.wikidata.org/entity/Q6581097>\t10 11\n";
+
+  // The changes of Q42 after revision 13 as written by an incremental preprocessing
+  private static final String INCREMENTAL_REVISIONS = "14\t13\tQ42\t1580601600\tBob\n";
+  private static final String INCREMENTAL_TRIPLES = "<http://www.wikidata.org/entity/Q42>\t<http://www.wikidata.org/prop/direct/P31>\t<http://www.wikidata.org/entity/Q5>\t13 14\n" +
+          "<http://www.wikidata.org/entity/Q42>\t<http://www.wikidata.org/prop/direct/P31>\t<http://www.wikidata.org/entity/Q215627>\t14 " + Long.MAX_VALUE + "\n";
+
+  private final Path directory;
+  private final Path index;
+
+  RocksTripleLoaderTest() throws IOException {
+    directory = Files.createTempDirectory(null);
+    index = directory.resolve("index");
+    try (RocksRevisionLoader loader = new RocksRevisionLoader(index)) {
+      loader.load(writeGzip(directory.resolve("revisions.tsv.gz"), REVISIONS));
+    }
+    try (RocksTripleLoader loader = new RocksTripleLoader(index, false)) {
+      loader.load(List.of(
+              writeGzip(directory.resolve("triples-0.tsv.gz"), TRIPLES_0),
+              writeTriples1(directory.resolve("triples-1" + BinaryTripleFormat.FILE_EXTENSION))
+      ));
+    }
+  }
+
+  @Test
+  void testEntityTimeline() {
+    try (RocksTripleSource tripleSource = new RocksTripleSource(index)) {
+      IRI q42 = VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q42");
+      List<EntityRevision> timeline = tripleSource.getEntityTimeline(q42);
+      Assertions.assertEquals(3, timeline.size());
+      assertRevision(timeline.get(0), 10, Instant.ofEpochSecond(1577836800), "Alice", 2, 0);
+      assertRevision(timeline.get(1), 11, Instant.ofEpochSecond(1577923200), "Bob", 1, 1);
+      assertRevision(timeline.get(2), 13, Instant.ofEpochSecond(1580515200), "Alice", 0, 1);
+      Assertions.assertEquals(List.of(), tripleSource.getEntityTimeline(VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q1")));
+    }
+  }
+
+  @Test
+  void testIncrementalLoad() throws IOException {
+    try (RocksStore store = new RocksStore(index, true)) {
+      Assertions.assertEquals(13, store.getHighWaterRevisionId());
+    }
+    try (RocksRevisionLoader loader = new RocksRevisionLoader(index)) {
+      loader.load(writeGzip(directory.resolve("revisions-update.tsv.gz"), INCREMENTAL_REVISIONS));
+    }
+    // The file has the same name as an already loaded one
+    try (Stream<Path> files = Files.list(index)) {
+      Assertions.assertTrue(files.noneMatch(file -> file.getFileName().toString().startsWith("triple-progress-")));
+    }
+    try (RocksTripleLoader loader = new RocksTripleLoader(index, false)) {
+      loader.load(writeGzip(directory.resolve("triples-0.tsv.gz"), INCREMENTAL_TRIPLES));
+    }
+
+    try (RocksTripleSource tripleSource = new RocksTripleSource(index)) {
+      // The P31 range open since revision 10 has been closed by revision 14
+      List<EntityRevision> timeline = tripleSource.getEntityTimeline(VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q42"));
+      Assertions.assertEquals(4, timeline.size());
+      assertRevision(timeline.get(0), 10, Instant.ofEpochSecond(1577836800), "Alice", 2, 0);
+      assertRevision(timeline.get(2), 13, Instant.ofEpochSecond(1580515200), "Alice", 0, 1);
+      assertRevision(timeline.get(3), 14, Instant.ofEpochSecond(1580601600), "Bob", 1, 1);
+
+      // The counts of revision 14 are added to the ones of the previous load
+      List<PredicateActivity> activity = tripleSource.getPredicateActivity(VALUE_FACTORY.createIRI(Vocabulary.WDT_NAMESPACE, "P31"), null);
+      Assertions.assertEquals(2, activity.size());
+      assertActivity(activity.stream().filter(a -> "Alice".equals(a.getContributor())).findAny().orElseThrow(), 1, 0);
+      assertActivity(activity.stream().filter(a -> "Bob".equals(a.getContributor())).findAny().orElseThrow(), 1, 1);
+    }
+    try (RocksStore store = new RocksStore(index, true)) {
+      Assertions.assertEquals(14, store.getHighWaterRevisionId());
+    }
+  }
+
+  @Test
+  void testPredicateActivity() {
+    try (RocksTripleSource tripleSource = new RocksTripleSource(index)) {
+      IRI p21 = VALUE_FACTORY.createIRI(Vocabulary.WDT_NAMESPACE, "P21");
+      List<PredicateActivity> activity = tripleSource.getPredicateActivity(p21, null);
+      Assertions.assertEquals(3, activity.size());
+      Instant january = Instant.parse("2020-01-01T00:00:00Z");
+      Instant february = Instant.parse("2020-02-01T00:00:00Z");
+      assertActivity(activity.stream().filter(a -> a.getMonth().equals(january) && "Alice".equals(a.getContributor())).findAny().orElseThrow(), 1, 0);
+      assertActivity(activity.stream().filter(a -> a.getMonth().equals(january) && "Bob".equals(a.getContributor())).findAny().orElseThrow(), 1, 1);
+      assertActivity(activity.stream().filter(a -> a.getMonth().equals(february)).findAny().orElseThrow(), 0, 1);
+
+      Assertions.assertEquals(1, tripleSource.getPredicateActivity(p21, "Bob").size());
+      Assertions.assertEquals(List.of(), tripleSource.getPredicateActivity(p21, "Carol"));
+    }
+  }
+
+  private static void assertActivity(PredicateActivity activity, long insertions, long deletions) {
+    Assertions.assertEquals(insertions, activity.getInsertionCount());
+    Assertions.assertEquals(deletions, activity.getDeletionCount());
+  }
+
+  private static void assertRevision(EntityRevision revision, long id, Instant date, String contributor, long insertions, long deletions) {
+    Assertions.assertEquals(id, revision.getRevisionId());
+    Assertions.assertEquals(date, revision.getDate());
+    Assertions.assertEquals(contributor, revision.getContributor());
+    Assertions.assertEquals(insertions, revision.getInsertionCount());
+    Assertions.assertEquals(deletions, revision.getDeletionCount());
+  }
+
+  private static Path writeGzip(Path file, String content) throws IOException {
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(file)); Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+      writer.write(content);
+    }
+    return file;
+  }
+
+  private static Path writeTriples1(Path file) throws IOException {
+    try (BinaryTripleFormat.Writer writer = new BinaryTripleFormat.Writer(Files.newOutputStream(file))) {
+      writer.writeTriple(
+              VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q42"),
+              VALUE_FACTORY.createIRI(Vocabulary.WDT_NAMESPACE, "P21"),
+              VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q6581072"),
+              11, 13
+      );
+    }
+    return file;
+  }
+}
@@ -6,6 +6,8 @@ import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -13,8 +15,9 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.List;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
 
 class RocksTripleSourceTest {
 
@@ -134,6 +137,107 @@ class RocksTripleSourceTest {
     }
   }
 
+  @Test
+  void testTripleListJoin() {
+    try (HistoryRepository repository = new HistoryRepository(tempDir)) {
+      RepositoryConnection connection = repository.getConnection();
+      String prefixes = "PREFIX wd: <" + Vocabulary.WD_NAMESPACE + "> PREFIX wdt: <" + Vocabulary.WDT_NAMESPACE + "> ";
+      assertLength(connection.prepareTupleQuery(prefixes + "SELECT * WHERE { GRAPH <" + Vocabulary.REVISION_ADDITIONS_NAMESPACE + "42> { ?s wdt:P31 wd:Q5 . ?s wdt:P735 ?name . ?s ?p ?o } }").evaluate(), 8);
+      assertLength(connection.prepareTupleQuery(prefixes + "SELECT * WHERE { GRAPH <" + Vocabulary.REVISION_DELETIONS_NAMESPACE + "43> { ?s wdt:P735 ?a . ?s wdt:P735 ?b FILTER(?a != ?b) } }").evaluate(), 2);
+      assertLength(connection.prepareTupleQuery(prefixes + "SELECT * WHERE { GRAPH <" + Vocabulary.REVISION_ADDITIONS_NAMESPACE + "43> { ?s wdt:P31 wd:Q5 . ?s wdt:P735 ?name } }").evaluate(), 0);
+      assertLength(connection.prepareTupleQuery(prefixes + "SELECT * WHERE { GRAPH <" + Vocabulary.REVISION_ADDITIONS_NAMESPACE + "42> { ?s wdt:P31 wd:Q1 . ?s wdt:P735 ?name } }").evaluate(), 0);
+    }
+  }
+
+  @Test
+  void testRevisionDiff() throws NotSupportedValueException {
+    // A triple added, removed and added again between 43 and 48
+    try (RocksStore store = new RocksStore(tempDir, false)) {
+      NumericValueFactory factory = new NumericValueFactory(store.getReadWriteStringStore());
+      long[] triple = new long[]{
+              factory.encodeValue(VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q1")),
+              factory.encodeValue(VALUE_FACTORY.createIRI(Vocabulary.WDT_NAMESPACE, "P31")),
+              factory.encodeValue(VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q5"))
+      };
+      store.spoStatementIndex().put(triple, new long[]{44, 46, 47, Long.MAX_VALUE});
+      addToStatementListIndex(store.insertedStatementIndex(), 44, triple);
+      addToStatementListIndex(store.deletedStatementIndex(), 46, triple);
+      addToStatementListIndex(store.insertedStatementIndex(), 47, triple);
+    }
+    try (RocksTripleSource tripleSource = new RocksTripleSource(tempDir)) {
+      IRI q42 = VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q42");
+      IRI p735 = VALUE_FACTORY.createIRI(Vocabulary.WDT_NAMESPACE, "P735");
+      // Short windows walk the statement_inserted/statement_deleted lists when the subject is not bound
+      assertLength(tripleSource.getStatements(null, null, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE, "41/42")), 4);
+      assertLength(tripleSource.getStatements(null, p735, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE, "41/42")), 2);
+      assertLength(tripleSource.getStatements(null, null, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_DELETIONS_NAMESPACE, "41/42")), 0);
+      assertLength(tripleSource.getStatements(null, null, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_DELETIONS_NAMESPACE, "42/43")), 4);
+      assertLength(tripleSource.getStatements(null, null, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE, "41/43")), 0);
+      assertLength(tripleSource.getStatements(null, p735, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE, "43/42")), 2);
+      // A triple changed several times in the window is returned once
+      assertLength(tripleSource.getStatements(null, null, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE, "43/48")), 1);
+      assertLength(tripleSource.getStatements(null, null, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_DELETIONS_NAMESPACE, "45/46")), 1);
+      assertLength(tripleSource.getStatements(null, null, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE, "45/47")), 0);
+
+      // Bound subjects and long windows scan the pattern prefix
+      assertLength(tripleSource.getStatements(q42, null, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE, "41/42")), 4);
+      assertLength(tripleSource.getStatements(q42, p735, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_DELETIONS_NAMESPACE, "42/43")), 2);
+      assertLength(tripleSource.getStatements(null, p735, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_DELETIONS_NAMESPACE, "42/1000000")), 2);
+      assertLength(tripleSource.getStatements(null, null, null, VALUE_FACTORY.createIRI(Vocabulary.REVISION_DIFF_ADDITIONS_NAMESPACE, "1/1000000")), 0);
+    }
+  }
+
+  @Test
+  void testEntityState() throws NotSupportedValueException {
+    IRI q42 = VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q42");
+    IRI statement = VALUE_FACTORY.createIRI(Vocabulary.WDS_NAMESPACE, "Q42-1");
+    try (RocksStore store = new RocksStore(tempDir, false)) {
+      NumericValueFactory factory = new NumericValueFactory(store.getReadWriteStringStore());
+      long[] statementLink = new long[]{factory.encodeValue(q42), factory.encodeValue(VALUE_FACTORY.createIRI(Vocabulary.P_NAMESPACE, "P31")), factory.encodeValue(statement)};
+      long[] statementValue = new long[]{factory.encodeValue(statement), factory.encodeValue(VALUE_FACTORY.createIRI(Vocabulary.PS_NAMESPACE, "P31")), factory.encodeValue(VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q5"))};
+      store.spoStatementIndex().put(statementLink, new long[]{42, Long.MAX_VALUE});
+      store.spoStatementIndex().put(statementValue, new long[]{42, Long.MAX_VALUE});
+      store.topicRevisionIndex().put(factory.encodeValue(q42), new long[]{43, 42});
+      store.revisionDateIndex().put(42L, Instant.parse("2020-01-10T00:00:00Z").getEpochSecond());
+      store.revisionDateIndex().put(43L, Instant.parse("2020-03-05T00:00:00Z").getEpochSecond());
+    }
+    try (RocksTripleSource tripleSource = new RocksTripleSource(tempDir)) {
+      Assertions.assertEquals(OptionalLong.empty(), tripleSource.getEntityRevisionAt(q42, Instant.parse("2020-01-01T00:00:00Z")));
+      Assertions.assertEquals(OptionalLong.of(42), tripleSource.getEntityRevisionAt(q42, Instant.parse("2020-02-01T00:00:00Z")));
+      Assertions.assertEquals(OptionalLong.of(43), tripleSource.getEntityRevisionAt(q42, Instant.parse("2021-01-01T00:00:00Z")));
+
+      List<Statement> state = new ArrayList<>();
+      tripleSource.exportEntityState(q42, 42, new StatementCollector(state));
+      Assertions.assertEquals(6, state.size());
+      Assertions.assertTrue(state.stream().anyMatch(t -> t.getSubject().stringValue().equals(statement.stringValue())));
+
+      state.clear();
+      tripleSource.exportEntityState(q42, 43, new StatementCollector(state));
+      Assertions.assertEquals(2, state.size());
+    }
+  }
+
+  @Test
+  void testTripleCountHistogram() {
+    try (RocksStore store = new RocksStore(tempDir, false)) {
+      store.revisionDateIndex().put(42L, Instant.parse("2020-01-10T00:00:00Z").getEpochSecond());
+      store.revisionDateIndex().put(43L, Instant.parse("2020-03-05T00:00:00Z").getEpochSecond());
+    }
+    try (RocksTripleSource tripleSource = new RocksTripleSource(tempDir)) {
+      IRI p735 = VALUE_FACTORY.createIRI(Vocabulary.WDT_NAMESPACE, "P735");
+      SortedMap<Instant, Long> expected = new TreeMap<>();
+      expected.put(Instant.parse("2020-01-01T00:00:00Z"), 2L);
+      expected.put(Instant.parse("2020-02-01T00:00:00Z"), 2L);
+      expected.put(Instant.parse("2020-03-01T00:00:00Z"), 0L);
+      Assertions.assertEquals(expected, tripleSource.getTripleCountHistogram(null, p735, null, ChronoUnit.MONTHS));
+      Assertions.assertEquals(
+              Map.of(Instant.parse("2020-01-01T00:00:00Z"), 0L), // Added and removed during the year
+              tripleSource.getTripleCountHistogram(VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q42"), p735, VALUE_FACTORY.createIRI(Vocabulary.WD_NAMESPACE, "Q463035"), ChronoUnit.YEARS)
+      );
+      Assertions.assertEquals(Map.of(), tripleSource.getTripleCountHistogram(null, VALUE_FACTORY.createIRI(Vocabulary.WDT_NAMESPACE, "P1"), null, ChronoUnit.DAYS));
+    }
+  }
+
   private static <X, E extends Exception> void assertLength(CloseableIteration<X, E> iteration, int length) throws E {
     try (CloseableIteration<X, E> iter = iteration) {
       int count = 0;
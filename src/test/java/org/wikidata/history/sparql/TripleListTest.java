@@ -0,0 +1,53 @@
+package org.wikidata.history.sparql;
+
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TripleListTest {
+
+  private static final long[] TRIPLES = new long[]{
+          -5, 1, 7,
+          2, 1, 3,
+          2, 1, -5,
+          2, 4, 3,
+          6, 1, 3,
+          6, 4, 2
+  };
+
+  @Test
+  void testLookup() {
+    for (boolean indexObjects : new boolean[]{false, true}) {
+      TripleList list = new TripleList(TRIPLES, indexObjects);
+      Assertions.assertEquals(18, lookup(list, 0, 0, 0).size());
+      Assertions.assertEquals(LongArrayList.newListWith(2, 1, 3, 2, 1, -5, 2, 4, 3), lookup(list, 2, 0, 0));
+      Assertions.assertEquals(LongArrayList.newListWith(2, 4, 3), lookup(list, 2, 4, 0));
+      Assertions.assertEquals(LongArrayList.newListWith(-5, 1, 7), lookup(list, -5, 0, 0));
+      Assertions.assertEquals(LongArrayList.newListWith(), lookup(list, 3, 0, 0));
+      Assertions.assertEquals(LongArrayList.newListWith(), lookup(list, 7, 0, 0));
+      Assertions.assertEquals(LongArrayList.newListWith(2, 1, 3, 2, 4, 3, 6, 1, 3), filter(lookup(list, 0, 0, 3), 0, 0, 3));
+      Assertions.assertEquals(LongArrayList.newListWith(2, 1, -5), filter(lookup(list, 0, 0, -5), 0, 0, -5));
+    }
+    Assertions.assertEquals(9, lookup(new TripleList(TRIPLES, true), 0, 0, 3).size());
+  }
+
+  private static LongArrayList lookup(TripleList list, long subject, long predicate, long object) {
+    LongArrayList result = new LongArrayList();
+    TripleList.Cursor cursor = list.lookup(subject, predicate, object);
+    while (cursor.hasNext()) {
+      int position = cursor.next();
+      result.addAll(TRIPLES[position], TRIPLES[position + 1], TRIPLES[position + 2]);
+    }
+    return result;
+  }
+
+  private static LongArrayList filter(LongArrayList triples, long subject, long predicate, long object) {
+    LongArrayList result = new LongArrayList();
+    for (int i = 0; i < triples.size(); i += 3) {
+      if ((subject == 0 || triples.get(i) == subject) && (predicate == 0 || triples.get(i + 1) == predicate) && (object == 0 || triples.get(i + 2) == object)) {
+        result.addAll(triples.get(i), triples.get(i + 1), triples.get(i + 2));
+      }
+    }
+    return result;
+  }
+}
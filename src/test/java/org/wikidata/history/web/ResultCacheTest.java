@@ -0,0 +1,49 @@
+package org.wikidata.history.web;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+class ResultCacheTest {
+
+  @Test
+  void testCache() throws IOException {
+    Path directory = Files.createTempDirectory(null);
+
+    ResultCache cache = new ResultCache(directory, 1);
+    write(cache, "committed", "foo", true);
+    write(cache, "failed", "bar", false);
+    Assertions.assertEquals(Optional.of("foo"), read(cache, "committed"));
+    Assertions.assertEquals(Optional.empty(), read(cache, "failed"));
+
+    Assertions.assertEquals(Optional.of("foo"), read(new ResultCache(directory, 1), "committed"));
+    Assertions.assertEquals(Optional.empty(), read(new ResultCache(directory, 2), "committed"));
+  }
+
+  private static void write(ResultCache cache, String key, String value, boolean commit) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ResultCache.CachingOutputStream cachingOutputStream = cache.newEntry(key, output);
+    cachingOutputStream.write(value.getBytes(StandardCharsets.UTF_8));
+    Assertions.assertEquals(value, output.toString(StandardCharsets.UTF_8));
+    if (commit) {
+      cachingOutputStream.commit();
+    }
+  }
+
+  private static Optional<String> read(ResultCache cache, String key) throws IOException {
+    Optional<InputStream> result = cache.get(key);
+    if (result.isEmpty()) {
+      return Optional.empty();
+    }
+    try (InputStream inputStream = result.get()) {
+      return Optional.of(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,2 @@
+-- MySQL dump of the sites table, reduced to the sites used by the tests
+INSERT INTO `sites` VALUES (1,'enwiki','mediawiki','wikipedia','local','en','','gro.aidepikiw.ne.','a:1:{s:5:\"paths\";a:2:{s:9:\"file_path\";s:29:\"https://en.wikipedia.org/w/$1\";s:9:\"page_path\";s:32:\"https://en.wikipedia.org/wiki/$1\";}}',0,'a:0:{}'),(2,'ruwiki','mediawiki','wikipedia','local','ru','','gro.aidepikiw.ur.','a:1:{s:5:\"paths\";a:2:{s:9:\"file_path\";s:29:\"https://ru.wikipedia.org/w/$1\";s:9:\"page_path\";s:32:\"https://ru.wikipedia.org/wiki/$1\";}}',0,'a:0:{}'),(3,'wikidatawiki','mediawiki','wikidata','local','en','','gro.atadikiw.www.','a:1:{s:5:\"paths\";a:2:{s:9:\"file_path\";s:30:\"https://www.wikidata.org/w/$1\";s:9:\"page_path\";s:33:\"https://www.wikidata.org/wiki/$1\";}}',0,'a:0:{}');